@@ -0,0 +1,92 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package com.levelsbeyond.jpoller;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.levelsbeyond.jpoller.BasePollManager.Result;
+
+/**
+ * The eventual {@link Result} of processing a file asynchronously, see {@link BasePollManager#doProcessAsync(java.io.File)}.
+ *
+ * The processor completes it, from any thread, once the file has been processed; the callbacks registered with
+ * whenComplete are then run by that thread (or at once, by the registering thread, if already completed).  Only the
+ * first completion counts: later ones, e.g. after the manager has timed out the file, are ignored.
+ */
+public class AsyncResult {
+
+	public interface Callback {
+		void completed(Result result);
+	}
+
+	private Result result;
+	private List<Callback> callbacks = new ArrayList<>();
+
+	public static AsyncResult completed(Result result) {
+		AsyncResult asyncResult = new AsyncResult();
+		asyncResult.complete(result);
+		return asyncResult;
+	}
+
+	/**
+	 * @return false if the result had already been completed
+	 */
+	public boolean complete(Result result) {
+		if (result == null) {
+			throw new IllegalArgumentException("The result cannot be null");
+		}
+		List<Callback> toRun;
+		synchronized (this) {
+			if (this.result != null) {
+				return false;
+			}
+			this.result = result;
+			toRun = callbacks;
+			callbacks = null;
+		}
+		for (Callback callback : toRun) {
+			callback.completed(result);
+		}
+		return true;
+	}
+
+	public void whenComplete(Callback callback) {
+		Result completed;
+		synchronized (this) {
+			if (result == null) {
+				callbacks.add(callback);
+				return;
+			}
+			completed = result;
+		}
+		callback.completed(completed);
+	}
+
+	public synchronized boolean isDone() {
+		return result != null;
+	}
+
+	/**
+	 * @return the result, or null if not completed yet
+	 */
+	public synchronized Result getResult() {
+		return result;
+	}
+}
@@ -18,18 +18,43 @@
 package com.levelsbeyond.jpoller;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Callable;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.sadun.util.FileMover;
+import org.sadun.util.PathNormalizer;
+import org.sadun.util.polling.DirectoryPoller;
 import org.sadun.util.polling.FileFoundEvent;
 import org.sadun.util.polling.FileSetFoundEvent;
+import org.sadun.util.polling.FlowControl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,21 +65,67 @@ import org.slf4j.LoggerFactory;
  * folder based on what happened.  If a failure occurs, it will write a log file with the detected
  * exception data.
  *
- * For subclasses, the methods to override are doValidate and doProcess.  doValidate optionally provides
+ * For subclasses, the methods to override are doValidate and doProcess (or doProcessAsync).  doValidate optionally provides
  * the subclass the opportunity to review the configuration and fail if something is amiss.  doProcess
  * is the actual processing portion-- the subclass will only be called if maxConcurrent has not been met.
  * The return is a Future<Result>, which the calling thread will block on until a value is present, so
- * concurrency is possible here.
+ * concurrency is possible here.  Subclasses whose processing is asynchronous should also override doProcessAsync, which
+ * is then called instead of doProcess, and complete the returned AsyncResult when done: the file then holds a permit,
+ * but no thread, meanwhile.  If the file
+ * is not processed within processTimeoutSeconds, it is failed, and not retried; a worker still blocked in doProcess is
+ * then interrupted.
+ *
+ * A failed file may be processed again, as decided by the retry policy: it then waits in the working folder, holding
+ * neither a permit nor a thread, until it is queued again.  The number of attempts is written in the failure log.
+ *
+ * The order in which queued files are processed is decided by the scheduling policy; by default, the order they are
+ * found in.
+ *
+ * A file is queued at most once at a time: while it is queued or being processed, finding it again (by file key where
+ * the file system has them, else by path) is ignored.
+ *
+ * Files wait in a queue until one of the maxConcurrent permits is free; each is then processed on a worker thread,
+ * which also takes the completion action.  Lanes may be configured to give some files (by extension or size) a queue
+ * and a concurrency limit of their own; a lane with nothing to do then takes the next file of the lane with the most
+ * files waiting, unless workStealing is off.  With useVirtualThreads, each file gets a virtual thread of its own, so that
+ * a high maxConcurrent doesn't require as many platform threads.  Otherwise, or on JVMs without virtual threads, files
+ * are processed on a fixed pool of platform threads, as many as the maxConcurrent of the default lane plus that of
+ * every configured lane.
+ *
+ * When a high water mark is set, the poller is asked to leave new files in the watch folder while more than that
+ * many files are waiting to be processed, until the backlog is down to the low water mark.
 */
-public abstract class BasePollManager extends org.sadun.util.polling.BasePollManager {
+public abstract class BasePollManager extends org.sadun.util.polling.BasePollManager implements FlowControl {
 	private static final Logger log = LoggerFactory.getLogger(BasePollManager.class);
 
-	private ThreadPoolExecutor executor;
-	private CompletionService<Result> executorService;
-	Thread resultSnifferThread;
+	private ExecutorService executor;
+	private ScheduledExecutorService scheduler;
+	private static final Comparator<FileTask> BY_PRIORITY = new Comparator<FileTask>() {
+		@Override
+		public int compare(FileTask t1, FileTask t2) {
+			if (t1.priority != t2.priority) {
+				return t1.priority < t2.priority ? -1 : 1;
+			}
+			return t1.sequence < t2.sequence ? -1 : t1.sequence == t2.sequence ? 0 : 1;
+		}
+	};
+	private final Object lanesLock = new Object();
+	private List<LaneQueue> laneQueues = Collections.emptyList();
+	private long sequence;
+	private final AtomicLong stolenTasks = new AtomicLong();
+	private volatile SchedulingPolicy schedulingPolicy = SchedulingPolicy.FIFO;
+	private final AtomicLongArray queueWaitHistogram = new AtomicLongArray(32);
+	private final AtomicLong totalQueueWait = new AtomicLong();
+	private final AtomicLong maxQueueWait = new AtomicLong();
+	private final ConcurrentHashMap<Object, File> inFlight = new ConcurrentHashMap<>();
+	private final AtomicLong duplicateSubmissions = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private boolean usingVirtualThreads;
 
 	private File baseFolder;
 
+	private volatile DirectoryPoller poller;
+
 	public void setWatchFolder(File watchFolder) {
 		this.baseFolder = watchFolder;
 	}
@@ -73,6 +144,135 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 		return maxConcurrent;
 	}
 
+	private int processTimeoutSeconds = 0;
+
+	/**
+	 * processTimeoutSeconds may be specified in the spring config: a file not processed within this time, from when
+	 * processing starts, is moved to the failed folder, and the worker interrupted if still blocked on it.  It is not
+	 * retried, whatever the retry policy, as its processing may still be running.  0 (the default) means no timeout.
+	 */
+	public void setProcessTimeoutSeconds(int seconds) {
+		processTimeoutSeconds = seconds;
+	}
+
+	public int getProcessTimeoutSeconds() {
+		return processTimeoutSeconds;
+	}
+
+	private volatile RetryPolicy retryPolicy = new RetryPolicy();
+
+	/**
+	 * retryPolicy may be specified in the spring config; by default, a file is failed on its first failure
+	 */
+	public void setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @return the number of times a failed file has been scheduled to be processed again
+	 */
+	public final long getRetries() {
+		return retries.get();
+	}
+
+	private volatile FileMover fileMover = FileMover.getDefault();
+
+	/**
+	 * fileMover may be specified in the spring config, e.g. to limit the copies made when the working, completed or
+	 * failed folders are on another file system than the watch folder; by default, the mover shared by all managers
+	 */
+	public void setFileMover(FileMover fileMover) {
+		this.fileMover = fileMover;
+	}
+
+	public FileMover getFileMover() {
+		return fileMover;
+	}
+
+	private boolean useVirtualThreads = false;
+
+	/**
+	 * useVirtualThreads may be specified in the spring config, to process each file on a virtual thread of its own
+	 * rather than on a pool of maxConcurrent platform threads
+	 */
+	public void setUseVirtualThreads(boolean useVirtualThreads) {
+		this.useVirtualThreads = useVirtualThreads;
+	}
+
+	public boolean isUseVirtualThreads() {
+		return useVirtualThreads;
+	}
+
+	/**
+	 * @return true if the files are actually processed on virtual threads, which requires a JVM supporting them
+	 */
+	public final boolean isUsingVirtualThreads() {
+		return usingVirtualThreads;
+	}
+
+	private List<Lane> lanes = new ArrayList<>();
+
+	/**
+	 * lanes may be specified in the spring config; files belonging to none are processed in the default lane, limited
+	 * by maxConcurrent
+	 */
+	public void setLanes(List<Lane> lanes) {
+		this.lanes = new ArrayList<>(lanes);
+	}
+
+	public List<Lane> getLanes() {
+		return Collections.unmodifiableList(lanes);
+	}
+
+	private boolean workStealing = true;
+
+	/**
+	 * workStealing may be specified in the spring config: if false, a lane only ever processes its own files
+	 */
+	public void setWorkStealing(boolean workStealing) {
+		this.workStealing = workStealing;
+	}
+
+	public boolean isWorkStealing() {
+		return workStealing;
+	}
+
+	private int highWaterMark = 0;
+	private int lowWaterMark = -1;
+	private volatile boolean holdingBack;
+
+	/**
+	 * highWaterMark may be specified in the spring config: when more files than this are queued for processing, the
+	 * poller stops moving and announcing the files of the watch folder. 0 (the default) means no limit.
+	 */
+	public void setHighWaterMark(int highWaterMark) {
+		this.highWaterMark = highWaterMark;
+	}
+
+	public int getHighWaterMark() {
+		return highWaterMark;
+	}
+
+	/**
+	 * lowWaterMark is the number of queued files the backlog must be down to before the poller resumes; by default,
+	 * half the high water mark
+	 */
+	public void setLowWaterMark(int lowWaterMark) {
+		this.lowWaterMark = lowWaterMark;
+	}
+
+	public int getLowWaterMark() {
+		return lowWaterMark < 0 ? highWaterMark / 2 : Math.min(lowWaterMark, highWaterMark);
+	}
+
+	public final boolean isHoldingBack() {
+		return holdingBack;
+	}
+
 	private File completedFolder = null;
 
 	public synchronized File getCompletedFolder() {
@@ -148,24 +348,184 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 
 		doValidate();
 
-		// configure thread pool
-		executor = new ThreadPoolExecutor(maxConcurrent, maxConcurrent,
-						0L, TimeUnit.MILLISECONDS,
-						new LinkedBlockingQueue<Runnable>());
+		// configure lanes and workers; the permits of the lanes bound the concurrency in either case
+		List<LaneQueue> queues = new ArrayList<>();
+		int threads = 0;
+		for (Lane lane : lanes) {
+			queues.add(new LaneQueue(lane));
+			threads += lane.getMaxConcurrent();
+		}
+		queues.add(new LaneQueue(new Lane("default", maxConcurrent)));
+		threads += maxConcurrent;
+		synchronized (lanesLock) {
+			laneQueues = queues;
+		}
+		executor = useVirtualThreads ? newVirtualThreadExecutor() : null;
+		usingVirtualThreads = executor != null;
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(threads, threads,
+							0L, TimeUnit.MILLISECONDS,
+							new LinkedBlockingQueue<Runnable>(),
+							daemonThreads("worker-" + baseFolder.getAbsolutePath() + "-"));
+		}
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, daemonThreads("scheduler-" + baseFolder.getAbsolutePath() + "-"));
+		timer.setRemoveOnCancelPolicy(true);
+		scheduler = timer;
+	}
 
-		executorService = new ExecutorCompletionService<Result>(executor);
+	private static ThreadFactory daemonThreads(final String prefix) {
+		return new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
 
-		resultSnifferThread = new Thread(new ResultSniffer(), "resultSniffer-" + baseFolder.getAbsolutePath());
-		resultSnifferThread.setDaemon(true);
-		resultSnifferThread.start();
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, prefix + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * @return an executor starting a virtual thread per task, or null if the JVM does not support virtual threads
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		}
+		catch (NoSuchMethodException ex) {
+			log.warn("Virtual threads are not supported by this JVM, using platform threads");
+			return null;
+		}
+		catch (ReflectiveOperationException ex) {
+			log.warn("Could not create a virtual thread executor, using platform threads", ex);
+			return null;
+		}
 	}
 
 	public final int getActiveCount() {
-		return (executor != null ? executor.getActiveCount() : 0);
+		int active = 0;
+		for (LaneQueue queue : getLaneQueues()) {
+			active += queue.lane.getMaxConcurrent() - queue.permits.availablePermits();
+		}
+		return active;
 	}
 
 	public final int getQueuedCount() {
-		return (executor != null ? executor.getQueue().size() : 0);
+		synchronized (lanesLock) {
+			int queued = 0;
+			for (LaneQueue queue : laneQueues) {
+				queued += queue.pending.size();
+			}
+			return queued;
+		}
+	}
+
+	/**
+	 * @param lane the name of a lane, or "default"
+	 */
+	public final int getLaneActiveCount(String lane) {
+		LaneQueue queue = getLaneQueue(lane);
+		return queue != null ? queue.lane.getMaxConcurrent() - queue.permits.availablePermits() : 0;
+	}
+
+	/**
+	 * @param lane the name of a lane, or "default"
+	 */
+	public final int getLaneQueuedCount(String lane) {
+		LaneQueue queue = getLaneQueue(lane);
+		synchronized (lanesLock) {
+			return queue != null ? queue.pending.size() : 0;
+		}
+	}
+
+	/**
+	 * @return the number of files processed by a lane other than their own
+	 */
+	public final long getStolenTasks() {
+		return stolenTasks.get();
+	}
+
+	private List<LaneQueue> getLaneQueues() {
+		synchronized (lanesLock) {
+			return laneQueues;
+		}
+	}
+
+	private LaneQueue getLaneQueue(String lane) {
+		for (LaneQueue queue : getLaneQueues()) {
+			if (queue.lane.getName().equals(lane)) {
+				return queue;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * schedulingPolicy may be specified in the spring config, to process the queued files in an order other than the
+	 * order they are found in; it applies to the files queued from then on
+	 */
+	public void setSchedulingPolicy(SchedulingPolicy schedulingPolicy) {
+		if (schedulingPolicy == null) {
+			throw new IllegalArgumentException("The scheduling policy cannot be null");
+		}
+		this.schedulingPolicy = schedulingPolicy;
+	}
+
+	public SchedulingPolicy getSchedulingPolicy() {
+		return schedulingPolicy;
+	}
+
+	/**
+	 * @return the number of files which have waited in the queue for less than 1ms (at index 0), then for 1ms up to
+	 * 2ms, 2ms up to 4ms and so on, doubling at each index
+	 */
+	public final long[] getQueueWaitHistogram() {
+		long[] histogram = new long[queueWaitHistogram.length()];
+		for (int i = 0; i < histogram.length; i++) {
+			histogram[i] = queueWaitHistogram.get(i);
+		}
+		return histogram;
+	}
+
+	public final long getMaxQueueWait() {
+		return maxQueueWait.get();
+	}
+
+	public final long getAverageQueueWait() {
+		long dispatched = 0;
+		for (int i = 0; i < queueWaitHistogram.length(); i++) {
+			dispatched += queueWaitHistogram.get(i);
+		}
+		return dispatched == 0 ? 0L : totalQueueWait.get() / dispatched;
+	}
+
+	private void recordQueueWait(long wait) {
+		int bucket = wait <= 0 ? 0 : Math.min(64 - Long.numberOfLeadingZeros(wait), queueWaitHistogram.length() - 1);
+		queueWaitHistogram.incrementAndGet(bucket);
+		totalQueueWait.addAndGet(wait);
+		long max;
+		while (wait > (max = maxQueueWait.get()) && !maxQueueWait.compareAndSet(max, wait)) {
+		}
+	}
+
+	/**
+	 * @return the files queued or being processed, as they were found
+	 */
+	public final List<File> getInFlightFiles() {
+		return Collections.unmodifiableList(new ArrayList<>(inFlight.values()));
+	}
+
+	public final int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	/**
+	 * @return the number of times a file has been found again while queued or being processed, and ignored
+	 */
+	public final long getDuplicateSubmissions() {
+		return duplicateSubmissions.get();
 	}
 
 	/**
@@ -185,13 +545,12 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 			File destDir = getCompletedFolder();
 			log.debug("File " + completedFile.getAbsolutePath() + " is completed, moving to completed folder " + destDir.getAbsolutePath());
 			File destFile = new File(destDir, completedFile.getName());
-			if (destFile.exists()) {
-				log.debug("Deleting existing completed folder file " + destFile.getAbsolutePath() + " before moving completed file in there.");
-				destFile.delete();
+			try {
+				fileMover.move(completedFile, destFile, true);
 			}
-			boolean moved = completedFile.renameTo(destFile);
-			if (!moved) {
-				log.warn("Warning!  Could not move completed file " + completedFile.getAbsolutePath() + " to completed folder " + destDir.getAbsolutePath());
+			catch (IOException ex) {
+				log.warn("Warning!  Could not move completed file " + completedFile.getAbsolutePath() + " to completed folder " + destDir.getAbsolutePath()
+						+ ": " + ex);
 			}
 		}
 	}
@@ -203,22 +562,32 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 	 */
 
 	public void fail(File failedFile, Throwable exception) {
+		fail(failedFile, exception, 1);
+	}
+
+	/**
+	 * as fail( file, exception ), also recording in the log file how many times the file has been processed
+	 */
+	public void fail(File failedFile, Throwable exception, int attempts) {
 		File failFolder = getFailedFolder();
 		File destFile = new File(failFolder, failedFile.getName());
 		File logFile = new File(failFolder, failedFile.getName() + ".log");
-		if (destFile.exists()) {
-			destFile.delete();
-		}
 		if (logFile.exists()) {
 			logFile.delete();
 		}
 
-		failedFile.renameTo(destFile);
+		try {
+			fileMover.move(failedFile, destFile, true);
+		}
+		catch (IOException ex) {
+			log.warn("Could not move failed file " + failedFile.getAbsolutePath() + " to failed folder " + failFolder.getAbsolutePath() + ": " + ex);
+		}
 		if (exception != null) {
 			try {
 				PrintStream ps = new PrintStream(logFile);
 				ps.println(exception.getMessage());
 				exception.printStackTrace(ps);
+				ps.println("Attempts: " + attempts);
 				ps.close();
 			}
 			catch (Exception e) {
@@ -228,6 +597,63 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 		}
 	}
 
+	/**
+	 * poller may be specified in the spring config: the poller whose post-process delay and actions are used by
+	 * schedulePostProcessDelete and schedulePostProcessMove, which cannot be called without it
+	 */
+	public void setPoller(DirectoryPoller poller) {
+		this.poller = poller;
+	}
+
+	public DirectoryPoller getPoller() {
+		return poller;
+	}
+
+	/**
+	 * subclasses or spawned processes may call schedulePostProcessDelete to have the poller delete a processed file once
+	 * its post-process delay has elapsed, instead of writing a marker file
+	 */
+	public void schedulePostProcessDelete(File file) {
+		requirePoller().schedulePostProcessDelete(file);
+	}
+
+	/**
+	 * subclasses or spawned processes may call schedulePostProcessMove to have the poller move a processed file once
+	 * its post-process delay has elapsed, instead of writing a marker file
+	 */
+	public void schedulePostProcessMove(File file, File destination) {
+		requirePoller().schedulePostProcessMove(file, destination);
+	}
+
+	private DirectoryPoller requirePoller() {
+		DirectoryPoller p = poller;
+		if (p == null) {
+			throw new IllegalStateException("No poller has been set");
+		}
+		return p;
+	}
+
+	@Override
+	public boolean isAcceptingFiles(File directory) {
+		if (highWaterMark <= 0) {
+			holdingBack = false;
+			return true;
+		}
+		if (baseFolder != null && !PathNormalizer.normalize(baseFolder).equals(directory)) {
+			return true;
+		}
+		int queued = getQueuedCount();
+		if (holdingBack && queued <= getLowWaterMark()) {
+			log.debug("Backlog down to " + queued + " files, accepting new files");
+			holdingBack = false;
+		}
+		else if (!holdingBack && queued >= highWaterMark) {
+			log.debug("Backlog of " + queued + " files, holding back new files");
+			holdingBack = true;
+		}
+		return !holdingBack;
+	}
+
 	@Override
 	public void fileSetFound(FileSetFoundEvent evt) {
 		log.debug("fileSetFound called:");
@@ -249,24 +675,111 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 	}
 
 	private void addProcessingTask(File file) {
-		FileCallable callable = new FileCallable(file);
-		executorService.submit(callable);
+		BasicFileAttributes attributes = null;
+		try {
+			attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+		}
+		catch (NoSuchFileException ex) {
+			log.debug("File " + file.getAbsolutePath() + " is gone, not queueing it");
+			return;
+		}
+		catch (IOException ex) {
+			log.debug("Could not read the attributes of " + file.getAbsolutePath() + ": " + ex);
+		}
+		// The file key is kept across the move to the working folder
+		Object key = attributes != null && attributes.fileKey() != null ? attributes.fileKey() : file.getAbsoluteFile();
+		if (inFlight.putIfAbsent(key, file) != null) {
+			duplicateSubmissions.incrementAndGet();
+			log.debug("File " + file.getAbsolutePath() + " is already queued or being processed, ignoring");
+			return;
+		}
+		long now = System.currentTimeMillis();
+		FileTask task = new FileTask(new FileCallable(file, key), now);
+		task.priority = schedulingPolicy.priority(file, attributes != null ? attributes.size() : 0L,
+				attributes != null ? attributes.lastModifiedTime().toMillis() : 0L, now);
+		long size = attributes != null ? attributes.size() : 0L;
+		synchronized (lanesLock) {
+			task.laneQueue = laneQueues.get(laneQueues.size() - 1);
+			for (LaneQueue queue : laneQueues) {
+				if (queue.lane.matches(file, size)) {
+					task.laneQueue = queue;
+					break;
+				}
+			}
+		}
+		enqueue(task);
 	}
 
-	private Result process(File file) {
-		Result retVal;
+	private void enqueue(FileTask task) {
+		synchronized (lanesLock) {
+			task.sequence = sequence++;
+			task.laneQueue.pending.add(task);
+		}
+		dispatch();
+	}
+
+	/**
+	 * Hands the queued files to the workers, as long as their lanes, or idle lanes, have free permits.
+	 */
+	private void dispatch() {
+		while (true) {
+			FileTask task = null;
+			synchronized (lanesLock) {
+				for (LaneQueue queue : laneQueues) {
+					if (!queue.pending.isEmpty() && queue.permits.tryAcquire()) {
+						task = queue.pending.poll();
+						task.permits = queue.permits;
+						break;
+					}
+				}
+				if (task == null && workStealing) {
+					LaneQueue busiest = null;
+					for (LaneQueue queue : laneQueues) {
+						if (!queue.pending.isEmpty() && (busiest == null || queue.pending.size() > busiest.pending.size())) {
+							busiest = queue;
+						}
+					}
+					for (LaneQueue queue : laneQueues) {
+						if (busiest != null && queue != busiest && queue.pending.isEmpty() && queue.permits.tryAcquire()) {
+							task = busiest.pending.poll();
+							task.permits = queue.permits;
+							stolenTasks.incrementAndGet();
+							break;
+						}
+					}
+				}
+				if (task == null) {
+					return;
+				}
+			}
+			recordQueueWait(System.currentTimeMillis() - task.queued);
+			try {
+				executor.execute(task);
+			}
+			catch (RejectedExecutionException ex) {
+				inFlight.remove(task.callable.key);
+				task.permits.release();
+				log.warn("Could not process file " + task.callable.sourceFile.getAbsolutePath(), ex);
+			}
+		}
+	}
+
+	private AsyncResult process(File file) {
+		AsyncResult retVal;
 		try {
-			retVal = doProcess(file).get();
+			retVal = doProcessAsync(file);
+			if (retVal == null) {
+				retVal = AsyncResult.completed(Result.fail(file, new IllegalStateException("No result for " + file.getAbsolutePath())));
+			}
 		}
 		catch (Exception ex) {
-			retVal = Result.fail(file, ex);
+			retVal = AsyncResult.completed(Result.fail(file, ex));
 		}
 
 		return retVal;
 	}
 
-	private void processingCompleted(Future<Result> finishedTask) throws Exception {
-		Result result = finishedTask.get();
+	private void processingCompleted(Result result, int attempts) {
 		File file = result.sourceFile;
 
 		if (file != null) {
@@ -276,39 +789,211 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 			}
 			else {
 				log.warn("Failed to process file " + file.getAbsolutePath(), result.exception);
-				fail(file, result.exception);
+				fail(file, result.exception, attempts);
 			}
 		}
 
 	}
 
+	/**
+	 * Processes the file, which has been moved to the working folder.  The calling worker blocks on the returned
+	 * future; subclasses whose processing is asynchronous should also override doProcessAsync, which is then called
+	 * instead.
+	 */
 	protected abstract Future<Result> doProcess(File file);
 
+	/**
+	 * Starts processing the file, which has been moved to the working folder, and returns at once; the file holds one
+	 * of the maxConcurrent permits until the returned result is completed.  By default, calls doProcess and completes
+	 * the result when its future is done, blocking the calling worker meanwhile.
+	 */
+	protected AsyncResult doProcessAsync(File file) {
+		Result retVal;
+		try {
+			retVal = doProcess(file).get();
+		}
+		catch (Exception ex) {
+			retVal = Result.fail(file, ex);
+		}
+
+		return AsyncResult.completed(retVal);
+	}
+
 	protected abstract void doValidate() throws Exception;
 
-	private class FileCallable implements Callable<Result> {
+	/**
+	 * Starts processing a file holding a permit; once the result is complete, takes the completion action and lets the
+	 * next file in.
+	 */
+	private class FileTask implements Runnable {
+		private final FileCallable callable;
+		private long queued;
+		private long priority;
+		private long sequence;
+		private LaneQueue laneQueue;
+		private Semaphore permits;
+		private int attempts;
+		private Thread worker;
+		private volatile AsyncResult processing;
+
+		FileTask(FileCallable callable, long queued) {
+			this.callable = callable;
+			this.queued = queued;
+		}
+
+		@Override
+		public void run() {
+			// The timeout runs from the start, as the default doProcessAsync only returns once the file is processed
+			final AsyncResult outcome = new AsyncResult();
+			final ScheduledFuture<?> timeout = scheduleTimeout(outcome);
+			AsyncResult asyncResult;
+			attempts++;
+			processing = null;
+			synchronized (this) {
+				worker = Thread.currentThread();
+			}
+			try {
+				asyncResult = callable.call();
+			}
+			catch (Exception ex) {
+				asyncResult = AsyncResult.completed(Result.fail(callable.sourceFile, ex));
+			}
+			finally {
+				synchronized (this) {
+					worker = null;
+				}
+				// An interruption by the timeout is not for whatever the thread does next
+				Thread.interrupted();
+			}
+			processing = asyncResult;
+			asyncResult.whenComplete(new AsyncResult.Callback() {
+				@Override
+				public void completed(Result result) {
+					outcome.complete(result);
+				}
+			});
+			outcome.whenComplete(new AsyncResult.Callback() {
+				@Override
+				public void completed(Result result) {
+					if (timeout != null) {
+						timeout.cancel(false);
+					}
+					boolean retrying = false;
+					try {
+						// An attempt which timed out may still be running: processing the file again would process it twice
+						AsyncResult attempt = processing;
+						retrying = attempt != null && attempt.isDone() && scheduleRetry(result);
+						if (!retrying) {
+							processingCompleted(result, attempts);
+						}
+					}
+					catch (RuntimeException ex) {
+						log.warn("Received exeption while processing finished task:", ex);
+					}
+					finally {
+						if (!retrying) {
+							inFlight.remove(callable.key);
+						}
+						permits.release();
+						dispatch();
+					}
+				}
+			});
+		}
+
+		/**
+		 * Queues the file again once the retry delay has elapsed, if the retry policy says so; the file stays in the
+		 * working folder meanwhile.
+		 */
+		private boolean scheduleRetry(Result result) {
+			final File file = callable.workingFile;
+			if (result.isSuccessful() || file == callable.sourceFile || !file.exists()
+					|| !retryPolicy.shouldRetry(result.exception, attempts)) {
+				return false;
+			}
+			long delay = retryPolicy.delay(attempts);
+			log.warn("Failed to process file " + file.getAbsolutePath() + " (attempt " + attempts + "), retrying in " + delay + " ms",
+					result.exception);
+			retries.incrementAndGet();
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					queued = System.currentTimeMillis();
+					enqueue(FileTask.this);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+			return true;
+		}
+
+		private ScheduledFuture<?> scheduleTimeout(final AsyncResult asyncResult) {
+			final int seconds = processTimeoutSeconds;
+			if (seconds <= 0) {
+				return null;
+			}
+			return scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					File file = callable.workingFile;
+					if (asyncResult.complete(Result.fail(file, new TimeoutException("Processing of " + file.getAbsolutePath() + " timed out after "
+							+ seconds + " seconds")))) {
+						log.warn("Processing of file " + file.getAbsolutePath() + " timed out");
+						synchronized (FileTask.this) {
+							if (worker != null) {
+								worker.interrupt();
+							}
+						}
+					}
+				}
+			}, seconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * The queue and permits of a lane.
+	 */
+	private static class LaneQueue {
+		private final Lane lane;
+		private final Semaphore permits;
+		private final Queue<FileTask> pending = new PriorityQueue<>(16, BY_PRIORITY);
+
+		LaneQueue(Lane lane) {
+			this.lane = lane;
+			this.permits = new Semaphore(lane.getMaxConcurrent());
+		}
+	}
+
+	private class FileCallable implements Callable<AsyncResult> {
 		private File sourceFile;
+		private volatile File workingFile;
+		private final Object key;
 
-		public FileCallable(File file) {
+		public FileCallable(File file, Object key) {
 			this.sourceFile = file;
+			this.workingFile = file;
+			this.key = key;
 		}
 
 		@Override
-		public Result call() throws Exception {
-			Result result = null;
+		public AsyncResult call() throws Exception {
+			AsyncResult result = null;
+
+			// a retried file is in the working folder already
+			if (workingFile != sourceFile) {
+				return process(workingFile);
+			}
 
 			// move the file to the working folder
 			File destDir = getWorkingFolder();
 			File destFile = new File(destDir, sourceFile.getName());
-			if (destFile.exists()) {
-				destFile.delete();
+			try {
+				fileMover.move(sourceFile, destFile, true);
 			}
-			boolean moved = sourceFile.renameTo(destFile);
-			if (!moved) {
-				result = Result.fail(sourceFile,
-						new Exception("Unable to move " + sourceFile.getAbsolutePath() + " to " + destFile.getAbsolutePath()));
+			catch (IOException ex) {
+				result = AsyncResult.completed(Result.fail(sourceFile,
+						new Exception("Unable to move " + sourceFile.getAbsolutePath() + " to " + destFile.getAbsolutePath(), ex)));
 			}
-			else {
+			if (result == null) {
+				workingFile = destFile;
 				result = process(destFile);
 			}
 
@@ -348,25 +1033,4 @@ public abstract class BasePollManager extends org.sadun.util.polling.BasePollMan
 		}
 	}
 
-	private class ResultSniffer implements Runnable {
-
-		@Override
-		public void run() {
-			while (true) {
-				try {
-					Future<Result> finishedTask = executorService.take();
-					processingCompleted(finishedTask);
-				}
-				catch (InterruptedException ex) {
-					return;
-				}
-				catch (Exception ex) {
-					log.warn("Received exeption while processing finished task:", ex);
-				}
-			}
-
-		}
-
-	}
-
 }
@@ -0,0 +1,116 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package com.levelsbeyond.jpoller;
+
+import java.io.File;
+
+/**
+ * A class of files processed by a {@link BasePollManager} with a queue and a concurrency limit of their own, so that
+ * e.g. large media files and small sidecar files don't hold each other up.
+ *
+ * A file belongs to the first of the manager's lanes whose extensions (if any) include the file's extension and whose
+ * size range includes the file's size; files belonging to no lane go to the manager's default lane, limited by
+ * maxConcurrent.
+ */
+public class Lane {
+
+	private String name;
+	private int maxConcurrent = 1;
+	private String[] extensions = new String[0];
+	private long minSize = 0L;
+	private long maxSize = Long.MAX_VALUE;
+
+	public Lane() {
+	}
+
+	public Lane(String name, int maxConcurrent) {
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public int getMaxConcurrent() {
+		return maxConcurrent;
+	}
+
+	public void setMaxConcurrent(int maxConcurrent) {
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	public String[] getExtensions() {
+		return extensions;
+	}
+
+	/**
+	 * @param extensions the extensions of the files in the lane, without the dot and in any case; none for any file
+	 */
+	public void setExtensions(String[] extensions) {
+		this.extensions = extensions;
+	}
+
+	public long getMinSize() {
+		return minSize;
+	}
+
+	/**
+	 * @param minSize the smallest size, in bytes, of the files in the lane
+	 */
+	public void setMinSize(long minSize) {
+		this.minSize = minSize;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize the largest size, in bytes, of the files in the lane
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public boolean matches(File file, long size) {
+		if (size < minSize || size > maxSize) {
+			return false;
+		}
+		if (extensions.length == 0) {
+			return true;
+		}
+		String fileName = file.getName().toLowerCase();
+		for (String extension : extensions) {
+			if (fileName.endsWith("." + extension.toLowerCase())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
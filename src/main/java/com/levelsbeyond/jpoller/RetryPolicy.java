@@ -0,0 +1,151 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package com.levelsbeyond.jpoller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Decides whether a file whose processing by a {@link BasePollManager} has failed is processed again, and after how
+ * long, rather than moved to the failed folder.
+ *
+ * A failed file is retried as long as it has been processed fewer than maxAttempts times and the failure is retryable.
+ * The n-th retry waits initialDelayMillis * multiplier^(n-1), at most maxDelayMillis, less a random part of up to
+ * jitter of that, so that files failing together are not all retried together.  By default, a file is processed once.
+ */
+public class RetryPolicy {
+
+	private int maxAttempts = 1;
+	private long initialDelayMillis = 1000L;
+	private double multiplier = 2.0;
+	private long maxDelayMillis = 60000L;
+	private double jitter = 0.5;
+	private List<Class<? extends Throwable>> retryableExceptions = new ArrayList<>();
+	private final Random random = new Random();
+
+	public RetryPolicy() {
+	}
+
+	public RetryPolicy(int maxAttempts, long initialDelayMillis) {
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts the number of times a file is processed at most, including the first
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getInitialDelayMillis() {
+		return initialDelayMillis;
+	}
+
+	public void setInitialDelayMillis(long initialDelayMillis) {
+		this.initialDelayMillis = initialDelayMillis;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public long getMaxDelayMillis() {
+		return maxDelayMillis;
+	}
+
+	public void setMaxDelayMillis(long maxDelayMillis) {
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public double getJitter() {
+		return jitter;
+	}
+
+	/**
+	 * @param jitter the largest part of the delay, between 0 and 1, which is randomly taken off
+	 */
+	public void setJitter(double jitter) {
+		this.jitter = jitter;
+	}
+
+	public List<Class<? extends Throwable>> getRetryableExceptions() {
+		return retryableExceptions;
+	}
+
+	/**
+	 * @param retryableExceptions the exceptions worth a retry, which may also be found among the causes of the failure;
+	 *                            none for any exception
+	 */
+	public void setRetryableExceptions(List<Class<? extends Throwable>> retryableExceptions) {
+		this.retryableExceptions = new ArrayList<>(retryableExceptions);
+	}
+
+	/**
+	 * @param exception the cause of the failure, or null if unknown
+	 * @param attempts  the number of times the file has been processed so far
+	 * @return true if the file is to be processed again
+	 */
+	public boolean shouldRetry(Throwable exception, int attempts) {
+		return attempts < maxAttempts && isRetryable(exception);
+	}
+
+	/**
+	 * May be overridden to classify failures otherwise.
+	 */
+	protected boolean isRetryable(Throwable exception) {
+		if (retryableExceptions.isEmpty()) {
+			return true;
+		}
+		for (Throwable t = exception; t != null; t = t.getCause() != t ? t.getCause() : null) {
+			for (Class<? extends Throwable> retryable : retryableExceptions) {
+				if (retryable.isInstance(t)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param attempts the number of times the file has been processed so far
+	 * @return the time to wait before processing it again, in milliseconds
+	 */
+	public long delay(int attempts) {
+		double delay = initialDelayMillis;
+		for (int i = 1; i < attempts && delay < maxDelayMillis; i++) {
+			delay *= multiplier;
+		}
+		delay = Math.min(delay, maxDelayMillis);
+		double randomPart;
+		synchronized (random) {
+			randomPart = random.nextDouble();
+		}
+		return Math.max(0L, (long) (delay * (1.0 - jitter * randomPart)));
+	}
+}
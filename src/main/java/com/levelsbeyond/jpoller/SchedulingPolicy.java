@@ -0,0 +1,150 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package com.levelsbeyond.jpoller;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sadun.util.PathNormalizer;
+
+/**
+ * Decides in which order the files queued by a {@link BasePollManager} are processed.
+ *
+ * Each file is given a priority when it is queued, and the file with the lowest priority is processed first; files
+ * with the same priority are processed in the order they were queued.  Since the priority is fixed when the file is
+ * queued, policies which must prevent starvation do so by growing the priority with the time of queueing, so that a
+ * file eventually comes before any file queued long enough after it.
+ */
+public abstract class SchedulingPolicy {
+
+	/**
+	 * @param file         the file, as found
+	 * @param size         its size, in bytes
+	 * @param lastModified its modification time
+	 * @param queued       the time it is being queued at
+	 * @return the priority; lower first
+	 */
+	public abstract long priority(File file, long size, long lastModified, long queued);
+
+	/**
+	 * Files are processed in the order they are found; the default.
+	 */
+	public static final SchedulingPolicy FIFO = new SchedulingPolicy() {
+		@Override
+		public long priority(File file, long size, long lastModified, long queued) {
+			return 0L;
+		}
+
+		@Override
+		public String toString() {
+			return "fifo";
+		}
+	};
+
+	/**
+	 * Files with the oldest modification time first.
+	 */
+	public static final SchedulingPolicy OLDEST_FIRST = new SchedulingPolicy() {
+		@Override
+		public long priority(File file, long size, long lastModified, long queued) {
+			return lastModified;
+		}
+
+		@Override
+		public String toString() {
+			return "oldest-first";
+		}
+	};
+
+	/**
+	 * Smaller files first, with aging: a file comes after files found at the same time and smaller, but before any file
+	 * found later by more than it would take to age by its size.
+	 */
+	public static class ShortestFirst extends SchedulingPolicy {
+
+		private final long agingBytesPerSecond;
+
+		/**
+		 * @param agingBytesPerSecond how many bytes the size of a queued file is worth per second of waiting
+		 */
+		public ShortestFirst(long agingBytesPerSecond) {
+			if (agingBytesPerSecond <= 0) {
+				throw new IllegalArgumentException("The aging rate must be positive");
+			}
+			this.agingBytesPerSecond = agingBytesPerSecond;
+		}
+
+		@Override
+		public long priority(File file, long size, long lastModified, long queued) {
+			// The time, in ms, at which the file is due
+			return queued + size / agingBytesPerSecond * 1000L + size % agingBytesPerSecond * 1000L / agingBytesPerSecond;
+		}
+
+		public long getAgingBytesPerSecond() {
+			return agingBytesPerSecond;
+		}
+
+		@Override
+		public String toString() {
+			return "shortest-first";
+		}
+	}
+
+	/**
+	 * Earliest deadline first, the deadline of a file being the time it is found plus the deadline of its directory
+	 * (the nearest ancestor with one) or a default.
+	 */
+	public static class DeadlineFirst extends SchedulingPolicy {
+
+		private final long defaultDeadline;
+		private final Map<File, Long> deadlines = new HashMap<>();
+
+		/**
+		 * @param defaultDeadline the deadline of the files in directories without one, in milliseconds
+		 * @param deadlines       the deadlines of directories, in milliseconds
+		 */
+		public DeadlineFirst(long defaultDeadline, Map<File, Long> deadlines) {
+			this.defaultDeadline = defaultDeadline;
+			for (Map.Entry<File, Long> entry : deadlines.entrySet()) {
+				this.deadlines.put(PathNormalizer.normalize(entry.getKey()), entry.getValue());
+			}
+		}
+
+		@Override
+		public long priority(File file, long size, long lastModified, long queued) {
+			return queued + getDeadline(file);
+		}
+
+		public long getDeadline(File file) {
+			for (File dir = PathNormalizer.normalize(file).getParentFile(); dir != null; dir = dir.getParentFile()) {
+				Long deadline = deadlines.get(dir);
+				if (deadline != null) {
+					return deadline;
+				}
+			}
+			return defaultDeadline;
+		}
+
+		@Override
+		public String toString() {
+			return "deadline";
+		}
+	}
+}
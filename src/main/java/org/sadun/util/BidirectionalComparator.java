@@ -63,6 +63,13 @@ public abstract class BidirectionalComparator implements Comparator {
 	 */
 	protected abstract long getComparisonValue(File f1, File f2);
 
+	/**
+	 * @return <b>true</b> if the comparator imposes an ascending order
+	 */
+	public boolean isAscending() {
+		return ascending;
+	}
+
 	/**
 	 * Computes the result taking into account the construction parameters.
 	 *
@@ -51,6 +51,14 @@ public class ChainedComparator implements Comparator {
 		else return c1;
 	}
 
+	public Comparator getFirstComparator() {
+		return comp1;
+	}
+
+	public Comparator getSecondComparator() {
+		return comp2;
+	}
+
 	public String toString() {
 		return comp1.toString() + " then " + comp2;
 	}
@@ -0,0 +1,319 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves files and directory trees, across file systems too.
+ * <p/>
+ * A move is first attempted as an atomic rename. When source and destination are on different file systems, a file is
+ * copied instead, with {@link FileChannel#transferTo} so that the data need not pass through the JVM, to a temporary
+ * file beside the destination, which is renamed to the destination once verified; only then is the source deleted. A
+ * directory is moved file by file. The copy is verified by size and, optionally, by checksum.
+ * <p/>
+ * Copies may take long, and compete for the bandwidth of the devices; at most <tt>maxConcurrentCopies</tt> are made at
+ * once, while renames are never held up.
+ */
+public class FileMover {
+
+	private static final Logger logger = LoggerFactory.getLogger(FileMover.class);
+
+	private static final String TEMPORARY_SUFFIX = ".moving";
+	private static final int CHECKSUM_BUFFER_SIZE = 64 * 1024;
+
+	private static final FileMover defaultMover = new FileMover();
+
+	private volatile Semaphore copies;
+	private volatile int maxConcurrentCopies;
+	private volatile boolean verifyChecksum;
+
+	private final AtomicLong renames = new AtomicLong();
+	private final AtomicLong copiedFiles = new AtomicLong();
+	private final AtomicLong copiedBytes = new AtomicLong();
+	private final AtomicLong copyTime = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Creates a mover with no limit on concurrent copies, verifying copies by size only.
+	 */
+	public FileMover() {
+		this(0, false);
+	}
+
+	/**
+	 * @param maxConcurrentCopies the number of copies across file systems made at once; 0 or less for no limit
+	 * @param verifyChecksum      <b>true</b> to compare the checksums of source and copy, besides their sizes
+	 */
+	public FileMover(int maxConcurrentCopies, boolean verifyChecksum) {
+		setMaxConcurrentCopies(maxConcurrentCopies);
+		this.verifyChecksum = verifyChecksum;
+	}
+
+	/**
+	 * @return the mover shared by the pollers and poll managers which are not given one of their own
+	 */
+	public static FileMover getDefault() {
+		return defaultMover;
+	}
+
+	public int getMaxConcurrentCopies() {
+		return maxConcurrentCopies;
+	}
+
+	/**
+	 * Sets the number of copies across file systems made at once. Copies already waiting keep the previous limit.
+	 *
+	 * @param maxConcurrentCopies the number of copies; 0 or less for no limit
+	 */
+	public void setMaxConcurrentCopies(int maxConcurrentCopies) {
+		this.maxConcurrentCopies = Math.max(maxConcurrentCopies, 0);
+		this.copies = maxConcurrentCopies > 0 ? new Semaphore(maxConcurrentCopies, true) : null;
+	}
+
+	public boolean isVerifyChecksum() {
+		return verifyChecksum;
+	}
+
+	/**
+	 * @param verifyChecksum <b>true</b> to compare the checksums of source and copy, besides their sizes
+	 */
+	public void setVerifyChecksum(boolean verifyChecksum) {
+		this.verifyChecksum = verifyChecksum;
+	}
+
+	/**
+	 * Moves a file or directory tree.
+	 *
+	 * @param source          the file or directory to move
+	 * @param destination     the path to move it to
+	 * @param replaceExisting <b>true</b> to replace an existing destination file (not a non-empty directory)
+	 * @throws FileAlreadyExistsException if the destination exists and is not to be replaced
+	 * @throws IOException                if the move failed; the source is then left in place
+	 */
+	public void move(File source, File destination, boolean replaceExisting) throws IOException {
+		try {
+			move(source.toPath(), destination.toPath(), replaceExisting);
+		} catch (IOException e) {
+			failures.incrementAndGet();
+			throw e;
+		}
+	}
+
+	private void move(Path source, Path destination, boolean replaceExisting) throws IOException {
+		if (!replaceExisting && Files.exists(destination, LinkOption.NOFOLLOW_LINKS)) {
+			throw new FileAlreadyExistsException(destination.toString());
+		}
+		try {
+			rename(source, destination);
+			renames.incrementAndGet();
+			return;
+		} catch (AtomicMoveNotSupportedException e) {
+			// On another file system
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Cannot rename ").append(source).append(" to ").append(destination)
+								 .append(", copying").toString());
+			}
+		} catch (IOException e) {
+			// Some platforms don't replace existing files atomically
+			if (replaceExisting) {
+				Files.move(source, destination, StandardCopyOption.REPLACE_EXISTING);
+			} else {
+				Files.move(source, destination);
+			}
+			renames.incrementAndGet();
+			return;
+		}
+		if (Files.isDirectory(source, LinkOption.NOFOLLOW_LINKS)) {
+			moveDirectory(source, destination, replaceExisting);
+		} else {
+			Semaphore semaphore = acquireCopy();
+			try {
+				copyFile(source, destination);
+			} finally {
+				if (semaphore != null) {
+					semaphore.release();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @throws AtomicMoveNotSupportedException if source and destination are on different file systems
+	 */
+	void rename(Path source, Path destination) throws IOException {
+		Files.move(source, destination, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void moveDirectory(Path source, Path destination, boolean replaceExisting) throws IOException {
+		if (!Files.isDirectory(destination, LinkOption.NOFOLLOW_LINKS)) {
+			if (replaceExisting) {
+				Files.deleteIfExists(destination);
+			}
+			Files.createDirectory(destination);
+		}
+		try (DirectoryStream<Path> children = Files.newDirectoryStream(source)) {
+			for (Path child : children) {
+				move(child, destination.resolve(child.getFileName().toString()), replaceExisting);
+			}
+		}
+		Files.delete(source);
+	}
+
+	/**
+	 * Copies a file to a temporary file beside the destination, renames it to the destination once verified, and
+	 * deletes the source.
+	 */
+	private void copyFile(Path source, Path destination) throws IOException {
+		Path temporary = destination.resolveSibling((new StringBuilder()).append('.').append(destination.getFileName())
+														 .append(TEMPORARY_SUFFIX).toString());
+		long start = System.nanoTime();
+		long size;
+		try {
+			try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				 FileChannel out = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+					 StandardOpenOption.TRUNCATE_EXISTING)) {
+				size = in.size();
+				for (long position = 0L; position < size; ) {
+					long transferred = in.transferTo(position, size - position, out);
+					if (transferred <= 0L && in.size() <= position) {
+						break;
+					}
+					position += transferred;
+				}
+				out.force(true);
+			}
+			Files.setLastModifiedTime(temporary, Files.getLastModifiedTime(source));
+			verify(source, temporary, size);
+			Files.move(temporary, destination, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			Files.deleteIfExists(temporary);
+			throw e;
+		}
+		try {
+			Files.delete(source);
+		} catch (IOException e) {
+			// Leave things as they were, rather than the file in both places
+			Files.deleteIfExists(destination);
+			throw e;
+		}
+		copyTime.addAndGet(System.nanoTime() - start);
+		copiedBytes.addAndGet(size);
+		copiedFiles.incrementAndGet();
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Copied ").append(size).append(" bytes from ").append(source).append(" to ")
+							 .append(destination).toString());
+		}
+	}
+
+	private void verify(Path source, Path copy, long size) throws IOException {
+		long sourceSize = Files.size(source);
+		long copySize = Files.size(copy);
+		if (sourceSize != size || copySize != size) {
+			throw new IOException((new StringBuilder()).append("Copy of ").append(source).append(" is ").append(copySize)
+									  .append(" bytes instead of ").append(sourceSize).toString());
+		}
+		if (verifyChecksum && checksum(source) != checksum(copy)) {
+			throw new IOException((new StringBuilder()).append("Copy of ").append(source).append(" does not match the original")
+									  .toString());
+		}
+	}
+
+	private static long checksum(Path file) throws IOException {
+		CRC32 crc = new CRC32();
+		ByteBuffer buffer = ByteBuffer.allocate(CHECKSUM_BUFFER_SIZE);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				crc.update(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @return the semaphore to release once the copy is made, or <b>null</b> if copies are not limited
+	 */
+	private Semaphore acquireCopy() throws InterruptedIOException {
+		Semaphore semaphore = copies;
+		if (semaphore != null) {
+			try {
+				semaphore.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting to copy");
+			}
+		}
+		return semaphore;
+	}
+
+	/**
+	 * @return the number of moves made by renaming
+	 */
+	public long getRenames() {
+		return renames.get();
+	}
+
+	/**
+	 * @return the number of files moved by copying
+	 */
+	public long getCopiedFiles() {
+		return copiedFiles.get();
+	}
+
+	/**
+	 * @return the number of bytes moved by copying
+	 */
+	public long getCopiedBytes() {
+		return copiedBytes.get();
+	}
+
+	/**
+	 * @return the number of moves which failed
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return the average throughput of the copies, in bytes per second, or 0 if nothing has been copied
+	 */
+	public long getCopyThroughput() {
+		long nanos = copyTime.get();
+		return nanos > 0L ? (long) (copiedBytes.get() * 1e9 / nanos) : 0L;
+	}
+}
@@ -0,0 +1,424 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delayed post-process actions (deletion or move of a processed file), registered programmatically rather than by
+ * writing a marker file next to the file (see {@link PostProcessMarkerManager}).
+ * <p/>
+ * The actions are handed to a {@link PostProcessExecutor} once their delay has elapsed. They are recorded in an append-only
+ * journal, when one is given, so that actions still pending when the process stops are executed after a restart; the
+ * journal is compacted once most of its records are about completed actions.
+ * <p/>
+ * A file has at most one pending action: registering another one replaces it.
+ */
+public class PostProcessActionRegistry {
+
+	private final static Logger logger = LoggerFactory.getLogger(PostProcessActionRegistry.class);
+
+	public enum Action {
+		DELETE, MOVE
+	}
+
+	private static final int MAGIC = 0x50504a31; // "PPJ1"
+	private static final byte RECORD_SCHEDULED = 1;
+	private static final byte RECORD_DONE = 2;
+	private static final int COMPACTION_THRESHOLD = 1024;
+	private static final long RETRY_DELAY = 1000L;
+
+	/**
+	 * A pending action.
+	 */
+	private class Entry implements Runnable {
+
+		final long id;
+		final Action action;
+		final File file;
+		final File destination;
+		final long dueTime;
+		ScheduledFuture<?> future;
+
+		Entry(long id, Action action, File file, File destination, long dueTime) {
+			this.id = id;
+			this.action = action;
+			this.file = file;
+			this.destination = destination;
+			this.dueTime = dueTime;
+		}
+
+		public void run() {
+			execute(this);
+		}
+	}
+
+	private final File journalFile;
+	private final PostProcessExecutor actionExecutor;
+	private final Map<String, Entry> pending = new LinkedHashMap<>();
+	private final Map<Long, Entry> pendingById = new HashMap<>();
+	private ScheduledThreadPoolExecutor executor;
+	private FileOutputStream journalStream;
+	private DataOutputStream journal;
+	private long nextId = 1L;
+	private int completedRecords;
+	private long executedActions;
+	private long failedActions;
+
+	/**
+	 * @param journalFile    the journal, or <b>null</b> to keep the actions in memory only
+	 * @param actionExecutor executes the actions which are due
+	 */
+	public PostProcessActionRegistry(File journalFile, PostProcessExecutor actionExecutor) {
+		this.journalFile = journalFile;
+		this.actionExecutor = actionExecutor;
+	}
+
+	/**
+	 * Starts executing actions, beginning with those left pending in the journal.
+	 */
+	public synchronized void start() {
+		if (executor != null) {
+			return;
+		}
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "post-process-actions");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		if (journalFile != null) {
+			for (Entry entry : loadJournal()) {
+				register(entry);
+			}
+			compactJournal();
+		}
+	}
+
+	/**
+	 * Stops executing actions. Pending actions stay in the journal.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		closeJournal();
+		pending.clear();
+		pendingById.clear();
+	}
+
+	/**
+	 * Schedules the deletion of a file (or directory tree).
+	 *
+	 * @param file  the file
+	 * @param delay the delay, in milliseconds
+	 */
+	public void scheduleDelete(File file, long delay) {
+		schedule(Action.DELETE, file, null, delay);
+	}
+
+	/**
+	 * Schedules the move of a file (or directory tree). An existing destination is deleted first.
+	 *
+	 * @param file        the file
+	 * @param destination the new path of the file
+	 * @param delay       the delay, in milliseconds
+	 */
+	public void scheduleMove(File file, File destination, long delay) {
+		if (destination == null) {
+			throw new IllegalArgumentException("No destination given for " + file);
+		}
+		schedule(Action.MOVE, file, destination, delay);
+	}
+
+	private synchronized void schedule(Action action, File file, File destination, long delay) {
+		if (executor == null) {
+			throw new IllegalStateException("Post-process action registry not started");
+		}
+		cancel(file);
+		Entry entry = new Entry(nextId++, action, file.getAbsoluteFile(), destination == null ? null : destination.getAbsoluteFile(),
+								System.currentTimeMillis() + Math.max(delay, 0L));
+		appendScheduled(entry);
+		register(entry);
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Scheduled ").append(action).append(" of ").append(entry.file)
+							 .append(destination == null ? "" : " to " + entry.destination).append(" in ").append(delay).append("ms").toString());
+		}
+	}
+
+	/**
+	 * Cancels the pending action on the given file, if any.
+	 *
+	 * @return <b>true</b> if an action has been cancelled
+	 */
+	public synchronized boolean cancel(File file) {
+		Entry entry = pending.remove(file.getAbsolutePath());
+		if (entry == null) {
+			return false;
+		}
+		pendingById.remove(entry.id);
+		if (entry.future != null) {
+			entry.future.cancel(false);
+		}
+		appendDone(entry);
+		return true;
+	}
+
+	/**
+	 * @return <b>true</b> if an action is pending on the given file
+	 */
+	public synchronized boolean isPending(File file) {
+		return pending.containsKey(file.getAbsolutePath());
+	}
+
+	public synchronized int getPendingActions() {
+		return pending.size();
+	}
+
+	public synchronized long getExecutedActions() {
+		return executedActions;
+	}
+
+	public synchronized long getFailedActions() {
+		return failedActions;
+	}
+
+	private void register(Entry entry) {
+		pending.put(entry.file.getAbsolutePath(), entry);
+		pendingById.put(entry.id, entry);
+		entry.future = executor.schedule(entry, Math.max(entry.dueTime - System.currentTimeMillis(), 0L), TimeUnit.MILLISECONDS);
+	}
+
+	private void execute(final Entry entry) {
+		synchronized (this) {
+			if (pendingById.get(entry.id) != entry) {
+				// Cancelled or replaced in the meantime
+				return;
+			}
+		}
+		PostProcessExecutor.Listener listener = new PostProcessExecutor.Listener() {
+			public void actionCompleted(File file, boolean success) {
+				completed(entry, success);
+			}
+		};
+		boolean submitted = entry.action == Action.DELETE ? actionExecutor.submitDelete(entry.file, null, listener)
+			: actionExecutor.submitMove(entry.file, entry.destination, null, listener);
+		if (!submitted) {
+			// The executor is busy, or already acting on the file: try again shortly
+			synchronized (this) {
+				if (executor != null && pendingById.get(entry.id) == entry) {
+					entry.future = executor.schedule(entry, RETRY_DELAY, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+
+	private synchronized void completed(Entry entry, boolean success) {
+		// As with markers, a failed action is not attempted again
+		if (success) {
+			executedActions++;
+		} else {
+			failedActions++;
+		}
+		if (pendingById.get(entry.id) == entry) {
+			pendingById.remove(entry.id);
+			pending.remove(entry.file.getAbsolutePath());
+			appendDone(entry);
+		}
+	}
+
+	private void appendScheduled(Entry entry) {
+		if (openJournal()) {
+			try {
+				journal.writeByte(RECORD_SCHEDULED);
+				journal.writeLong(entry.id);
+				journal.writeByte(entry.action.ordinal());
+				journal.writeLong(entry.dueTime);
+				journal.writeUTF(entry.file.getPath());
+				journal.writeUTF(entry.destination == null ? "" : entry.destination.getPath());
+				syncJournal();
+			} catch (IOException e) {
+				journalFailed(e);
+			}
+		}
+	}
+
+	private void appendDone(Entry entry) {
+		if (openJournal()) {
+			try {
+				journal.writeByte(RECORD_DONE);
+				journal.writeLong(entry.id);
+				syncJournal();
+				if (++completedRecords >= COMPACTION_THRESHOLD && completedRecords > 2 * pending.size()) {
+					compactJournal();
+				}
+			} catch (IOException e) {
+				journalFailed(e);
+			}
+		}
+	}
+
+	private void syncJournal() throws IOException {
+		journal.flush();
+		journalStream.getChannel().force(false);
+	}
+
+	private boolean openJournal() {
+		if (journalFile == null) {
+			return false;
+		}
+		if (journal == null) {
+			try {
+				boolean exists = journalFile.length() > 0;
+				journalStream = new FileOutputStream(journalFile, true);
+				journal = new DataOutputStream(new BufferedOutputStream(journalStream));
+				if (!exists) {
+					journal.writeInt(MAGIC);
+				}
+			} catch (IOException e) {
+				journalFailed(e);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				logger.warn("Unable to close the post-process journal {}: {}", journalFile, e.toString());
+			}
+			journal = null;
+			journalStream = null;
+		}
+	}
+
+	private void journalFailed(IOException e) {
+		logger.warn("Unable to write the post-process journal {}, actions may be lost on restart: {}", journalFile, e.toString());
+		closeJournal();
+	}
+
+	/**
+	 * Rewrites the journal with the pending actions only.
+	 */
+	private void compactJournal() {
+		closeJournal();
+		Path target = journalFile.toPath();
+		Path temp = target.resolveSibling(journalFile.getName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				for (Entry entry : pending.values()) {
+					out.writeByte(RECORD_SCHEDULED);
+					out.writeLong(entry.id);
+					out.writeByte(entry.action.ordinal());
+					out.writeLong(entry.dueTime);
+					out.writeUTF(entry.file.getPath());
+					out.writeUTF(entry.destination == null ? "" : entry.destination.getPath());
+				}
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			completedRecords = 0;
+		} catch (IOException e) {
+			logger.warn("Unable to compact the post-process journal {}: {}", journalFile, e.toString());
+		}
+	}
+
+	/**
+	 * @return the actions left pending in the journal, in the order they were scheduled
+	 */
+	private List<Entry> loadJournal() {
+		Map<Long, Entry> entries = new LinkedHashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile.toPath())))) {
+			if (in.readInt() != MAGIC) {
+				logger.warn("Ignoring post-process journal {}: unknown format", journalFile);
+				return new ArrayList<>();
+			}
+			while (true) {
+				byte type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+				long id = in.readLong();
+				nextId = Math.max(nextId, id + 1);
+				if (type == RECORD_SCHEDULED) {
+					Action action = Action.values()[in.readByte()];
+					long dueTime = in.readLong();
+					File file = new File(in.readUTF());
+					String destination = in.readUTF();
+					entries.put(id, new Entry(id, action, file, destination.isEmpty() ? null : new File(destination), dueTime));
+				} else if (type == RECORD_DONE) {
+					entries.remove(id);
+				} else {
+					throw new IOException("Unknown record type " + type);
+				}
+			}
+		} catch (NoSuchFileException e) {
+			// First run
+		} catch (EOFException e) {
+			// A record cut short by a crash: the action was not acknowledged
+			logger.warn("Post-process journal {} ends with an incomplete record, ignoring it", journalFile);
+		} catch (IOException | ArrayIndexOutOfBoundsException e) {
+			logger.warn("Ignoring the rest of the unreadable post-process journal {}: {}", journalFile, e.toString());
+		}
+		// Only the latest action on a file counts
+		Map<String, Entry> latest = new LinkedHashMap<>();
+		for (Entry entry : entries.values()) {
+			latest.remove(entry.file.getAbsolutePath());
+			latest.put(entry.file.getAbsolutePath(), entry);
+		}
+		if (!latest.isEmpty()) {
+			logger.info("Resuming {} pending post-process action(s) from {}", latest.size(), journalFile);
+		}
+		return new ArrayList<>(latest.values());
+	}
+}
@@ -0,0 +1,390 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.sadun.util.PostProcessActionRegistry.Action;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes post-process actions (deletion or move of a processed file, see {@link PostProcessMarkerManager} and {@link
+ * PostProcessActionRegistry}) on a bounded pool of its own, so that deleting a large directory tree never holds up the
+ * thread which requested it.
+ * <p/>
+ * Deletions can be rate limited, in files per second, so as not to saturate the storage; each file and directory of a
+ * tree counts. Moves go through a {@link FileMover}, as the moves to the auto-move directories do. A file has at most
+ * one action queued or in progress at a time.
+ */
+public class PostProcessExecutor {
+
+	private final static Logger logger = LoggerFactory.getLogger(PostProcessExecutor.class);
+
+	private static final int QUEUE_SIZE = 4096;
+
+	/**
+	 * Notified when an action has been executed, by the executing thread.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param success <b>false</b> if the action failed; failures are logged
+		 */
+		void actionCompleted(File file, boolean success);
+	}
+
+	/**
+	 * A token bucket, with a burst of one second worth of tokens.
+	 */
+	private static class RateLimiter {
+
+		private double rate;
+		private double tokens;
+		private long lastRefill = System.nanoTime();
+
+		synchronized void setRate(double rate) {
+			this.rate = rate;
+			tokens = Math.min(tokens, Math.max(rate, 1.0));
+		}
+
+		synchronized double getRate() {
+			return rate;
+		}
+
+		/**
+		 * Takes a token, waiting for one if necessary.
+		 */
+		synchronized void acquire() throws InterruptedException {
+			while (rate > 0) {
+				long now = System.nanoTime();
+				tokens = Math.min(tokens + (now - lastRefill) * rate / 1e9, Math.max(rate, 1.0));
+				lastRefill = now;
+				if (tokens >= 1.0) {
+					tokens -= 1.0;
+					return;
+				}
+				long waitNanos = (long) ((1.0 - tokens) * 1e9 / rate);
+				TimeUnit.NANOSECONDS.timedWait(this, Math.max(waitNanos, 1000000L));
+			}
+		}
+	}
+
+	private final String name;
+	private final RateLimiter deleteRate = new RateLimiter();
+	private final Set<String> inFlight = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private volatile int threads = 1;
+	private volatile FileMover fileMover;
+	private ThreadPoolExecutor executor;
+
+	private final AtomicLong submittedActions = new AtomicLong();
+	private final AtomicLong completedActions = new AtomicLong();
+	private final AtomicLong failedActions = new AtomicLong();
+	private final AtomicLong rejectedActions = new AtomicLong();
+	private final AtomicLong deletedFiles = new AtomicLong();
+
+	/**
+	 * Creates an executor moving files with the {@link FileMover#getDefault() shared mover}.
+	 *
+	 * @param name the name the executing threads are named after
+	 */
+	public PostProcessExecutor(String name) {
+		this(name, FileMover.getDefault());
+	}
+
+	/**
+	 * @param name      the name the executing threads are named after
+	 * @param fileMover the mover executing the moves
+	 */
+	public PostProcessExecutor(String name, FileMover fileMover) {
+		this.name = name;
+		this.fileMover = fileMover;
+	}
+
+	public FileMover getFileMover() {
+		return fileMover;
+	}
+
+	/**
+	 * @param fileMover the mover executing the moves; moves already in progress keep the previous one
+	 */
+	public void setFileMover(FileMover fileMover) {
+		this.fileMover = fileMover;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads the number of threads executing actions, 1 by default
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+
+	public double getMaxDeletesPerSecond() {
+		return deleteRate.getRate();
+	}
+
+	/**
+	 * @param maxDeletesPerSecond the maximum number of files and directories deleted per second, or 0 (the default) for
+	 *                            no limit
+	 */
+	public void setMaxDeletesPerSecond(double maxDeletesPerSecond) {
+		deleteRate.setRate(Math.max(maxDeletesPerSecond, 0.0));
+	}
+
+	/**
+	 * Queues the deletion of a file (or directory tree).
+	 *
+	 * @param file     the file
+	 * @param marker   a marker file to delete once the action has been executed, or <b>null</b>
+	 * @param listener notified once the action has been executed, or <b>null</b>
+	 * @return <b>false</b> if the action has not been queued, because an action is already pending on the file or too
+	 * many actions are queued already
+	 */
+	public boolean submitDelete(File file, File marker, Listener listener) {
+		return submit(Action.DELETE, file, null, marker, listener);
+	}
+
+	/**
+	 * Queues the move of a file (or directory tree). An existing destination is deleted first.
+	 *
+	 * @param file        the file
+	 * @param destination the new path of the file
+	 * @param marker      a marker file to delete once the action has been executed, or <b>null</b>
+	 * @param listener    notified once the action has been executed, or <b>null</b>
+	 * @return <b>false</b> if the action has not been queued, because an action is already pending on the file or too
+	 * many actions are queued already
+	 */
+	public boolean submitMove(File file, File destination, File marker, Listener listener) {
+		return submit(Action.MOVE, file, destination, marker, listener);
+	}
+
+	private boolean submit(final Action action, final File file, final File destination, final File marker, final Listener listener) {
+		final String key = file.getAbsolutePath();
+		if (!inFlight.add(key)) {
+			return false;
+		}
+		try {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					boolean success = false;
+					try {
+						success = execute(action, file, destination);
+						if (marker != null && !marker.delete() && marker.exists()) {
+							logger.warn("Unable to delete post-process marker {}", marker.getAbsolutePath());
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					} finally {
+						inFlight.remove(key);
+						(success ? completedActions : failedActions).incrementAndGet();
+						if (listener != null) {
+							listener.actionCompleted(file, success);
+						}
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			inFlight.remove(key);
+			rejectedActions.incrementAndGet();
+			return false;
+		}
+		submittedActions.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return <b>true</b> if an action is queued or in progress on the given file
+	 */
+	public boolean isPending(File file) {
+		return inFlight.contains(file.getAbsolutePath());
+	}
+
+	private boolean execute(Action action, File file, File destination) throws InterruptedException {
+		if (action == Action.DELETE) {
+			logger.debug("Deleting file {}", file);
+			if (!delete(file)) {
+				logger.warn("Failed to delete file {}", file.getAbsolutePath());
+				return false;
+			}
+			return true;
+		}
+		logger.debug("Moving file {} to {}", file, destination);
+		if (destination.isDirectory()) {
+			// The mover replaces an existing file, not a directory tree: that is deleted first, at the configured rate
+			logger.debug("Deleting existing directory {} before moving {} there", destination, file);
+			if (!delete(destination)) {
+				logger.warn("Failed to delete directory {} before moving {} there", destination.getAbsolutePath(), file);
+			}
+		}
+		try {
+			fileMover.move(file, destination, true);
+		} catch (InterruptedIOException e) {
+			throw new InterruptedException("Interrupted while moving " + file);
+		} catch (IOException e) {
+			logger.warn("Failed to move file {} to {}: {}", file.getAbsolutePath(), destination, e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes a file or directory tree, at the configured rate.
+	 *
+	 * @return <b>true</b> if everything has been deleted, or there was nothing to delete
+	 */
+	boolean delete(File file) throws InterruptedException {
+		final boolean complete[] = { true };
+		try {
+			Files.walkFileTree(file.toPath(), new SimpleFileVisitor<Path>() {
+				public FileVisitResult visitFile(Path path, BasicFileAttributes attributes) throws IOException {
+					deleteOne(path, complete);
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult visitFileFailed(Path path, IOException e) {
+					if (!(e instanceof NoSuchFileException)) {
+						logger.warn("Unable to read {}: {}", path, e.toString());
+						complete[0] = false;
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+					deleteOne(dir, complete);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (InterruptedIOException e) {
+			throw new InterruptedException("Interrupted while deleting " + file);
+		} catch (IOException e) {
+			logger.warn("Unable to delete {}: {}", file, e.toString());
+			return false;
+		}
+		return complete[0];
+	}
+
+	private void deleteOne(Path path, boolean complete[]) throws IOException {
+		try {
+			deleteRate.acquire();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException();
+		}
+		try {
+			Files.deleteIfExists(path);
+			deletedFiles.incrementAndGet();
+		} catch (IOException e) {
+			logger.warn("Unable to delete {}: {}", path, e.toString());
+			complete[0] = false;
+		}
+	}
+
+	/**
+	 * Number of actions queued and not started yet.
+	 */
+	public int getQueuedActions() {
+		ThreadPoolExecutor e = executor;
+		return e == null ? 0 : e.getQueue().size();
+	}
+
+	/**
+	 * Number of actions being executed.
+	 */
+	public int getActiveActions() {
+		ThreadPoolExecutor e = executor;
+		return e == null ? 0 : e.getActiveCount();
+	}
+
+	public long getSubmittedActions() {
+		return submittedActions.get();
+	}
+
+	public long getCompletedActions() {
+		return completedActions.get();
+	}
+
+	public long getFailedActions() {
+		return failedActions.get();
+	}
+
+	/**
+	 * Number of actions not queued because too many were.
+	 */
+	public long getRejectedActions() {
+		return rejectedActions.get();
+	}
+
+	/**
+	 * Number of files and directories deleted so far, including those of trees still being deleted.
+	 */
+	public long getDeletedFiles() {
+		return deletedFiles.get();
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		int n = threads;
+		if (executor != null && executor.getMaximumPoolSize() != n) {
+			executor.shutdown();
+			executor = null;
+		}
+		if (executor == null) {
+			executor = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, name + "-postprocess-" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Releases the executing threads once the actions queued or in progress are completed. An action submitted later
+	 * starts new threads, so that a poller which is started again goes on executing its actions.
+	 */
+	public synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+}
@@ -57,4 +57,22 @@ public abstract class BasePollManager implements PollManager {
 	public void exceptionMovingFile(File file, File dest) {
 	}
 
+	/**
+	 * Deletes the given file once the post-process delay of the given poller has elapsed, without writing a marker file.
+	 *
+	 * @see DirectoryPoller#schedulePostProcessDelete(File)
+	 */
+	protected void schedulePostProcessDelete(DirectoryPoller poller, File file) {
+		poller.schedulePostProcessDelete(file);
+	}
+
+	/**
+	 * Moves the given file once the post-process delay of the given poller has elapsed, without writing a marker file.
+	 *
+	 * @see DirectoryPoller#schedulePostProcessMove(File, File)
+	 */
+	protected void schedulePostProcessMove(DirectoryPoller poller, File file, File destination) {
+		poller.schedulePostProcessMove(file, destination);
+	}
+
 }
\ No newline at end of file
@@ -31,13 +31,46 @@ class DefaultListener implements ExceptionListener {
 		this.mgt = mgt;
 	}
 
+	PollManager getPollManager() {
+		return mgt;
+	}
+
 	public void receive(Signal evt) {
+		EventDispatcher dispatcher = poller.getEventDispatcher();
+		if (dispatcher != null) {
+			dispatcher.dispatch(this, evt);
+		} else {
+			deliver(evt);
+		}
+	}
+
+	public void receiveException(ExceptionSignal evt) {
+		EventDispatcher dispatcher = poller.getEventDispatcher();
+		if (dispatcher != null) {
+			dispatcher.dispatch(this, evt);
+		} else {
+			deliverException(evt);
+		}
+	}
+
+	/**
+	 * Delivers an event to the poll manager, in the calling thread.
+	 */
+	void deliver(Signal evt) {
 
 		if (poller.isShuttingDown()) {
 			//System.out.println("(Poller shutting down: ignoring event "+evt+")");
 			return; // Ignore events if the poller is shutting down
 		}
 
+		deliverQueued(evt);
+	}
+
+	/**
+	 * Delivers an event queued by the {@link EventDispatcher}, even if the poller is shutting down meanwhile: the files
+	 * announced have been moved already.
+	 */
+	void deliverQueued(Signal evt) {
 		if (evt instanceof CycleStartEvent) {
 			mgt.cycleStarted((CycleStartEvent) evt);
 			return;
@@ -70,7 +103,7 @@ class DefaultListener implements ExceptionListener {
 			throw new RuntimeException("Unexpected signal " + evt);
 	}
 
-	public void receiveException(ExceptionSignal evt) {
+	void deliverException(ExceptionSignal evt) {
 		if (poller.isDebugExceptions()) {
 			System.out.println("Exception incurred by directory poller:");
 			System.out.println();
@@ -0,0 +1,288 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * What a {@link DirectoryPoller} knows of a controlled directory across cycles: for every entry, its size, modification
+ * time and file key as last listed, and whether the poller is done with it.
+ * <p/>
+ * Each fresh listing is merged, by name, with the index; only the entries which have been added or changed since, or
+ * which the poller has not been able to process yet, are returned for processing. The index can be saved to a file so
+ * that it survives restarts.
+ */
+class DirectoryIndex {
+
+	private final static Logger logger = LoggerFactory.getLogger(DirectoryIndex.class);
+
+	private static final int MAGIC = 0x44494458;
+	private static final int VERSION = 1;
+
+	/**
+	 * The entry still has to be (successfully) processed, and is returned by every update.
+	 */
+	static final byte PENDING = 0;
+	/**
+	 * The entry has been processed and is only returned again if it changes.
+	 */
+	static final byte DONE = 1;
+	/**
+	 * The entry has been moved or deleted by the poller; if it is listed again, it is a new entry.
+	 */
+	static final byte GONE = 2;
+
+	private static final Comparator<FileSnapshot> BY_NAME = new Comparator<FileSnapshot>() {
+		public int compare(FileSnapshot f1, FileSnapshot f2) {
+			return f1.getName().compareTo(f2.getName());
+		}
+	};
+
+	/**
+	 * The outcome of an update.
+	 */
+	static class Delta {
+
+		/**
+		 * The added, changed and pending entries, in name order.
+		 */
+		final List<FileSnapshot> entries = new ArrayList<>();
+		/**
+		 * The names of the entries which are no longer listed.
+		 */
+		final List<String> removed = new ArrayList<>();
+		int added;
+		int changed;
+	}
+
+	private final File directory;
+	private final File indexFile;
+	private String names[] = new String[0];
+	private long sizes[] = new long[0];
+	private long lastModified[] = new long[0];
+	private String fileKeys[] = new String[0];
+	private byte states[] = new byte[0];
+	private boolean dirty;
+
+	/**
+	 * @param directory the indexed directory
+	 * @param indexFile the file the index is saved to, or <b>null</b> to keep it in memory only
+	 */
+	DirectoryIndex(File directory, File indexFile) {
+		this.directory = directory;
+		this.indexFile = indexFile;
+		if (indexFile != null) {
+			load();
+		}
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	int size() {
+		return names.length;
+	}
+
+	/**
+	 * Merges a fresh listing of the directory into the index.
+	 *
+	 * @return the entries to process, and the ones which have disappeared
+	 */
+	Delta update(DirectoryListing listing) {
+		FileSnapshot fresh[] = listing.entries().toArray(new FileSnapshot[listing.size()]);
+		Arrays.sort(fresh, BY_NAME);
+
+		String newNames[] = new String[fresh.length];
+		long newSizes[] = new long[fresh.length];
+		long newLastModified[] = new long[fresh.length];
+		String newFileKeys[] = new String[fresh.length];
+		byte newStates[] = new byte[fresh.length];
+
+		Delta delta = new Delta();
+		int i = 0;
+		for (int j = 0; j < fresh.length; j++) {
+			FileSnapshot entry = fresh[j];
+			String name = entry.getName();
+			int cmp = -1;
+			while (i < names.length && (cmp = names[i].compareTo(name)) < 0) {
+				delta.removed.add(names[i++]);
+			}
+			newNames[j] = name;
+			newSizes[j] = entry.length();
+			newLastModified[j] = entry.lastModified();
+			newFileKeys[j] = entry.getFileKey() == null ? null : entry.getFileKey().toString();
+			if (i < names.length && cmp == 0) {
+				byte state = states[i];
+				boolean changed = sizes[i] != newSizes[j] || lastModified[i] != newLastModified[j] || !equal(fileKeys[i], newFileKeys[j]);
+				i++;
+				if (state == GONE) {
+					delta.added++;
+					state = PENDING;
+				} else if (changed) {
+					delta.changed++;
+					state = PENDING;
+				}
+				newStates[j] = state;
+			} else {
+				delta.added++;
+				newStates[j] = PENDING;
+			}
+			if (newStates[j] == PENDING) {
+				delta.entries.add(entry);
+			}
+		}
+		while (i < names.length) {
+			delta.removed.add(names[i++]);
+		}
+
+		if (delta.added > 0 || delta.changed > 0 || !delta.removed.isEmpty()) {
+			dirty = true;
+		}
+		names = newNames;
+		sizes = newSizes;
+		lastModified = newLastModified;
+		fileKeys = newFileKeys;
+		states = newStates;
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Index of ").append(directory).append(": ").append(delta.added).append(" added, ")
+							 .append(delta.changed).append(" changed, ").append(delta.removed.size()).append(" removed, ")
+							 .append(delta.entries.size()).append(" to process out of ").append(names.length).toString());
+		}
+		return delta;
+	}
+
+	/**
+	 * Records that the poller is done with the given entry, until it changes.
+	 */
+	void markDone(String name) {
+		setState(name, DONE);
+	}
+
+	/**
+	 * Records that the given entry has been moved or deleted by the poller.
+	 */
+	void markGone(String name) {
+		setState(name, GONE);
+	}
+
+	private void setState(String name, byte state) {
+		int i = Arrays.binarySearch(names, name);
+		if (i >= 0 && states[i] != state) {
+			states[i] = state;
+			dirty = true;
+		}
+	}
+
+	private static boolean equal(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+
+	/**
+	 * Saves the index to its file, if it has one and it has changed since last saved.
+	 */
+	void save() {
+		if (indexFile == null || !dirty) {
+			return;
+		}
+		Path target = indexFile.toPath();
+		Path temp = target.resolveSibling(indexFile.getName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(directory.getAbsolutePath());
+				out.writeInt(names.length);
+				for (int i = 0; i < names.length; i++) {
+					out.writeUTF(names[i]);
+					out.writeLong(sizes[i]);
+					out.writeLong(lastModified[i]);
+					out.writeBoolean(fileKeys[i] != null);
+					if (fileKeys[i] != null) {
+						out.writeUTF(fileKeys[i]);
+					}
+					out.writeByte(states[i]);
+				}
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+			dirty = false;
+		} catch (IOException e) {
+			logger.warn("Unable to save the index of {} to {}: {}", directory, indexFile, e.toString());
+		}
+	}
+
+	private void load() {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				logger.warn("Ignoring index file {}: unknown format", indexFile);
+				return;
+			}
+			String path = in.readUTF();
+			if (!path.equals(directory.getAbsolutePath())) {
+				logger.warn("Ignoring index file {}: it indexes {}", indexFile, path);
+				return;
+			}
+			int count = in.readInt();
+			String loadedNames[] = new String[count];
+			long loadedSizes[] = new long[count];
+			long loadedLastModified[] = new long[count];
+			String loadedFileKeys[] = new String[count];
+			byte loadedStates[] = new byte[count];
+			for (int i = 0; i < count; i++) {
+				loadedNames[i] = in.readUTF();
+				loadedSizes[i] = in.readLong();
+				loadedLastModified[i] = in.readLong();
+				loadedFileKeys[i] = in.readBoolean() ? in.readUTF() : null;
+				loadedStates[i] = in.readByte();
+			}
+			names = loadedNames;
+			sizes = loadedSizes;
+			lastModified = loadedLastModified;
+			fileKeys = loadedFileKeys;
+			states = loadedStates;
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Loaded index of ").append(directory).append(" (").append(count)
+								 .append(" entries) from ").append(indexFile).toString());
+			}
+		} catch (NoSuchFileException e) {
+			// First run
+		} catch (IOException e) {
+			logger.warn("Ignoring unreadable index file {}: {}", indexFile, e.toString());
+		}
+	}
+}
@@ -0,0 +1,270 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.DosFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The content of a directory as seen by a single pass over it: one directory read, plus one attribute read per entry.
+ * Every entry is kept, including hidden ones and post-process markers, so that existence checks on siblings can be
+ * answered from the listing.
+ * <p/>
+ * A listing of {@link #readNames(File, AtomicLong) names only} reads the attributes of an entry only when asked to.
+ */
+class DirectoryListing {
+
+	private final static Logger logger = LoggerFactory.getLogger(DirectoryListing.class);
+
+	/**
+	 * On Windows the hidden flag is a file attribute; elsewhere it is a naming convention.
+	 */
+	private static final boolean DOS_HIDDEN_ATTRIBUTE = File.separatorChar == '\\';
+
+	/**
+	 * A filter which can judge an entry from its snapshot, without going back to the file system.
+	 */
+	interface SnapshotFilter {
+
+		boolean accept(FileSnapshot entry);
+	}
+
+	private final File directory;
+	private final boolean readable;
+	private final Map<String, FileSnapshot> entries;
+
+	private DirectoryListing(File directory, boolean readable, Map<String, FileSnapshot> entries) {
+		this.directory = directory;
+		this.readable = readable;
+		this.entries = entries;
+	}
+
+	/**
+	 * Reads the given directory.
+	 *
+	 * @param directory       the directory to list
+	 * @param fileSystemCalls incremented by the number of file system calls issued
+	 * @return the listing; if the directory cannot be read, an empty listing for which {@link #isReadable()} is
+	 * <b>false</b>
+	 */
+	static DirectoryListing read(File directory, AtomicLong fileSystemCalls) {
+		Map<String, FileSnapshot> entries = new LinkedHashMap<>();
+		fileSystemCalls.incrementAndGet();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				FileSnapshot entry = snapshot(directory, name, path, fileSystemCalls);
+				if (entry != null) {
+					entries.put(name, entry);
+				}
+			}
+		} catch (IOException | SecurityException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Cannot list ").append(directory).append(": ").append(e).toString());
+			}
+			return new DirectoryListing(directory, false, entries);
+		}
+		return new DirectoryListing(directory, true, entries);
+	}
+
+	/**
+	 * Lists the given directory without reading the attributes of its entries: {@link #get(String)} returns <b>null</b>
+	 * for an entry until it has been {@link #read(String, AtomicLong) read}, and {@link #entries()} only returns the
+	 * entries read.
+	 *
+	 * @param directory       the directory to list
+	 * @param fileSystemCalls incremented by the number of file system calls issued
+	 * @return the listing; if the directory cannot be read, an empty listing for which {@link #isReadable()} is
+	 * <b>false</b>
+	 */
+	static DirectoryListing readNames(File directory, AtomicLong fileSystemCalls) {
+		Map<String, FileSnapshot> entries = new LinkedHashMap<>();
+		fileSystemCalls.incrementAndGet();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory.toPath())) {
+			for (Path path : stream) {
+				entries.put(path.getFileName().toString(), null);
+			}
+		} catch (IOException | SecurityException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Cannot list ").append(directory).append(": ").append(e).toString());
+			}
+			return new DirectoryListing(directory, false, entries);
+		}
+		return new DirectoryListing(directory, true, entries);
+	}
+
+	/**
+	 * Reads again the given entries of a directory, known not to have changed since they were listed, without listing
+	 * the directory.
+	 *
+	 * @param directory       the directory
+	 * @param names           the names of the entries
+	 * @param fileSystemCalls incremented by the number of file system calls issued
+	 * @return the listing; entries which no longer exist are left out
+	 */
+	static DirectoryListing read(File directory, String names[], AtomicLong fileSystemCalls) {
+		Map<String, FileSnapshot> entries = new LinkedHashMap<>();
+		Path dir = directory.toPath();
+		for (String name : names) {
+			FileSnapshot entry = snapshot(directory, name, dir.resolve(name), fileSystemCalls);
+			if (entry != null) {
+				entries.put(name, entry);
+			}
+		}
+		return new DirectoryListing(directory, true, entries);
+	}
+
+	/**
+	 * Reads the attributes of a single file.
+	 *
+	 * @return the snapshot, or <b>null</b> if the file does not exist (anymore)
+	 */
+	static FileSnapshot snapshot(File file, AtomicLong fileSystemCalls) {
+		return snapshot(file.getParentFile(), file.getName(), file.toPath(), fileSystemCalls);
+	}
+
+	private static FileSnapshot snapshot(File dir, String name, Path path, AtomicLong fileSystemCalls) {
+		fileSystemCalls.incrementAndGet();
+		try {
+			if (DOS_HIDDEN_ATTRIBUTE) {
+				DosFileAttributes attributes = Files.readAttributes(path, DosFileAttributes.class);
+				return new FileSnapshot(dir, name, attributes, attributes.isHidden());
+			} else {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return new FileSnapshot(dir, name, attributes, name.startsWith("."));
+			}
+		} catch (NoSuchFileException e) {
+			// Removed in the meantime, or a dangling link
+			return null;
+		} catch (IOException | SecurityException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Cannot read attributes of ").append(path).append(": ").append(e).toString());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Applies the given filter, using the snapshot directly if the filter supports it.
+	 */
+	static boolean accept(FilenameFilter filter, FileSnapshot entry) {
+		if (filter == null) {
+			return true;
+		}
+		if (filter instanceof SnapshotFilter) {
+			return ((SnapshotFilter) filter).accept(entry);
+		}
+		return filter.accept(entry.getParentFile(), entry.getName());
+	}
+
+	File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return <b>false</b> if the directory could not be read (e.g. it does not exist)
+	 */
+	boolean isReadable() {
+		return readable;
+	}
+
+	FileSnapshot get(String name) {
+		return entries.get(name);
+	}
+
+	boolean contains(String name) {
+		return entries.containsKey(name);
+	}
+
+	/**
+	 * Reads the attributes of a listed entry, unless they have been read already.
+	 *
+	 * @return the entry, or <b>null</b> if it has not been listed, or does not exist anymore
+	 */
+	FileSnapshot read(String name, AtomicLong fileSystemCalls) {
+		FileSnapshot entry = entries.get(name);
+		if (entry == null && entries.containsKey(name)) {
+			entry = snapshot(directory, name, directory.toPath().resolve(name), fileSystemCalls);
+			if (entry == null) {
+				entries.remove(name);
+			} else {
+				entries.put(name, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * @return the names of the entries, in listing order
+	 */
+	Collection<String> names() {
+		return entries.keySet();
+	}
+
+	/**
+	 * Records that the given entry has been removed from the directory since it was listed.
+	 */
+	void remove(String name) {
+		entries.remove(name);
+	}
+
+	Collection<FileSnapshot> entries() {
+		if (!entries.containsValue(null)) {
+			return entries.values();
+		}
+		List<FileSnapshot> read = new ArrayList<>(entries.size());
+		for (FileSnapshot entry : entries.values()) {
+			if (entry != null) {
+				read.add(entry);
+			}
+		}
+		return read;
+	}
+
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the entries accepted by the given filter, in listing order
+	 */
+	FileSnapshot[] list(FilenameFilter filter) {
+		List<FileSnapshot> accepted = new ArrayList<>(entries.size());
+		for (FileSnapshot entry : entries()) {
+			if (accept(filter, entry)) {
+				accepted.add(entry);
+			}
+		}
+		return accepted.toArray(new FileSnapshot[accepted.size()]);
+	}
+}
@@ -21,21 +21,43 @@ import com.deltax.util.listener.BaseSignalSourceThread;
 import com.deltax.util.listener.ExceptionSignal;
 import com.deltax.util.listener.Signal;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.FileNotFoundException;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import org.sadun.util.BidirectionalComparator;
+import org.sadun.util.FileMover;
 import org.sadun.util.PathNormalizer;
+import org.sadun.util.PostProcessActionRegistry;
+import org.sadun.util.PostProcessExecutor;
 import org.sadun.util.PostProcessMarkerManager;
 import org.sadun.util.Terminable;
 import org.slf4j.Logger;
@@ -50,6 +72,11 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 
 	private final static Logger logger = LoggerFactory.getLogger(DirectoryPoller.class);
 
+	/**
+	 * The time given to the poll managers, at shutdown, to take the events still queued for them, in milliseconds.
+	 */
+	private static final long DISPATCH_DRAIN_TIMEOUT = 30000L;
+
 	public static final String DEFAULT_AUTOMOVE_DIRECTORY = "received";
 	private static int counter = 0;
 	private volatile boolean shutdownRequested;
@@ -66,12 +93,89 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 	private final PostProcessMarkerManager markerManager = new PostProcessMarkerManager();
 	private boolean startBySleeping;
 	private boolean sendSingleFileEvent;
-	private int currentDir;
+	private Map<File, Integer> dirIndexes;
 	private Comparator filesSortComparator;
 	private boolean bypassLockedFiles;
 	private volatile boolean sleeping;
 	private volatile boolean debugExceptions;
-	private Map<String, Long> fileSizeMap;
+	private volatile StabilityPolicy stabilityPolicy;
+	private final Map<File, StabilityPolicy> stabilityPolicies = new ConcurrentHashMap<>();
+	private volatile EventDispatcher eventDispatcher;
+	private int dispatchQueueSize = 1024;
+	private volatile DispatchOverflowPolicy dispatchOverflowPolicy = DispatchOverflowPolicy.BLOCK;
+	private volatile long slowConsumerThreshold = 10000L;
+	private volatile int maxFilesPerCycle;
+	private final Map<File, Integer> maxFilesPerCycleByDirectory = new ConcurrentHashMap<>();
+	private final AtomicLong deferredFiles = new AtomicLong();
+	private final AtomicLong heldBackLookups = new AtomicLong();
+	private final Map<File, StabilityTracker> stabilityTrackers = new ConcurrentHashMap<>();
+	private final StabilityTracker.Statistics stabilityStatistics = new StabilityTracker.Statistics();
+	private volatile long recheckDelay;
+	private final RecheckWheel recheckWheel = new RecheckWheel(50L, 512);
+	private boolean usingWatchService;
+	private long safetyRescanInterval;
+	private volatile DirectoryWatcher watcher;
+	private long lastFullLookupTime;
+	private long lastLookupTime[];
+	private boolean lookupPending[];
+	private boolean directoryChanged[];
+	private boolean adaptivePollInterval;
+	private long minPollInterval;
+	private long maxPollInterval;
+	private long effectivePollInterval[];
+	private long lastArrivalTime[];
+	private boolean incrementalLookup;
+	private File indexDirectory;
+	private final Map<File, DirectoryIndex> directoryIndexes = new ConcurrentHashMap<>();
+	private final AtomicLong fileSystemCalls = new AtomicLong();
+	private final AtomicLong entriesExamined = new AtomicLong();
+	private final AtomicLong listingsReused = new AtomicLong();
+	private volatile long lastCycleFileSystemCalls;
+	private volatile long lastCycleEntriesExamined;
+	private Set<Object> scanDirKeys;
+	private volatile int lookupThreads;
+	private ThreadPoolExecutor lookupExecutor;
+	private final Object lookupExecutorLock = new Object();
+	private volatile int subtreeWalkThreads;
+	private ForkJoinPool subtreeWalkPool;
+	private volatile int parallelSortThreshold;
+	private ForkJoinPool sortPool;
+	private volatile FileMover fileMover;
+	private volatile String checksumAlgorithm;
+	private final Map<File, SubtreeIndex> subtreeIndexes = new ConcurrentHashMap<>();
+	private final LockProber lockProber = new LockProber(fileSystemCalls, this);
+	private final Map<File, PostProcessMarkerIndex> markerIndexes = new ConcurrentHashMap<>();
+	private File postProcessJournal;
+	private volatile PostProcessActionRegistry postProcessActions;
+	private final Object postProcessActionsLock = new Object();
+	private final PostProcessExecutor postProcessExecutor;
+	private final SignalSink notifier = new SignalSink() {
+		public void signal(Signal signal) {
+			notifyEvent(signal);
+		}
+	};
+
+	/**
+	 * Receives the events produced by the lookup of a directory.
+	 */
+	private interface SignalSink {
+
+		void signal(Signal signal);
+	}
+
+	/**
+	 * Holds the events produced by a directory lookup running on the lookup pool, until the polling thread delivers
+	 * them.
+	 */
+	private static class BufferedSignals implements SignalSink {
+
+		final List<Signal> signals = new ArrayList<>();
+		boolean completed;
+
+		public void signal(Signal signal) {
+			signals.add(signal);
+		}
+	}
 
 	public static class FileSizeComparator extends BidirectionalComparator {
 
@@ -109,25 +213,37 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		}
 	}
 
-	private class TimeFilter implements FilenameFilter {
+	private class TimeFilter implements FilenameFilter, DirectoryListing.SnapshotFilter {
 
 		public boolean accept(File dir, String name) {
-			File f = new File(dir, name);
+			return acceptFile(new File(dir, name));
+		}
+
+		public boolean accept(FileSnapshot entry) {
+			return acceptFile(entry);
+		}
+
+		private boolean acceptFile(File f) {
+			String name = f.getName();
 			if (f.isDirectory()) {
 				return false;
 			}
-			if (f.lastModified() <= baseTime[currentDir]) {
+			long base = getBaseTimeOf(f.getParentFile());
+			if (f.lastModified() <= base) {
 				if (logger.isDebugEnabled()) {
 					logger.debug((new StringBuilder()).append(name).append("(").append(f.lastModified()).append("): out of base time (")
-									 .append(baseTime[currentDir]).append("), ignoring").toString());
+									 .append(base).append("), ignoring").toString());
 				}
 				return false;
 			}
 			if (logger.isDebugEnabled()) {
 				logger.debug((new StringBuilder()).append(name).append("(").append(f.lastModified()).append("): older than base time (")
-								 .append(baseTime[currentDir]).append("), accepted").toString());
+								 .append(base).append("), accepted").toString());
 			}
-			return additionalFilter.accept(dir, name);
+			if (f instanceof FileSnapshot) {
+				return DirectoryListing.accept(additionalFilter, (FileSnapshot) f);
+			}
+			return additionalFilter.accept(f.getParentFile(), name);
 		}
 
 		private FilenameFilter additionalFilter;
@@ -140,7 +256,7 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		}
 	}
 
-	private static class DirectoryFilter implements FilenameFilter {
+	private static class DirectoryFilter implements FilenameFilter, DirectoryListing.SnapshotFilter {
 
 		public boolean accept(File dir, String name) {
 			if ((new File(dir, name)).isDirectory() && (systemDirectoryNames.length == 0 || Arrays.binarySearch(systemDirectoryNames, name) > 0)) {
@@ -154,6 +270,13 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 
 		}
 
+		public boolean accept(FileSnapshot entry) {
+			if (entry.isDirectory() && (systemDirectoryNames.length == 0 || Arrays.binarySearch(systemDirectoryNames, entry.getName()) > 0)) {
+				return false;
+			}
+			return DirectoryListing.accept(additionalFilter, entry);
+		}
+
 		public String toString() {
 			return (new StringBuilder()).append("Directory filter over a ").append(additionalFilter).toString();
 		}
@@ -246,18 +369,27 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		shutdownRequested = false;
 		verbose = System.getProperty("org.sadun.verbose") != null;
 		timeBasedOnLastLookup = true;
-		pollManagersList = new ArrayList<>();
+		pollManagersList = new CopyOnWriteArrayList<>();
 		autoMove = false;
-		autoMoveDirs = new HashMap<>();
+		autoMoveDirs = new ConcurrentHashMap<>();
 		pollInterval = 10000L;
 		startBySleeping = false;
 		sendSingleFileEvent = false;
-		currentDir = -1;
 		filesSortComparator = null;
 		bypassLockedFiles = false;
 		sleeping = false;
-		fileSizeMap = new HashMap<>();
+		stabilityPolicy = new SizeStabilityPolicy();
+		usingWatchService = false;
+		safetyRescanInterval = 300000L;
+		lookupThreads = 1;
+		subtreeWalkThreads = 1;
+		parallelSortThreshold = 16384;
+		fileMover = FileMover.getDefault();
+		adaptivePollInterval = false;
+		minPollInterval = 1000L;
+		maxPollInterval = 300000L;
 		setName((new StringBuilder()).append("directory-poller-").append(counter++).toString());
+		postProcessExecutor = new PostProcessExecutor(getName(), fileMover);
 		setDirectories(dirs);
 		originalFilter = new DirectoryFilter(systemSubdirectoryNames, filter);
 		setTimeBased(timeBased);
@@ -317,8 +449,29 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 				}
 			}
 
+			Map<File, Integer> indexes = new HashMap<>();
+			for (int i = 0; i < dirs.length; i++) {
+				indexes.put(PathNormalizer.normalize(dirs[i]), i);
+			}
 			this.dirs = dirs;
+			dirIndexes = indexes;
+			directoryIndexes.keySet().retainAll(indexes.keySet());
+			for (Iterator<Map.Entry<File, StabilityTracker>> i = stabilityTrackers.entrySet().iterator(); i.hasNext(); ) {
+				Map.Entry<File, StabilityTracker> entry = i.next();
+				if (!indexes.containsKey(entry.getKey())) {
+					entry.getValue().clear();
+					i.remove();
+				}
+			}
+			subtreeIndexes.keySet().retainAll(indexes.keySet());
+			markerIndexes.keySet().retainAll(indexes.keySet());
 			baseTime = new long[dirs.length];
+			lastLookupTime = new long[dirs.length];
+			lookupPending = new boolean[dirs.length];
+			directoryChanged = new boolean[dirs.length];
+			effectivePollInterval = new long[dirs.length];
+			Arrays.fill(effectivePollInterval, minPollInterval);
+			lastArrivalTime = new long[dirs.length];
 		}
 	}
 
@@ -425,6 +578,18 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		throw new IllegalArgumentException((new StringBuilder()).append("'").append(directory).append("' is not under control of the poller").toString());
 	}
 
+	/**
+	 * Returns the base time of the given controlled directory, as seen by the time filter.
+	 */
+	private long getBaseTimeOf(File directory) {
+		Integer index = dirIndexes.get(directory);
+		if (index == null) {
+			index = dirIndexes.get(PathNormalizer.normalize(directory));
+		}
+		long times[] = baseTime;
+		return index == null || index >= times.length ? 0L : times[index];
+	}
+
 	public boolean isPollingTimeBased() {
 		return isTimeBased() && timeBasedOnLastLookup;
 	}
@@ -449,460 +614,1957 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		this.pollInterval = pollInterval;
 	}
 
-	public int getPostProcessDelayMinutes() {
-		return markerManager.getPostProcessDelayMinutes();
+	public boolean isAdaptivePollInterval() {
+		return adaptivePollInterval;
 	}
 
-	public void setPostProcessDelayMinutes(int delayMinutes) {
-		markerManager.setPostProcessDelayMinutes(delayMinutes);
+	/**
+	 * Sets whether each directory is looked up on its own interval, driven by the files arriving in it. A directory in
+	 * which files keep arriving (or which holds files not processed yet) is looked up every {@link
+	 * #getMinPollInterval() minimum interval}; each lookup which finds nothing new doubles the interval, up to the
+	 * {@link #getMaxPollInterval() maximum interval}. When not set (the default), every directory is looked up every
+	 * {@link #getPollInterval() poll interval}.
+	 */
+	public void setAdaptivePollInterval(boolean v) {
+		adaptivePollInterval = v;
 	}
 
-	public void setStartBySleeping(boolean v) {
-		startBySleeping = v;
+	public long getMinPollInterval() {
+		return minPollInterval;
 	}
 
-	public boolean isStartBySleeping() {
-		return startBySleeping;
+	public void setMinPollInterval(long minPollInterval) {
+		this.minPollInterval = minPollInterval;
 	}
 
-	public void addPollManager(PollManager pm) {
-		pollManagersList.add(pm);
-		addListener(new DefaultListener(this, pm));
+	public long getMaxPollInterval() {
+		return maxPollInterval;
 	}
 
-	public void shutdown() {
-		shutdownRequested = true;
-		interrupt();
-		if (logger.isDebugEnabled()) {
-			logger.debug("Polling shutdown requested");
-		}
+	public void setMaxPollInterval(long maxPollInterval) {
+		this.maxPollInterval = maxPollInterval;
 	}
 
-	public boolean isShuttingDown() {
-		return shutdownRequested;
+	/**
+	 * Returns the interval at which the given directory is currently looked up: the poll interval, or the adaptive
+	 * interval computed from the arrivals in the directory.
+	 */
+	public long getEffectivePollInterval(File directory) {
+		Integer index = dirIndexes.get(PathNormalizer.normalize(directory));
+		if (index == null) {
+			throw new IllegalArgumentException((new StringBuilder()).append("'").append(directory).append("' is not under control of the poller").toString());
+		}
+		return getLookupInterval(index);
 	}
 
-	public synchronized void run() {
-		shutdownRequested = false;
-		if (dirs == null) {
-			throw new IllegalStateException("Programming error: no directories to poll specified");
-		}
-		if (logger.isDebugEnabled()) {
-			logger.debug((new StringBuilder()).append("Polling started, interval is ").append(pollInterval).append("ms").toString());
+	private long getLookupInterval(int index) {
+		long intervals[] = effectivePollInterval;
+		if (!adaptivePollInterval || index >= intervals.length) {
+			return pollInterval;
 		}
-		if (autoMove) {
-			for (final File dir : dirs) {
-				File automoveDir = PathNormalizer.normalize(getAutoMoveDirectory(dir));
-				if (automoveDir.exists()) {
-					continue;
-				}
-				if (logger.isDebugEnabled()) {
-					logger.debug((new StringBuilder()).append("Automove directory ").append(automoveDir).append(" does not exist, attempting to create.")
-									 .toString());
-				}
-				if (!automoveDir.mkdirs()) {
-					throw new RuntimeException((new StringBuilder()).append("Could not create the directory ").append(automoveDir.getAbsolutePath()).toString());
-				}
-				if (logger.isDebugEnabled()) {
-					logger.debug((new StringBuilder()).append("Automove directory ").append(automoveDir).append(" created successfully.").toString());
-				}
-			}
+		return Math.max(Math.min(intervals[index], maxPollInterval), minPollInterval);
+	}
 
-		}
-		do {
-			if (startBySleeping) {
-				startBySleeping = false;
-			} else {
-				runCycle();
-			}
-			if (!shutdownRequested) {
-				try {
-					sleeping = true;
-					sleep(pollInterval);
-					sleeping = false;
-					if (logger.isDebugEnabled()) {
-						logger.debug("Poller waking up");
-					}
-				} catch (InterruptedException e) {
-					// no-op
-				}
-			}
-		}
-		while (!shutdownRequested);
+	public boolean isIncrementalLookup() {
+		return incrementalLookup;
+	}
 
-		if (logger.isDebugEnabled()) {
-			logger.debug("Poller terminated.");
+	/**
+	 * Sets whether the poller keeps an index of each controlled directory across cycles, so that a lookup only processes
+	 * the entries which have been added or changed since the previous one, plus those it could not process yet (e.g.
+	 * not yet stable). When set, a file which is not auto-moved is announced once, and again only if it changes.
+	 */
+	public void setIncrementalLookup(boolean v) {
+		if (isAlive()) {
+			throw new IllegalStateException("Can't set incremental lookups when the poller has already started");
 		}
+		incrementalLookup = v;
+		directoryIndexes.clear();
 	}
 
-	void notifyEvent(Signal signal) {
-		notify(signal);
+	public File getIndexDirectory() {
+		return indexDirectory;
 	}
 
-	void runCycle() {
-		if (!shutdownRequested) {
-			notifyEvent(new CycleStartEvent(this));
+	/**
+	 * Sets the directory where the indexes of the controlled directories are saved, for {@link #isIncrementalLookup()
+	 * incremental lookups}. If <b>null</b> (the default) the indexes are kept in memory only, and rebuilt when the poller
+	 * restarts.
+	 */
+	public void setIndexDirectory(File indexDirectory) {
+		if (isAlive()) {
+			throw new IllegalStateException("Can't set the index directory when the poller has already started");
 		}
+		this.indexDirectory = indexDirectory;
+		directoryIndexes.clear();
+	}
 
-		if (!shutdownRequested) {
-			for (currentDir = 0; currentDir < dirs.length; currentDir++) {
-				File dir = PathNormalizer.normalize(dirs[currentDir]);
-
-				notifyEvent(new DirectoryLookupStartEvent(this, dir));
-
-				if (shutdownRequested) {
-					return;
-				}
-
-				long filesLookupTime = System.currentTimeMillis();
-
-				File fls[] = dir.listFiles(filter);
-				if (fls == null) {
-					logger.warn("Warning: directory {} does not exist", dir.toString());
-					fls = new File[0];
-				}
-
-				if (filesSortComparator != null) {
-					if (logger.isDebugEnabled()) {
-						logger.debug((new StringBuilder()).append("Sorting files by  ").append(filesSortComparator).toString());
-					}
-					Arrays.sort(fls, filesSortComparator);
-				}
-
-				String files[] = new String[fls.length];
-
-				for (int i = 0; i < files.length; i++) {
-					files[i] = fls[i].getName();
-				}
-
-				String movedFiles[] = new String[files.length];
-				if (autoMove) {
-
-					// the 'received' directory
-					File autoMoveDir = getAutoMoveDirectory(dir);
-
-					final File[] markerFiles = autoMoveDir.listFiles(new FilenameFilter() {
-						@Override
-						public boolean accept(File d, String name) {
-							return name.length() > 3 && name.startsWith(".~") && name.endsWith("~");
-						}
-					});
-					if (markerFiles != null) {
-						for (File markerFile : markerFiles) {
-							String origName = markerFile.getName().substring(2);
-							origName = origName.substring(0, origName.length() - 1);
-							final File orig = new File(autoMoveDir, origName);
-							if (!orig.exists()) {
-								logger.debug("Deleting orphaned marker file {}", markerFile.getAbsolutePath());
-								markerFile.delete();
-								continue;
-							}
-							if (isPostProcessFileExpired(markerFile)) {
-								final Map<String, String> post = readPostProcessFile(markerFile);
-								StringBuilder builder = new StringBuilder();
-								builder.append("{");
-								for (Map.Entry<String, String> entry : post.entrySet()) {
-									builder.append(String.format("\"%s\":\"%s\",", entry.getKey(), entry.getValue()));
-								}
-								builder.append("}");
-								switch (post.get("action")) {
-									case "delete":
-										logger.debug("Deleting file {} per marker {}: {}", orig.getName(), markerFile.getAbsolutePath(), builder);
-										if (orig.isDirectory() ? !deleteDir(orig) : !orig.delete()) {
-											logger.warn("Failed to delete file {} per post process file {}: {}", orig.getAbsolutePath(), markerFile.getAbsolutePath(), builder);
-										}
-										break;
-									case "move":
-										final String destinationPath = post.get("dest");
-										final File destination = new File(destinationPath);
-										logger.debug("Moving file {} to {} per marker {}: {}", orig.getName(), destinationPath, markerFile.getAbsolutePath(), builder);
-										if (destination.exists()) {
-											logger.debug("Deleting existing completed folder file " + destination.getAbsolutePath() + " before moving completed file in there.");
-											if (destination.isDirectory() ? !deleteDir(destination) : !destination.delete()) {
-												logger.warn("Failed to delete file {} per post process file {}: {}", destination.getAbsolutePath(), markerFile.getAbsolutePath(), builder);
-											}
-										}
-										if (!orig.renameTo(destination)) {
-											logger.warn("Failed to move file {} to {} per post process file {}: {}", orig.getAbsolutePath(), destination, markerFile.getAbsolutePath(), builder);
-										}
-										break;
-									default:
-										logger.warn("Unexpected marker placeholder {}: {}", markerFile.getAbsolutePath(), builder);
-								}
-								markerFile.delete();
-							}
-						}
-					}
-					// iterate through all files to see if they can be moved into the 'received' dir
-					for (int j = 0; j < files.length; j++) {
-						final File orig = new File(dir, files[j]);
-						final File dest = new File(autoMoveDir, files[j]);
-						if (dest.exists()) {
-							if (logger.isDebugEnabled()) {
-								logger.debug((new StringBuilder()).append("[Automove] Attempting to delete existing ").append(dest.getAbsolutePath())
-												 .toString());
-							}
-							if (!dest.delete()) {
-								notifyEvent(new ExceptionSignal(new AutomoveDeleteException(orig, dest, (new StringBuilder()).append("Could not delete ")
-									.append(dest.getAbsolutePath()).toString()), this));
-								continue;
-							}
-							if (logger.isDebugEnabled()) {
-								logger.debug((new StringBuilder()).append("[Automove] Deleted ").append(dest.getAbsolutePath()).toString());
-							}
-						}
-
-						autoMoveDir.mkdirs();
+	public File getPostProcessJournal() {
+		return postProcessJournal;
+	}
 
-						try {
-							boolean proceed = true;
+	/**
+	 * Sets the journal of the post-process actions {@link #schedulePostProcessDelete(File) registered programmatically}.
+	 * If <b>null</b> (the default) the actions are kept in memory only, and those pending when the poller stops are
+	 * lost.
+	 */
+	public void setPostProcessJournal(File postProcessJournal) {
+		if (isAlive()) {
+			throw new IllegalStateException("Can't set the post-process journal when the poller has already started");
+		}
+		this.postProcessJournal = postProcessJournal;
+	}
 
-							// if hidden or it's one of the directories we are scanning later, skip
-							logger.debug("{} - skip: {}, scandir: {}", orig, skip(orig), isScanDir(orig));
-							if (skip(orig) || isScanDir(orig) || postProcessDelayPending(orig)) {
-								continue;
-							}
+	/**
+	 * @return the post-process actions registered programmatically, started on first use
+	 */
+	public PostProcessActionRegistry getPostProcessActionRegistry() {
+		synchronized (postProcessActionsLock) {
+			if (postProcessActions == null) {
+				PostProcessActionRegistry registry = new PostProcessActionRegistry(postProcessJournal, postProcessExecutor);
+				registry.start();
+				postProcessActions = registry;
+			}
+			return postProcessActions;
+		}
+	}
 
-							if (logger.isDebugEnabled()) {
-								logger.debug((new StringBuilder()).append("[Automove] Checking to see if ").append(orig.getAbsolutePath())
-												 .append(" can be moved to ").append(autoMoveDir.getAbsolutePath()).append(File.separator).toString());
-							}
+	/**
+	 * Deletes the given file once the {@link #getPostProcessDelayMinutes() post-process delay} has elapsed, as a marker
+	 * file with the <tt>delete</tt> action would, but without writing one.
+	 */
+	public void schedulePostProcessDelete(File file) {
+		getPostProcessActionRegistry().scheduleDelete(file, getPostProcessDelayMinutes() * 60000L);
+	}
 
-							// if not hidden and we're bypass locking
-							if (orig.isFile()) {
-								if (bypassLockedFiles) {
-									RandomAccessFile raf = new RandomAccessFile(orig, "rw");
-									FileChannel channel = raf.getChannel();
-									if (channel.tryLock() == null) {
-										if (logger.isDebugEnabled()) {
-											logger.debug((new StringBuilder()).append("[Automove] File ").append(orig.getAbsolutePath())
-															 .append(" is locked, ignoring").toString());
-										}
-										proceed = false;
-									} else {
-										proceed = true;
-									}
-									channel.close();
-								}
-							}
+	/**
+	 * Moves the given file to the given destination once the {@link #getPostProcessDelayMinutes() post-process delay}
+	 * has elapsed, as a marker file with the <tt>move</tt> action would, but without writing one.
+	 */
+	public void schedulePostProcessMove(File file, File destination) {
+		getPostProcessActionRegistry().scheduleMove(file, destination, getPostProcessDelayMinutes() * 60000L);
+	}
 
-							// if we can still proceed
-							if (proceed) {
-								final List<File> filesToCheck = new ArrayList<File>();
-								// Add all files in child directory tree for testing.
-								if (orig.isDirectory()) {
-									new Object() {
-										void addAllFiles(final File scanDir) {
-											for (final File pFile : scanDir.listFiles(new FileFilter() {
-												public boolean accept(final File file) {
-													return !skip(file) && !isScanDir(file) && !postProcessDelayPending(file) && (file.isDirectory() || file.isFile());
-												}
-											})) {
-												if (pFile.isFile()) {
-													filesToCheck.add(pFile);
-												} else {
-													addAllFiles(pFile);
-												}
-											}
-										}
-									}.addAllFiles(orig);
-								} else {
-									filesToCheck.add(orig);
-								}
-								for (final File fileToCheck : filesToCheck) {
-									Long lastFileSize = fileSizeMap.remove(fileToCheck.getAbsolutePath());
-									if (logger.isDebugEnabled()) {
-										logger.debug((new StringBuilder()).append("[Automove] Checking file ").append(fileToCheck.getAbsolutePath())
-														 .append(" stability, last check = ").append(lastFileSize).append(", current = ").append(fileToCheck.length())
-														 .toString());
-									}
-									if (lastFileSize != null && lastFileSize == fileToCheck.length()) {
-										if (logger.isDebugEnabled()) {
-											logger.debug((new StringBuilder()).append("[Automove] file ").append(fileToCheck.getAbsolutePath())
-															 .append(" is stable, will move.").toString());
-										}
-									} else if (postProcessDelayPending(fileToCheck)) {
-										if (logger.isDebugEnabled()) {
-											logger.debug((new StringBuilder()).append("[Automove] file ").append(fileToCheck.getAbsolutePath())
-															 .append(" is waiting for delay, ignoring.").toString());
-										}
-										proceed = false;
-									} else {
-										if (logger.isDebugEnabled()) {
-											logger.debug((new StringBuilder()).append("[Automove] file ").append(fileToCheck.getAbsolutePath())
-															 .append(" is not stable, ignoring.").toString());
-										}
-										fileSizeMap.put(fileToCheck.getAbsolutePath(), fileToCheck.length());
-										proceed = false;
-									}
-								}
-							}
-							if (!proceed) {
-								continue;
-							}
+	/**
+	 * @return the number of threads executing post-process actions
+	 */
+	public int getPostProcessThreads() {
+		return postProcessExecutor.getThreads();
+	}
 
-							if (logger.isDebugEnabled()) {
-								logger.debug((new StringBuilder()).append("[Automove] moving file ").append(orig.getAbsolutePath()).append(" to ")
-												 .append(dest.getAbsolutePath()).toString());
-							}
-							if (!orig.renameTo(dest)) {
-								notifyEvent(new ExceptionSignal(new AutomoveException(orig, dest, (new StringBuilder()).append("Could not move ")
-									.append(orig.getName()).append(" to ").append(dest.getAbsolutePath()).toString()), this));
-								continue;
-							}
-							if (!removePostProcessMarker(orig)) {
-								notifyEvent(new ExceptionSignal(new AutomoveException(orig, dest, (new StringBuilder()).append("Could not remove ")
-									.append(getPostProcessMarkerFile(orig).getName()).append(" after moving file ").append(orig.getName())
-									.append(" to ").append(dest.getAbsolutePath()).toString()), this));
-							}
-							notifyEvent(new FileMovedEvent(this, orig, dest));
+	/**
+	 * @param postProcessThreads the number of threads executing post-process actions, 1 by default
+	 */
+	public void setPostProcessThreads(int postProcessThreads) {
+		postProcessExecutor.setThreads(postProcessThreads);
+	}
 
-							movedFiles[j] = dest.getName();
+	public double getMaxPostProcessDeletesPerSecond() {
+		return postProcessExecutor.getMaxDeletesPerSecond();
+	}
 
-							// dlmay removed this for a reason, commenting out for now
-//							if (j + 1 == files.length) {
-//								dir = autoMoveDir;
-//							}
+	/**
+	 * Limits the rate at which post-process actions delete files, so as not to saturate the storage. Each file and
+	 * directory of a deleted tree counts.
+	 *
+	 * @param maxDeletesPerSecond the maximum number of deletions per second, or 0 (the default) for no limit
+	 */
+	public void setMaxPostProcessDeletesPerSecond(double maxDeletesPerSecond) {
+		postProcessExecutor.setMaxDeletesPerSecond(maxDeletesPerSecond);
+	}
 
-							// STUD-267: jhumphrey:
-							//
-							// Deletes AppleDouble files after ingestion
-							//
-							// AppleDouble files are hidden files on OSX that are of the format "._<FILENAME>".
-							// These files get created on by OSX whenever you transfer a file into a networked drive.
-							//
-							// For example:
-							//  - file: foo.mov
-							//  - AppleDouble File: ._foo.xml
-							//
-							// These files are linked to the original and cause issues when moving the original media file from/to
-							// the ingestion workflow directories.
-							//
-							// The assumption is that it's safe to delete any file that has the prefix '._' (you lose some functionality
-							// in apple's finder but we're OK with that
-							File appleDouble = new File(orig.getParent(), "._" + orig.getName());
-							if (appleDouble.exists()) {
-								if (!appleDouble.delete()) {
-									logger.warn("Unable to delete AppleDouble file: " + appleDouble.getAbsolutePath());
-								} else {
-									if (logger.isTraceEnabled()) {
-										logger.trace("Deleted AppleDouble file: " + appleDouble.getAbsolutePath());
-									}
-								}
-							}
+	/**
+	 * Number of post-process actions waiting for a thread.
+	 */
+	public int getQueuedPostProcessActions() {
+		return postProcessExecutor.getQueuedActions();
+	}
 
-							if (logger.isDebugEnabled()) {
-								logger.debug((new StringBuilder()).append("[Automove] Moved ").append(orig.getAbsolutePath()).append(" to ")
-												 .append(autoMoveDir.getAbsolutePath()).append(File.separator).toString());
-							}
-						} catch (FileNotFoundException e) {
-							notifyEvent(new ExceptionSignal(new AutomoveException(orig, dest, (new StringBuilder()).append("Could not verify lock on ")
-								.append(orig.getName()).toString()), this));
-							if (logger.isWarnEnabled()) {
-								logger.warn("Unable to move file", e);
-							}
-						} catch (IOException e) {
-							notifyEvent(new ExceptionSignal(new AutomoveException(orig, dest, (new StringBuilder()).append("Tentative lock attempt failed on ")
-								.append(orig.getName()).toString()), this));
-						}
-					}
-				}
-				if (autoMove) {
-					final List<String> movedFileList = new ArrayList<>();
-					for (String movedFile : movedFiles) {
-						if (movedFile != null) {
-							movedFileList.add(movedFile);
-						}
-					}
-					files = movedFileList.toArray(new String[0]);
-				}
+	/**
+	 * Number of post-process actions in progress.
+	 */
+	public int getActivePostProcessActions() {
+		return postProcessExecutor.getActiveActions();
+	}
 
-				if (files.length > 0) {
-					// STUD:497: DLamy (8/21/13):  Make sure FileSetFoundEvent is pointing at the file in the received folder.
-					File baseDir = (autoMove ? getAutoMoveDirectory(dir) : dir);
-					notifyEvent(new FileSetFoundEvent(this, baseDir, files));
-				}
+	public long getCompletedPostProcessActions() {
+		return postProcessExecutor.getCompletedActions();
+	}
 
-				if (shutdownRequested) {
-					return;
-				}
-				if (sendSingleFileEvent) {
-					for (final String file1 : files) {
-						File file = new File(dir, file1);
-						notifyEvent(new FileFoundEvent(this, file));
-						if (shutdownRequested) {
-							return;
-						}
-					}
+	public long getFailedPostProcessActions() {
+		return postProcessExecutor.getFailedActions();
+	}
 
-					if (shutdownRequested) {
-						return;
-					}
-				}
-				if (isTimeBased()) {
-					if (logger.isDebugEnabled()) {
-						logger.debug("Computing new base time");
-					}
-					if (timeBasedOnLastLookup) {
-						baseTime[currentDir] = filesLookupTime;
-					} else {
-						for (final String file1 : files) {
-							File file = new File(dir, file1);
-							long lastModifiedTime = file.lastModified();
-							if (lastModifiedTime > baseTime[currentDir]) {
-								baseTime[currentDir] = lastModifiedTime;
-							}
-						}
+	/**
+	 * Number of files and directories deleted by post-process actions, including trees still being deleted.
+	 */
+	public long getPostProcessDeletedFiles() {
+		return postProcessExecutor.getDeletedFiles();
+	}
 
-						if (logger.isDebugEnabled()) {
-							logger.debug((new StringBuilder()).append("Basetime for ").append(dirs[currentDir]).append(" is ").append(baseTime[currentDir])
-											 .toString());
-						}
-					}
-				}
-				notifyEvent(new DirectoryLookupEndEvent(this, dir));
-			}
+	/**
+	 * Number of post-process actions registered programmatically and not executed yet.
+	 */
+	public int getPendingPostProcessActions() {
+		PostProcessActionRegistry registry = postProcessActions;
+		return registry == null ? 0 : registry.getPendingActions();
+	}
 
-			if (!shutdownRequested) {
-				notifyEvent(new CycleEndEvent(this, baseTime));
-			}
-		}
+	public StabilityPolicy getStabilityPolicy() {
+		return stabilityPolicy;
 	}
 
 	/**
-	 * True if we should skip the file.. false otherwise
-	 *
-	 * @return true or false
+	 * Sets the policy deciding when a file is stable, and can be auto-moved, for all the directories which don't have
+	 * a policy of their own. The default is a {@link SizeStabilityPolicy}.
 	 */
-	private boolean skip(File file) {
-		return !(file.isFile() || file.isDirectory())
-			|| file.isHidden()
-			|| (file.isFile() && file.length() == 0)
-			|| file.getName().startsWith(".");
+	public void setStabilityPolicy(StabilityPolicy stabilityPolicy) {
+		if (stabilityPolicy == null) {
+			throw new IllegalArgumentException("The stability policy cannot be null");
+		}
+		this.stabilityPolicy = stabilityPolicy;
 	}
 
-	private File getPostProcessMarkerFile(File file) {
-		return markerManager.getPostProcessMarkerFile(file);
+	/**
+	 * Returns the stability policy applied to the given controlled directory.
+	 */
+	public StabilityPolicy getStabilityPolicy(File directory) {
+		StabilityPolicy policy = stabilityPolicies.get(PathNormalizer.normalize(directory));
+		return policy == null ? stabilityPolicy : policy;
 	}
 
-	private boolean postProcessDelayPending(File file) {
-		return markerManager.postProcessDelayPending(file);
+	/**
+	 * Sets the stability policy of a controlled directory.
+	 *
+	 * @param policy the policy, or <b>null</b> to apply the poller's {@link #getStabilityPolicy() default policy}
+	 */
+	public void setStabilityPolicy(File directory, StabilityPolicy policy) {
+		File normalizedDirectory = PathNormalizer.normalize(directory);
+		checkIfManaged(normalizedDirectory);
+		if (policy == null) {
+			stabilityPolicies.remove(normalizedDirectory);
+		} else {
+			stabilityPolicies.put(normalizedDirectory, policy);
+		}
 	}
 
-	private boolean isPostProcessFileExpired(final File processedMarkerFile) {
-		return markerManager.isPostProcessFileExpired(processedMarkerFile);
+	public int getMaxFilesPerCycle() {
+		return maxFilesPerCycle;
+	}
+
+	/**
+	 * Sets the maximum number of files auto-moved and announced per directory in a cycle, for all the directories
+	 * which don't have a maximum of their own. With auto-move, the first files in the {@link
+	 * #setFilesSortComparator(Comparator) files ordering} which are ready to be moved are moved, and the others are
+	 * still observed, but left in place for the following cycles, so that files still being written don't hold up the
+	 * ones behind them. Without auto-move, the first files found are selected, without sorting the others.
+	 *
+	 * @param maxFilesPerCycle the maximum number of files, or 0 (the default) for no limit
+	 */
+	public void setMaxFilesPerCycle(int maxFilesPerCycle) {
+		this.maxFilesPerCycle = Math.max(maxFilesPerCycle, 0);
+	}
+
+	/**
+	 * Returns the maximum number of files auto-moved and announced in a cycle for the given controlled directory.
+	 */
+	public int getMaxFilesPerCycle(File directory) {
+		Integer max = maxFilesPerCycleByDirectory.get(PathNormalizer.normalize(directory));
+		return max == null ? maxFilesPerCycle : max.intValue();
+	}
+
+	/**
+	 * Sets the maximum number of files auto-moved and announced in a cycle for a controlled directory.
+	 *
+	 * @param maxFilesPerCycle the maximum number of files, 0 for no limit, or a negative value to apply the poller's
+	 *                         {@link #getMaxFilesPerCycle() default}
+	 */
+	public void setMaxFilesPerCycle(File directory, int maxFilesPerCycle) {
+		File normalizedDirectory = PathNormalizer.normalize(directory);
+		checkIfManaged(normalizedDirectory);
+		if (maxFilesPerCycle < 0) {
+			maxFilesPerCycleByDirectory.remove(normalizedDirectory);
+		} else {
+			maxFilesPerCycleByDirectory.put(normalizedDirectory, maxFilesPerCycle);
+		}
+	}
+
+	/**
+	 * Number of times a file has been left for a later cycle because of the maximum number of files per cycle, since
+	 * the poller was created.
+	 */
+	public long getDeferredFiles() {
+		return deferredFiles.get();
+	}
+
+	/**
+	 * Number of directory lookups whose files have been left in place because a poll manager implementing {@link
+	 * FlowControl} was not accepting files, since the poller was created.
+	 */
+	public long getHeldBackLookups() {
+		return heldBackLookups.get();
+	}
+
+	/**
+	 * @return <b>false</b> if any of the poll managers implementing {@link FlowControl} is not accepting the files of
+	 * the given directory
+	 */
+	private boolean isAcceptingFiles(File dir) {
+		for (PollManager pm : pollManagersList) {
+			if (pm instanceof FlowControl && !((FlowControl) pm).isAcceptingFiles(dir)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Poll manager ").append(pm).append(" is not accepting files, leaving the files of ")
+									 .append(dir).append(" in place").toString());
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long getRecheckDelay() {
+		return recheckDelay;
+	}
+
+	/**
+	 * Sets the delay after which a file found not stable by a lookup is observed again on its own (with a single
+	 * attribute read), rather than on the next lookup of its directory. If the file is then stable it is auto-moved and
+	 * announced right away, in a cycle of its own; otherwise it is observed again after twice the delay, and so on up to
+	 * the directory's poll interval. The delay should suit the {@link #setStabilityPolicy(StabilityPolicy) stability
+	 * policy}: with the default policy, a file whose size doesn't change over the delay is considered complete.
+	 *
+	 * @param recheckDelay the delay in milliseconds, or 0 (the default) to wait for the next lookup
+	 */
+	public void setRecheckDelay(long recheckDelay) {
+		this.recheckDelay = Math.max(recheckDelay, 0L);
+		if (recheckDelay <= 0L) {
+			recheckWheel.clear();
+		}
+	}
+
+	/**
+	 * Number of files currently waiting to be observed again on their own.
+	 */
+	public int getScheduledRechecks() {
+		return recheckWheel.size();
+	}
+
+	private StabilityTracker getStabilityTracker(File dir) {
+		StabilityTracker tracker = stabilityTrackers.get(dir);
+		if (tracker == null) {
+			tracker = new StabilityTracker(stabilityStatistics);
+			stabilityTrackers.put(dir, tracker);
+		}
+		return tracker;
+	}
+
+	/**
+	 * Number of files found stable since the poller was created, or the statistics were reset.
+	 */
+	public long getStableFiles() {
+		return stabilityStatistics.getStableFiles();
+	}
+
+	/**
+	 * Average time, in milliseconds, from the first observation of a file to it being found stable.
+	 */
+	public long getAverageTimeToStable() {
+		return stabilityStatistics.getAverageTimeToStable();
+	}
+
+	public long getMaxTimeToStable() {
+		return stabilityStatistics.getMaxTimeToStable();
+	}
+
+	public long getLastTimeToStable() {
+		return stabilityStatistics.getLastTimeToStable();
+	}
+
+	public void resetStabilityStatistics() {
+		stabilityStatistics.reset();
+	}
+
+	/**
+	 * Number of files whose stability is currently being tracked, across all the controlled directories.
+	 */
+	public long getStabilityEntries() {
+		return stabilityStatistics.getLiveEntries();
+	}
+
+	/**
+	 * Number of observations which could not be recorded since the {@link #getMaxStabilityEntries() maximum number of
+	 * tracked files} had been reached.
+	 */
+	public long getRejectedStabilityObservations() {
+		return stabilityStatistics.getRejectedObservations();
+	}
+
+	public int getMaxStabilityEntries() {
+		return stabilityStatistics.getMaxEntries();
+	}
+
+	/**
+	 * Bounds the number of files whose stability is tracked at any time. Once the bound is reached, newly found files
+	 * are not tracked (and are therefore not stable) until some tracked file is moved or disappears.
+	 *
+	 * @param maxStabilityEntries the maximum, or 0 (the default) for no bound
+	 */
+	public void setMaxStabilityEntries(int maxStabilityEntries) {
+		stabilityStatistics.setMaxEntries(maxStabilityEntries);
+	}
+
+	private DirectoryIndex getDirectoryIndex(File dir) {
+		DirectoryIndex index = directoryIndexes.get(dir);
+		if (index == null) {
+			File indexFile = null;
+			if (indexDirectory != null) {
+				if (!indexDirectory.isDirectory() && !indexDirectory.mkdirs()) {
+					logger.warn("Unable to create the index directory {}, indexes will not be saved", indexDirectory);
+				} else {
+					indexFile = new File(indexDirectory, (new StringBuilder()).append(dir.getName()).append("-")
+						.append(Integer.toHexString(dir.getAbsolutePath().hashCode())).append(".idx").toString());
+				}
+			}
+			index = new DirectoryIndex(dir, indexFile);
+			directoryIndexes.put(dir, index);
+		}
+		return index;
+	}
+
+	public boolean isUsingWatchService() {
+		return usingWatchService;
+	}
+
+	public void setUsingWatchService(boolean v) {
+		if (isAlive()) {
+			throw new IllegalStateException("Can't set the use of the watch service when the poller has already started");
+		}
+		usingWatchService = v;
+	}
+
+	public long getSafetyRescanInterval() {
+		return safetyRescanInterval;
+	}
+
+	public void setSafetyRescanInterval(long safetyRescanInterval) {
+		this.safetyRescanInterval = safetyRescanInterval;
+	}
+
+	public int getLookupThreads() {
+		return lookupThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to look up the controlled directories. With more than one thread the
+	 * directories of a cycle are listed, checked for stability and auto-moved concurrently; the events of each
+	 * directory are still delivered in order, and by the polling thread, as each directory completes.
+	 *
+	 * @param lookupThreads the number of lookup threads; 1 (the default) or less looks up one directory at a time
+	 */
+	public void setLookupThreads(int lookupThreads) {
+		this.lookupThreads = Math.max(lookupThreads, 1);
+	}
+
+	public int getSubtreeWalkThreads() {
+		return subtreeWalkThreads;
+	}
+
+	/**
+	 * Sets the number of threads used to walk the directory trees found in the controlled directories. With more than
+	 * one thread the subdirectories of a tree are listed and their files read in parallel, on a fork-join pool.
+	 *
+	 * @param subtreeWalkThreads the number of threads; 1 (the default) or less walks the trees in the lookup thread
+	 */
+	public void setSubtreeWalkThreads(int subtreeWalkThreads) {
+		this.subtreeWalkThreads = Math.max(subtreeWalkThreads, 1);
+	}
+
+	public int getParallelSortThreshold() {
+		return parallelSortThreshold;
+	}
+
+	/**
+	 * Sets the number of accepted files from which a directory's files are sorted in parallel, on a fork-join pool
+	 * with one thread per available processor. Smaller listings are sorted in the lookup thread.
+	 *
+	 * @param parallelSortThreshold the number of files; 0 or less never sorts in parallel
+	 */
+	public void setParallelSortThreshold(int parallelSortThreshold) {
+		this.parallelSortThreshold = parallelSortThreshold;
+	}
+
+	public FileMover getFileMover() {
+		return fileMover;
+	}
+
+	/**
+	 * Sets the mover used to move files to the auto-move directories, which may be on another file system than the
+	 * controlled directories, and to execute the post-process moves.
+	 *
+	 * @param fileMover the mover; by default, the one shared by all pollers
+	 */
+	public void setFileMover(FileMover fileMover) {
+		this.fileMover = fileMover;
+		postProcessExecutor.setFileMover(fileMover);
+	}
+
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * Number of bytes read to compute checksums since the poller was created, or the stability statistics were reset.
+	 */
+	public long getDigestedBytes() {
+		return stabilityStatistics.getDigestedBytes();
+	}
+
+	/**
+	 * Sets the algorithm of the checksums computed for the auto-moved files. A file is digested while its stability is
+	 * checked, reading at each observation only the bytes appended since the one before, and the checksum is completed
+	 * when the file is moved; it is then available from the {@link FileSetFoundEvent} and {@link FileFoundEvent}.
+	 *
+	 * @param checksumAlgorithm the name of a {@link MessageDigest} algorithm, e.g. <tt>MD5</tt> or <tt>SHA-256</tt>;
+	 *                          <b>null</b> (the default) computes no checksums
+	 * @throws IllegalArgumentException if the algorithm is not available
+	 */
+	public void setChecksumAlgorithm(String checksumAlgorithm) {
+		if (checksumAlgorithm != null) {
+			try {
+				MessageDigest.getInstance(checksumAlgorithm);
+			} catch (NoSuchAlgorithmException e) {
+				throw new IllegalArgumentException((new StringBuilder()).append("Unknown checksum algorithm: ").append(checksumAlgorithm)
+													   .toString(), e);
+			}
+		}
+		this.checksumAlgorithm = checksumAlgorithm;
+	}
+
+	/**
+	 * Number of times a subdirectory of a directory tree has not been listed again since it had not changed, since the
+	 * poller was created.
+	 */
+	public long getReusedListings() {
+		return listingsReused.get();
+	}
+
+	public int getPostProcessDelayMinutes() {
+		return markerManager.getPostProcessDelayMinutes();
+	}
+
+	public void setPostProcessDelayMinutes(int delayMinutes) {
+		markerManager.setPostProcessDelayMinutes(delayMinutes);
+	}
+
+	public void setStartBySleeping(boolean v) {
+		startBySleeping = v;
+	}
+
+	public boolean isStartBySleeping() {
+		return startBySleeping;
+	}
+
+	public boolean isAsyncDispatch() {
+		return eventDispatcher != null;
+	}
+
+	/**
+	 * Sets whether the events are delivered to each poll manager on a thread of the manager's own, through a bounded
+	 * queue, rather than by the polling thread. A slow manager then holds up neither the scanning nor the other
+	 * managers, as long as its queue is not full; see {@link #setDispatchOverflowPolicy(DispatchOverflowPolicy)}.
+	 * Each manager still receives the events in order.
+	 *
+	 * @throws IllegalStateException if the poller has already started
+	 */
+	public void setAsyncDispatch(boolean asyncDispatch) {
+		if (isAlive()) {
+			throw new IllegalStateException("Can't change the event dispatch when the poller has already started");
+		}
+		if (eventDispatcher != null) {
+			eventDispatcher.close(0L);
+			eventDispatcher = null;
+		}
+		if (asyncDispatch) {
+			eventDispatcher = new EventDispatcher(dispatchQueueSize, dispatchOverflowPolicy, slowConsumerThreshold);
+		}
+	}
+
+	EventDispatcher getEventDispatcher() {
+		return eventDispatcher;
+	}
+
+	public int getDispatchQueueSize() {
+		return dispatchQueueSize;
+	}
+
+	/**
+	 * Sets the number of events which can be queued for each poll manager when {@link #setAsyncDispatch(boolean)
+	 * dispatching asynchronously}. The default is 1024.
+	 *
+	 * @throws IllegalStateException if the poller has already started
+	 */
+	public void setDispatchQueueSize(int dispatchQueueSize) {
+		if (dispatchQueueSize < 1) {
+			throw new IllegalArgumentException("The dispatch queue size must be positive");
+		}
+		this.dispatchQueueSize = dispatchQueueSize;
+		if (eventDispatcher != null) {
+			setAsyncDispatch(true);
+		}
+	}
+
+	public DispatchOverflowPolicy getDispatchOverflowPolicy() {
+		return dispatchOverflowPolicy;
+	}
+
+	/**
+	 * Sets what happens when a poll manager's queue is full. The default is {@link DispatchOverflowPolicy#BLOCK}.
+	 */
+	public void setDispatchOverflowPolicy(DispatchOverflowPolicy dispatchOverflowPolicy) {
+		if (dispatchOverflowPolicy == null) {
+			throw new IllegalArgumentException("The dispatch overflow policy cannot be null");
+		}
+		this.dispatchOverflowPolicy = dispatchOverflowPolicy;
+		EventDispatcher dispatcher = eventDispatcher;
+		if (dispatcher != null) {
+			dispatcher.setOverflowPolicy(dispatchOverflowPolicy);
+		}
+	}
+
+	public long getSlowConsumerThreshold() {
+		return slowConsumerThreshold;
+	}
+
+	/**
+	 * Sets the age, in milliseconds, above which an event delivered asynchronously to a poll manager causes a warning
+	 * to be logged (at most once per threshold period and manager). The default is 10 seconds.
+	 *
+	 * @param slowConsumerThreshold the age, or 0 for no warnings
+	 */
+	public void setSlowConsumerThreshold(long slowConsumerThreshold) {
+		this.slowConsumerThreshold = Math.max(slowConsumerThreshold, 0L);
+		EventDispatcher dispatcher = eventDispatcher;
+		if (dispatcher != null) {
+			dispatcher.setSlowConsumerThreshold(this.slowConsumerThreshold);
+		}
+	}
+
+	/**
+	 * Number of events waiting to be delivered to the poll managers.
+	 */
+	public int getQueuedEvents() {
+		EventDispatcher dispatcher = eventDispatcher;
+		int queued = 0;
+		if (dispatcher != null) {
+			for (EventDispatcher.Channel channel : dispatcher.getChannels()) {
+				queued += channel.size();
+			}
+		}
+		return queued;
+	}
+
+	/**
+	 * Number of events waiting to be delivered to the given poll manager.
+	 */
+	public int getQueuedEvents(PollManager pollManager) {
+		EventDispatcher dispatcher = eventDispatcher;
+		EventDispatcher.Channel channel = dispatcher == null ? null : dispatcher.getChannel(pollManager);
+		return channel == null ? 0 : channel.size();
+	}
+
+	/**
+	 * Number of events discarded because a poll manager's queue was full, since asynchronous dispatch was enabled.
+	 */
+	public long getDroppedEvents() {
+		EventDispatcher dispatcher = eventDispatcher;
+		long dropped = 0L;
+		if (dispatcher != null) {
+			for (EventDispatcher.Channel channel : dispatcher.getChannels()) {
+				dropped += channel.getDropped();
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * The age of the last event delivered to the given poll manager, when it was delivered, in milliseconds.
+	 */
+	public long getDispatchLag(PollManager pollManager) {
+		EventDispatcher dispatcher = eventDispatcher;
+		EventDispatcher.Channel channel = dispatcher == null ? null : dispatcher.getChannel(pollManager);
+		return channel == null ? 0L : channel.getLastLag();
+	}
+
+	/**
+	 * The largest age of an event delivered to a poll manager, in milliseconds.
+	 */
+	public long getMaxDispatchLag() {
+		EventDispatcher dispatcher = eventDispatcher;
+		long lag = 0L;
+		if (dispatcher != null) {
+			for (EventDispatcher.Channel channel : dispatcher.getChannels()) {
+				lag = Math.max(lag, channel.getMaxLag());
+			}
+		}
+		return lag;
+	}
+
+	public void addPollManager(PollManager pm) {
+		pollManagersList.add(pm);
+		addListener(new DefaultListener(this, pm));
+	}
+
+	public void shutdown() {
+		shutdownRequested = true;
+		interrupt();
+		DirectoryWatcher w = watcher;
+		if (w != null) {
+			w.close();
+		}
+		shutdownLookupExecutor();
+		shutdownSubtreeWalkPool();
+		lockProber.shutdown();
+		shutdownPostProcessActions();
+		EventDispatcher dispatcher = eventDispatcher;
+		if (dispatcher != null && !isAlive()) {
+			// Otherwise closed by the polling thread, once done with the events it is signalling
+			dispatcher.close(DISPATCH_DRAIN_TIMEOUT);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Polling shutdown requested");
+		}
+	}
+
+	public boolean isShuttingDown() {
+		return shutdownRequested;
+	}
+
+	public synchronized void run() {
+		shutdownRequested = false;
+		if (dirs == null) {
+			throw new IllegalStateException("Programming error: no directories to poll specified");
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Polling started, interval is ").append(pollInterval).append("ms").toString());
+		}
+		if (postProcessJournal != null) {
+			// Resume the actions left pending
+			getPostProcessActionRegistry();
+		}
+		if (autoMove) {
+			for (final File dir : dirs) {
+				File automoveDir = PathNormalizer.normalize(getAutoMoveDirectory(dir));
+				if (automoveDir.exists()) {
+					continue;
+				}
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Automove directory ").append(automoveDir).append(" does not exist, attempting to create.")
+									 .toString());
+				}
+				if (!automoveDir.mkdirs()) {
+					throw new RuntimeException((new StringBuilder()).append("Could not create the directory ").append(automoveDir.getAbsolutePath()).toString());
+				}
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Automove directory ").append(automoveDir).append(" created successfully.").toString());
+				}
+			}
+
+		}
+		if (usingWatchService) {
+			try {
+				watcher = createDirectoryWatcher();
+			} catch (IOException e) {
+				logger.warn("Unable to create a watch service, falling back to timed lookups", e);
+			}
+		}
+		long now = System.currentTimeMillis();
+		lastFullLookupTime = now;
+		Arrays.fill(lastLookupTime, now);
+		boolean selected[] = null;
+		do {
+			if (startBySleeping) {
+				startBySleeping = false;
+			} else {
+				runCycle(selected);
+			}
+			if (!shutdownRequested) {
+				try {
+					sleeping = true;
+					if (watcher != null) {
+						selected = awaitDirectoryChanges();
+					} else if (adaptivePollInterval) {
+						selected = awaitDueDirectories();
+					} else {
+						pause(pollInterval);
+					}
+					sleeping = false;
+					if (logger.isDebugEnabled()) {
+						logger.debug("Poller waking up");
+					}
+				} catch (InterruptedException e) {
+					// no-op
+				}
+			}
+		}
+		while (!shutdownRequested);
+
+		if (watcher != null) {
+			watcher.close();
+			watcher = null;
+		}
+		shutdownLookupExecutor();
+		shutdownSubtreeWalkPool();
+		lockProber.shutdown();
+		recheckWheel.clear();
+		shutdownPostProcessActions();
+		if (eventDispatcher != null) {
+			// Found files have been moved already, and would not be announced again
+			eventDispatcher.close(DISPATCH_DRAIN_TIMEOUT);
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Poller terminated.");
+		}
+	}
+
+	DirectoryWatcher createDirectoryWatcher() throws IOException {
+		return new DirectoryWatcher();
+	}
+
+	/**
+	 * Waits until at least one directory needs to be looked up, and returns the selection.
+	 * <p/>
+	 * Watched directories are selected as soon as a change is notified for them; directories which are not watched, or
+	 * which still hold files that were not processed by the last lookup (unstable, locked or delayed), are selected every
+	 * poll interval, so that stability is always judged over at least one poll interval. Every safety rescan interval
+	 * all the directories are selected regardless.
+	 *
+	 * @return the selected directories, by index, or <b>null</b> for all of them
+	 */
+	private boolean[] awaitDirectoryChanges() throws InterruptedException {
+		while (!shutdownRequested) {
+			File currentDirs[] = dirs;
+			long lookupTimes[] = lastLookupTime;
+			boolean pending[] = lookupPending;
+			boolean changed[] = directoryChanged;
+			if (lookupTimes.length != currentDirs.length || pending.length != currentDirs.length || changed.length != currentDirs.length) {
+				return null;
+			}
+			watcher.update(currentDirs);
+
+			long now = System.currentTimeMillis();
+			long wakeUpTime = Long.MAX_VALUE;
+			if (safetyRescanInterval > 0L) {
+				wakeUpTime = lastFullLookupTime + safetyRescanInterval;
+				if (wakeUpTime <= now) {
+					if (logger.isDebugEnabled()) {
+						logger.debug("Safety rescan due, looking up all directories");
+					}
+					return null;
+				}
+			}
+
+			boolean selected[] = new boolean[currentDirs.length];
+			boolean anySelected = false;
+			for (int i = 0; i < currentDirs.length; i++) {
+				if (!watcher.isWatched(PathNormalizer.normalize(currentDirs[i])) || pending[i]) {
+					long due = lookupTimes[i] + getLookupInterval(i);
+					if (due <= now) {
+						selected[i] = anySelected = true;
+					} else {
+						wakeUpTime = Math.min(wakeUpTime, due);
+					}
+				} else if (changed[i]) {
+					selected[i] = anySelected = true;
+				}
+			}
+			if (anySelected) {
+				return selected;
+			}
+
+			wakeUpTime = Math.min(wakeUpTime, recheckWheel.nextDeadline());
+			Set<File> changedDirs = watcher.awaitChanges(wakeUpTime == Long.MAX_VALUE ? Long.MAX_VALUE : wakeUpTime - now);
+			runRechecks();
+			for (int i = 0; i < currentDirs.length; i++) {
+				if (changedDirs.contains(PathNormalizer.normalize(currentDirs[i]))) {
+					if (logger.isDebugEnabled()) {
+						logger.debug((new StringBuilder()).append("Change notified for ").append(currentDirs[i]).toString());
+					}
+					changed[i] = true;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Waits until at least one directory is due for lookup on its adaptive interval, and returns the selection.
+	 *
+	 * @return the selected directories, by index, or <b>null</b> for all of them
+	 */
+	private boolean[] awaitDueDirectories() throws InterruptedException {
+		while (!shutdownRequested) {
+			File currentDirs[] = dirs;
+			long lookupTimes[] = lastLookupTime;
+			if (lookupTimes.length != currentDirs.length) {
+				return null;
+			}
+			long now = System.currentTimeMillis();
+			long wakeUpTime = Long.MAX_VALUE;
+			boolean selected[] = new boolean[currentDirs.length];
+			boolean anySelected = false;
+			for (int i = 0; i < currentDirs.length; i++) {
+				long due = lookupTimes[i] + getLookupInterval(i);
+				if (due <= now) {
+					selected[i] = anySelected = true;
+				} else {
+					wakeUpTime = Math.min(wakeUpTime, due);
+				}
+			}
+			if (anySelected) {
+				return selected;
+			}
+			pause(wakeUpTime == Long.MAX_VALUE ? pollInterval : wakeUpTime - now);
+		}
+		return null;
+	}
+
+	/**
+	 * Sleeps for the given time, observing again the files which become due in the meantime.
+	 */
+	private void pause(long millis) throws InterruptedException {
+		long end = System.currentTimeMillis() + millis;
+		while (!shutdownRequested) {
+			long now = System.currentTimeMillis();
+			long next = recheckWheel.nextDeadline();
+			if (next >= end) {
+				if (end > now) {
+					sleep(end - now);
+				}
+				return;
+			}
+			if (next > now) {
+				sleep(next - now);
+			}
+			runRechecks();
+		}
+	}
+
+	/**
+	 * Observes again the files which are due, and auto-moves those which have become stable. The moves are announced
+	 * with the same events as in a lookup cycle, in a cycle of their own.
+	 */
+	void runRechecks() {
+		List<RecheckWheel.Recheck> due = recheckWheel.expire(System.currentTimeMillis());
+		if (due.isEmpty() || shutdownRequested || !autoMove) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		String algorithm = checksumAlgorithm;
+		Map<File, List<FileSnapshot>> stableFiles = new LinkedHashMap<>();
+		for (RecheckWheel.Recheck recheck : due) {
+			Integer index = dirIndexes.get(recheck.directory);
+			if (index == null) {
+				continue;
+			}
+			StabilityTracker tracker = getStabilityTracker(recheck.directory);
+			FileSnapshot snapshot = DirectoryListing.snapshot(recheck.file, fileSystemCalls);
+			if (snapshot == null || !snapshot.isFile()) {
+				tracker.forget(recheck.file);
+				continue;
+			}
+			boolean stable = tracker.observe(snapshot, getStabilityPolicy(recheck.directory), now);
+			if (algorithm != null) {
+				tracker.updateDigest(snapshot, algorithm);
+			}
+			if (stable) {
+				List<FileSnapshot> files = stableFiles.get(recheck.directory);
+				if (files == null) {
+					files = new ArrayList<>();
+					stableFiles.put(recheck.directory, files);
+				}
+				files.add(snapshot);
+			} else if (recheckDelay > 0L) {
+				recheckWheel.schedule(recheck.file, recheck.directory, Math.min(recheck.delay * 2, getLookupInterval(index)), now);
+			}
+		}
+		if (stableFiles.isEmpty()) {
+			return;
+		}
+
+		notifyEvent(new CycleStartEvent(this));
+		for (Map.Entry<File, List<FileSnapshot>> entry : stableFiles.entrySet()) {
+			autoMoveRechecked(entry.getKey(), entry.getValue());
+		}
+		notifyEvent(new CycleEndEvent(this, baseTime));
+	}
+
+	/**
+	 * Auto-moves the given files, found stable by a recheck, and announces them. As in a lookup, at most the {@link
+	 * #getMaxFilesPerCycle(File) maximum number of files} are moved, first in the files ordering; the others are left to
+	 * the next lookup.
+	 */
+	private void autoMoveRechecked(File dir, List<FileSnapshot> files) {
+		if (!isAcceptingFiles(dir)) {
+			// Left to the next lookup
+			heldBackLookups.incrementAndGet();
+			return;
+		}
+		File autoMoveDir = getAutoMoveDirectory(dir);
+		StabilityTracker tracker = getStabilityTracker(dir);
+		DirectoryIndex dirIndex = incrementalLookup ? getDirectoryIndex(dir) : null;
+		List<String> movedFiles = new ArrayList<>();
+		String algorithm = checksumAlgorithm;
+		Map<String, String> checksums = new HashMap<>();
+		int maxFiles = getMaxFilesPerCycle(dir);
+		File candidates[] = files.toArray(new File[files.size()]);
+		if (filesSortComparator != null) {
+			FileSortKeys.sort(candidates, filesSortComparator, 0, null);
+		}
+		boolean deferred = false;
+
+		notifyEvent(new DirectoryLookupStartEvent(this, dir));
+		for (File candidate : candidates) {
+			FileSnapshot orig = (FileSnapshot) candidate;
+			if (maxFiles > 0 && movedFiles.size() >= maxFiles) {
+				deferredFiles.incrementAndGet();
+				deferred = true;
+				continue;
+			}
+			File dest = new File(autoMoveDir, orig.getName());
+			try {
+				// Anything out of the ordinary is left to the next lookup
+				if (postProcessDelayPending(orig, null) || (bypassLockedFiles && isLocked(orig))) {
+					continue;
+				}
+				if (bypassLockedFiles && !isLockConfirmed(orig)) {
+					recheckWheel.schedule(orig, dir, recheckDelay, System.currentTimeMillis());
+					continue;
+				}
+				fileSystemCalls.incrementAndGet();
+				if (dest.exists() && !deleteExistingDestination(orig, dest, notifier)) {
+					continue;
+				}
+				String checksum = algorithm != null ? tracker.finishDigest(orig, algorithm) : null;
+				if (!moveToAutoMoveDirectory(orig, dest, null, notifier)) {
+					continue;
+				}
+				if (checksum != null) {
+					checksums.put(dest.getName(), checksum);
+				}
+			} catch (IOException e) {
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("[Automove] Unable to check the lock on ").append(orig.getAbsolutePath())
+									 .append(", leaving it to the next lookup: ").append(e).toString());
+				}
+				continue;
+			}
+			tracker.forget(orig);
+			lockProber.forget(orig);
+			if (dirIndex != null) {
+				dirIndex.markGone(orig.getName());
+			}
+			movedFiles.add(dest.getName());
+		}
+		if (deferred) {
+			// Looked up again on the poll interval, even where changes are notified
+			Integer index = dirIndexes.get(dir);
+			if (index != null && index < lookupPending.length) {
+				lookupPending[index] = true;
+			}
+		}
+
+		if (!movedFiles.isEmpty()) {
+			String names[] = movedFiles.toArray(new String[movedFiles.size()]);
+			notifyEvent(new FileSetFoundEvent(this, autoMoveDir, names, algorithm, checksums));
+			if (sendSingleFileEvent) {
+				for (String name : names) {
+					notifyEvent(new FileFoundEvent(this, new File(dir, name), algorithm, checksums.get(name)));
+				}
+			}
+		}
+		if (dirIndex != null) {
+			dirIndex.save();
+		}
+		notifyEvent(new DirectoryLookupEndEvent(this, dir));
+	}
+
+	void notifyEvent(Signal signal) {
+		notify(signal);
+	}
+
+	void runCycle() {
+		runCycle(null);
+	}
+
+	/**
+	 * Runs a lookup cycle over the selected directories.
+	 *
+	 * @param selected the directories to look up, by index, or <b>null</b> for all of them
+	 */
+	void runCycle(boolean selected[]) {
+		if (selected != null && selected.length != dirs.length) {
+			selected = null;
+		}
+		EventDispatcher dispatcher = eventDispatcher;
+		if (dispatcher != null && !dispatcher.awaitBacklog()) {
+			return;
+		}
+		if (!shutdownRequested) {
+			notifyEvent(new CycleStartEvent(this));
+		}
+
+		if (!shutdownRequested) {
+			if (selected == null) {
+				lastFullLookupTime = System.currentTimeMillis();
+			}
+			fileSystemCalls.set(0L);
+			entriesExamined.set(0L);
+			scanDirKeys = readScanDirKeys();
+			int selectedCount = 0;
+			for (int i = 0; i < dirs.length; i++) {
+				if (selected == null || selected[i]) {
+					selectedCount++;
+				}
+			}
+			if (lookupThreads > 1 && selectedCount > 1) {
+				if (!lookupDirectoriesConcurrently(selected)) {
+					return;
+				}
+			} else {
+				for (int i = 0; i < dirs.length; i++) {
+					if (selected != null && !selected[i]) {
+						continue;
+					}
+					if (!lookupDirectory(i, PathNormalizer.normalize(dirs[i]), notifier)) {
+						return;
+					}
+				}
+			}
+
+			if (bypassLockedFiles) {
+				lockProber.prune(System.currentTimeMillis());
+			}
+			lastCycleFileSystemCalls = fileSystemCalls.get();
+			lastCycleEntriesExamined = entriesExamined.get();
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Cycle examined ").append(lastCycleEntriesExamined).append(" entries with ")
+								 .append(lastCycleFileSystemCalls).append(" file system calls").toString());
+			}
+
+			if (!shutdownRequested) {
+				notifyEvent(new CycleEndEvent(this, baseTime));
+			}
+		}
+	}
+
+	/**
+	 * Looks up the selected directories on the lookup pool. The events of each directory are buffered, and delivered
+	 * from the polling thread as soon as the directory lookup completes.
+	 *
+	 * @return <b>false</b> if the cycle has been abandoned because of a shutdown request
+	 */
+	private boolean lookupDirectoriesConcurrently(boolean selected[]) {
+		CompletionService<BufferedSignals> completionService = new ExecutorCompletionService<>(getLookupExecutor());
+		List<Future<BufferedSignals>> lookups = new ArrayList<>();
+		for (int i = 0; i < dirs.length; i++) {
+			if (selected != null && !selected[i]) {
+				continue;
+			}
+			final int index = i;
+			final File dir = PathNormalizer.normalize(dirs[i]);
+			lookups.add(completionService.submit(new Callable<BufferedSignals>() {
+				public BufferedSignals call() {
+					BufferedSignals events = new BufferedSignals();
+					events.completed = lookupDirectory(index, dir, events);
+					return events;
+				}
+			}));
+		}
+		try {
+			for (int i = 0; i < lookups.size(); i++) {
+				BufferedSignals events = completionService.take().get();
+				for (Signal signal : events.signals) {
+					notifyEvent(signal);
+				}
+				if (!events.completed || shutdownRequested) {
+					return false;
+				}
+			}
+			return true;
+		} catch (InterruptedException e) {
+			// Interrupted by a shutdown request: the pending lookups will notice it and stop
+			return false;
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
+		} finally {
+			for (Future<BufferedSignals> lookup : lookups) {
+				lookup.cancel(false);
+			}
+		}
+	}
+
+	private ThreadPoolExecutor getLookupExecutor() {
+		synchronized (lookupExecutorLock) {
+			int threads = lookupThreads;
+			if (lookupExecutor != null && lookupExecutor.getMaximumPoolSize() != threads) {
+				lookupExecutor.shutdown();
+				lookupExecutor = null;
+			}
+			if (lookupExecutor == null) {
+				final String prefix = getName() + "-lookup-";
+				lookupExecutor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+														new ThreadFactory() {
+															private final AtomicInteger count = new AtomicInteger();
+
+															public Thread newThread(Runnable r) {
+																Thread t = new Thread(r, prefix + count.incrementAndGet());
+																t.setDaemon(true);
+																return t;
+															}
+														});
+				lookupExecutor.allowCoreThreadTimeOut(true);
+			}
+			return lookupExecutor;
+		}
+	}
+
+	private void shutdownLookupExecutor() {
+		ThreadPoolExecutor executor;
+		synchronized (lookupExecutorLock) {
+			executor = lookupExecutor;
+			lookupExecutor = null;
+		}
+		if (executor != null) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the pool to walk directory trees with, or <b>null</b> to walk them in the lookup thread
+	 */
+	private ForkJoinPool getSubtreeWalkPool() {
+		synchronized (lookupExecutorLock) {
+			int threads = subtreeWalkThreads;
+			if (subtreeWalkPool != null && subtreeWalkPool.getParallelism() != threads) {
+				subtreeWalkPool.shutdown();
+				subtreeWalkPool = null;
+			}
+			if (subtreeWalkPool == null && threads > 1) {
+				subtreeWalkPool = new ForkJoinPool(threads);
+			}
+			return subtreeWalkPool;
+		}
+	}
+
+	private void shutdownPostProcessActions() {
+		synchronized (postProcessActionsLock) {
+			if (postProcessActions != null) {
+				postProcessActions.shutdown();
+				postProcessActions = null;
+			}
+		}
+		postProcessExecutor.shutdown();
+	}
+
+	private void shutdownSubtreeWalkPool() {
+		ForkJoinPool pool;
+		ForkJoinPool sort;
+		synchronized (lookupExecutorLock) {
+			pool = subtreeWalkPool;
+			subtreeWalkPool = null;
+			sort = sortPool;
+			sortPool = null;
+		}
+		if (pool != null) {
+			pool.shutdown();
+		}
+		if (sort != null) {
+			sort.shutdown();
+		}
+	}
+
+	/**
+	 * @return the pool sorting large listings, or <b>null</b> if there is a single processor
+	 */
+	private ForkJoinPool getSortPool() {
+		synchronized (lookupExecutorLock) {
+			int threads = Runtime.getRuntime().availableProcessors();
+			if (sortPool == null && threads > 1) {
+				sortPool = new ForkJoinPool(threads);
+			}
+			return sortPool;
+		}
+	}
+
+	private SubtreeIndex getSubtreeIndex(File dir) {
+		SubtreeIndex subtreeIndex = subtreeIndexes.get(dir);
+		if (subtreeIndex == null) {
+			subtreeIndex = new SubtreeIndex(fileSystemCalls, entriesExamined, listingsReused);
+			subtreeIndexes.put(dir, subtreeIndex);
+		}
+		return subtreeIndex;
+	}
+
+	/**
+	 * @return the post-process markers of the auto-move directory of the given controlled directory
+	 */
+	private PostProcessMarkerIndex getMarkerIndex(File dir) {
+		PostProcessMarkerIndex markerIndex = markerIndexes.get(dir);
+		if (markerIndex == null) {
+			markerIndex = new PostProcessMarkerIndex();
+			markerIndexes.put(dir, markerIndex);
+		}
+		return markerIndex;
+	}
+
+	/**
+	 * Looks up one controlled directory: auto-moves the stable files, if required, and signals the directory events.
+	 *
+	 * @param index  the index of the directory among the controlled ones
+	 * @param dir    the (normalized) directory
+	 * @param events receives the events of the lookup, in order
+	 * @return <b>false</b> if the lookup has been abandoned because of a shutdown request
+	 */
+	private boolean lookupDirectory(int index, File dir, SignalSink events) {
+		events.signal(new DirectoryLookupStartEvent(this, dir));
+
+		if (shutdownRequested) {
+			return false;
+		}
+
+		long filesLookupTime = System.currentTimeMillis();
+		boolean filesPending = false;
+		long previousLookupTime = lastLookupTime[index];
+		lastLookupTime[index] = filesLookupTime;
+		directoryChanged[index] = false;
+
+		DirectoryListing listing = DirectoryListing.read(dir, fileSystemCalls);
+		if (!listing.isReadable()) {
+			logger.warn("Warning: directory {} does not exist", dir.toString());
+		}
+		DirectoryIndex dirIndex = incrementalLookup ? getDirectoryIndex(dir) : null;
+		StabilityTracker stabilityTracker = getStabilityTracker(dir);
+		StabilityPolicy policy = getStabilityPolicy(dir);
+		String algorithm = checksumAlgorithm;
+		Map<String, String> checksums = new HashMap<>();
+		stabilityTracker.beginLookup();
+		SubtreeIndex subtreeIndex = getSubtreeIndex(dir);
+		subtreeIndex.beginLookup();
+		File fls[];
+		if (dirIndex != null) {
+			DirectoryIndex.Delta delta = dirIndex.update(listing);
+			entriesExamined.addAndGet(delta.entries.size());
+			List<File> accepted = new ArrayList<>(delta.entries.size());
+			for (FileSnapshot entry : delta.entries) {
+				if (DirectoryListing.accept(filter, entry)) {
+					accepted.add(entry);
+				} else {
+					dirIndex.markDone(entry.getName());
+				}
+			}
+			fls = accepted.toArray(new File[accepted.size()]);
+		} else {
+			entriesExamined.addAndGet(listing.size());
+			fls = listing.list(filter);
+		}
+
+		boolean heldBack = false;
+		if (fls.length > 0 && !isAcceptingFiles(dir)) {
+			// Left pending, in place, until the managers catch up. With auto-move, the files are still observed, so that
+			// they are ready to move once the managers accept them again; only their move and announcement are skipped
+			heldBackLookups.incrementAndGet();
+			heldBack = true;
+			filesPending = true;
+			if (!autoMove) {
+				fls = new File[0];
+			}
+		}
+
+		// With auto-move, the maximum applies to the files actually moved, as only then is it known which are ready
+		int maxFiles = getMaxFilesPerCycle(dir);
+		if (maxFiles > 0 && fls.length > maxFiles && !autoMove) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Selecting the first ").append(maxFiles).append(" of ").append(fls.length)
+								 .append(" files by ").append(filesSortComparator == null ? "listing order" : filesSortComparator).toString());
+			}
+			deferredFiles.addAndGet(fls.length - maxFiles);
+			fls = FileSortKeys.select(fls, filesSortComparator, maxFiles);
+			filesPending = true;
+		} else if (filesSortComparator != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Sorting files by  ").append(filesSortComparator).toString());
+			}
+			int threshold = parallelSortThreshold;
+			FileSortKeys.sort(fls, filesSortComparator, threshold,
+				threshold > 0 && fls.length >= threshold ? getSortPool() : null);
+		}
+
+		String files[] = new String[fls.length];
+
+		int arrivals = 0;
+		for (int i = 0; i < files.length; i++) {
+			files[i] = fls[i].getName();
+			if (fls[i].lastModified() > previousLookupTime) {
+				arrivals++;
+			}
+		}
+
+		String movedFiles[] = new String[files.length];
+		if (autoMove) {
+
+			// the 'received' directory
+			File autoMoveDir = getAutoMoveDirectory(dir);
+			// Names only: files wait here for the whole post-process delay
+			DirectoryListing received = DirectoryListing.readNames(autoMoveDir, fileSystemCalls);
+			if (!received.isReadable()) {
+				fileSystemCalls.incrementAndGet();
+				autoMoveDir.mkdirs();
+			}
+			entriesExamined.addAndGet(received.size());
+
+			PostProcessMarkerIndex markerIndex = getMarkerIndex(dir);
+			long postProcessDelay = getPostProcessDelayMinutes() * 60000L;
+			for (String markerName : markerIndex.update(received, postProcessDelay, fileSystemCalls)) {
+				File markerFile = new File(autoMoveDir, markerName);
+				logger.debug("Deleting orphaned marker file {}", markerFile.getAbsolutePath());
+				fileSystemCalls.incrementAndGet();
+				markerFile.delete();
+				received.remove(markerName);
+			}
+			// Only the markers whose delay has elapsed are read; the actions are executed in the background
+			long expiryTime = System.currentTimeMillis();
+			for (PostProcessMarkerIndex.Marker marker : markerIndex.expire(expiryTime)) {
+				final FileSnapshot markerFile = received.read(marker.name, fileSystemCalls);
+				if (!markerIndex.refresh(marker, markerFile, expiryTime)) {
+					continue;
+				}
+				final FileSnapshot orig = received.read(marker.fileName, fileSystemCalls);
+				if (orig == null) {
+					// Gone meanwhile: no longer indexed, the marker is deleted as an orphan by the next lookup
+					markerIndex.remove(marker.name);
+					continue;
+				}
+				if (postProcessExecutor.isPending(orig)) {
+					markerIndex.retry(marker);
+					continue;
+				}
+				if (postProcessDelay > 0) {
+					fileSystemCalls.incrementAndGet();
+					if (!markerFile.canRead()) {
+						markerIndex.retry(marker);
+						continue;
+					}
+				}
+				fileSystemCalls.incrementAndGet();
+				final Map<String, String> post = readPostProcessFile(markerFile);
+				StringBuilder builder = new StringBuilder();
+				builder.append("{");
+				for (Map.Entry<String, String> entry : post.entrySet()) {
+					builder.append(String.format("\"%s\":\"%s\",", entry.getKey(), entry.getValue()));
+				}
+				builder.append("}");
+				String action = post.get("action");
+				boolean queued;
+				switch (action == null ? "" : action) {
+					case "delete":
+						logger.debug("Deleting file {} per marker {}: {}", orig.getName(), markerFile.getAbsolutePath(), builder);
+						queued = postProcessExecutor.submitDelete(orig, markerFile, null);
+						break;
+					case "move":
+						final String destinationPath = post.get("dest");
+						logger.debug("Moving file {} to {} per marker {}: {}", orig.getName(), destinationPath, markerFile.getAbsolutePath(), builder);
+						if (destinationPath == null) {
+							logger.warn("No destination in marker {}: {}", markerFile.getAbsolutePath(), builder);
+							queued = postProcessExecutor.submitDelete(markerFile, null, null);
+						} else {
+							queued = postProcessExecutor.submitMove(orig, new File(destinationPath), markerFile, null);
+						}
+						break;
+					default:
+						logger.warn("Unexpected marker placeholder {}: {}", markerFile.getAbsolutePath(), builder);
+						queued = postProcessExecutor.submitDelete(markerFile, null, null);
+				}
+				if (queued) {
+					// The marker is deleted once the action has been executed
+					markerIndex.remove(marker.name);
+				} else {
+					markerIndex.retry(marker);
+				}
+			}
+			// iterate through all files to see if they can be moved into the 'received' dir
+			int moved = 0;
+			for (int j = 0; j < files.length; j++) {
+				final File orig = fls[j];
+				final File dest = new File(autoMoveDir, files[j]);
+				if (!heldBack && received.contains(files[j])) {
+					if (!deleteExistingDestination(orig, dest, events)) {
+						filesPending = true;
+						continue;
+					}
+					received.remove(files[j]);
+				}
+
+				try {
+					boolean proceed = true;
+
+					// if hidden or it's one of the directories we are scanning later, skip
+					logger.debug("{} - skip: {}, scandir: {}", orig, skip(orig), isScanDir(orig));
+					if (skip(orig) || isScanDir(orig)) {
+						if (dirIndex != null) {
+							dirIndex.markDone(files[j]);
+						}
+						continue;
+					}
+					if (postProcessDelayPending(orig, listing)) {
+						filesPending = true;
+						continue;
+					}
+
+					if (logger.isDebugEnabled()) {
+						logger.debug((new StringBuilder()).append("[Automove] Checking to see if ").append(orig.getAbsolutePath())
+										 .append(" can be moved to ").append(autoMoveDir.getAbsolutePath()).append(File.separator).toString());
+					}
+
+					// if not hidden and we're bypass locking; the lock is probed in the background, meanwhile the file is
+					// still observed so that its stability builds up
+					boolean locked = orig.isFile() && bypassLockedFiles && isLocked(orig);
+
+					// if we can still proceed
+					final List<File> filesToCheck = new ArrayList<File>();
+					boolean unstable = false;
+					if (proceed) {
+						// A directory tree is checked as a whole, through the aggregates of its files
+						if (orig.isDirectory()) {
+							SubtreeIndex.Subtree subtree = walkSubtree(subtreeIndex, orig);
+							if (subtree == null || !subtree.isComplete()) {
+								if (logger.isDebugEnabled()) {
+									logger.debug((new StringBuilder()).append("[Automove] directory ").append(orig.getAbsolutePath())
+													 .append(" cannot be fully read, ignoring.").toString());
+								}
+								proceed = false;
+							} else {
+								filesToCheck.add(subtree.toSnapshot());
+							}
+						} else {
+							filesToCheck.add(orig);
+						}
+						// Pending post-process delays have already been excluded while collecting, using the same snapshot
+						long observationTime = System.currentTimeMillis();
+						for (final File fileToCheck : filesToCheck) {
+							// Observe every file, even once the outcome is known, so that their history builds up together
+							if (!stabilityTracker.observe(fileToCheck, policy, observationTime)) {
+								proceed = false;
+								unstable = true;
+							}
+						}
+						if (algorithm != null && orig.isFile()) {
+							stabilityTracker.updateDigest(orig, algorithm);
+						}
+						if (logger.isDebugEnabled()) {
+							logger.debug((new StringBuilder()).append("[Automove] ").append(orig.getAbsolutePath())
+											 .append(!proceed ? " is not stable, ignoring." : locked ? " is stable but locked, ignoring." : " is stable, will move.").toString());
+						}
+						proceed &= !locked;
+					}
+					if (!proceed) {
+						filesPending = true;
+						if (unstable && orig.isFile() && recheckDelay > 0L) {
+							recheckWheel.schedule(orig, dir, recheckDelay, System.currentTimeMillis());
+						}
+						continue;
+					}
+					if (orig.isFile() && bypassLockedFiles && !isLockConfirmed(orig)) {
+						filesPending = true;
+						if (recheckDelay > 0L) {
+							recheckWheel.schedule(orig, dir, recheckDelay, System.currentTimeMillis());
+						}
+						continue;
+					}
+					if (heldBack) {
+						continue;
+					}
+
+					if (maxFiles > 0 && moved >= maxFiles) {
+						// Observed all the same, so that it is ready in the next cycle
+						deferredFiles.incrementAndGet();
+						filesPending = true;
+						continue;
+					}
+					String checksum = algorithm != null && orig.isFile() ? stabilityTracker.finishDigest(orig, algorithm) : null;
+					if (!moveToAutoMoveDirectory(orig, dest, listing, events)) {
+						filesPending = true;
+						continue;
+					}
+					moved++;
+					if (checksum != null) {
+						checksums.put(dest.getName(), checksum);
+					}
+					recheckWheel.cancel(orig);
+					for (File movedFile : filesToCheck) {
+						stabilityTracker.forget(movedFile);
+					}
+					subtreeIndex.forget(orig);
+					lockProber.forget(orig);
+
+					movedFiles[j] = dest.getName();
+					if (dirIndex != null) {
+						dirIndex.markGone(files[j]);
+					}
+				} catch (FileNotFoundException e) {
+					filesPending = true;
+					events.signal(new ExceptionSignal(new AutomoveException(FileSnapshot.detach(orig), dest, (new StringBuilder()).append("Could not verify lock on ")
+						.append(orig.getName()).toString()), this));
+					if (logger.isWarnEnabled()) {
+						logger.warn("Unable to move file", e);
+					}
+				} catch (IOException e) {
+					filesPending = true;
+					events.signal(new ExceptionSignal(new AutomoveException(FileSnapshot.detach(orig), dest, (new StringBuilder()).append("Tentative lock attempt failed on ")
+						.append(orig.getName()).toString()), this));
+				}
+			}
+		}
+		if (autoMove) {
+			final List<String> movedFileList = new ArrayList<>();
+			for (String movedFile : movedFiles) {
+				if (movedFile != null) {
+					movedFileList.add(movedFile);
+				}
+			}
+			files = movedFileList.toArray(new String[0]);
+		}
+
+		if (files.length > 0) {
+			// STUD:497: DLamy (8/21/13):  Make sure FileSetFoundEvent is pointing at the file in the received folder.
+			File baseDir = (autoMove ? getAutoMoveDirectory(dir) : dir);
+			events.signal(new FileSetFoundEvent(this, baseDir, files, algorithm, checksums));
+		}
+
+		if (shutdownRequested) {
+			return false;
+		}
+		if (sendSingleFileEvent) {
+			for (final String file1 : files) {
+				File file = new File(dir, file1);
+				events.signal(new FileFoundEvent(this, file, algorithm, checksums.get(file1)));
+				if (shutdownRequested) {
+					return false;
+				}
+			}
+
+			if (shutdownRequested) {
+				return false;
+			}
+		}
+		if (dirIndex != null) {
+			if (!autoMove) {
+				for (final String file1 : files) {
+					dirIndex.markDone(file1);
+				}
+			}
+			dirIndex.save();
+		}
+		if (isTimeBased()) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Computing new base time");
+			}
+			if (timeBasedOnLastLookup) {
+				baseTime[index] = filesLookupTime;
+			} else if (!autoMove) {
+				// Auto-moved files are not in the directory anymore and do not contribute
+				for (final String file1 : files) {
+					File file = listing.get(file1);
+					long lastModifiedTime = file.lastModified();
+					if (lastModifiedTime > baseTime[index]) {
+						baseTime[index] = lastModifiedTime;
+					}
+				}
+
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Basetime for ").append(dir).append(" is ").append(baseTime[index])
+									 .toString());
+				}
+			}
+		}
+		stabilityTracker.endLookup();
+		subtreeIndex.endLookup();
+		lookupPending[index] = filesPending;
+		updatePollInterval(index, dir, arrivals, filesPending, filesLookupTime);
+		events.signal(new DirectoryLookupEndEvent(this, dir));
+		return true;
+	}
+
+	/**
+	 * Moves a stable file (or directory) to the auto-move directory, and signals the move.
+	 *
+	 * @param listing the listing of the file's directory, or <b>null</b> to check the existence of the related files
+	 *                (post-process marker, AppleDouble file) directly
+	 * @return <b>false</b> if the file could not be moved
+	 */
+	private boolean moveToAutoMoveDirectory(File orig, File dest, DirectoryListing listing, SignalSink events) {
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("[Automove] moving file ").append(orig.getAbsolutePath()).append(" to ")
+							 .append(dest.getAbsolutePath()).toString());
+		}
+		fileSystemCalls.incrementAndGet();
+		try {
+			fileMover.move(orig, dest, true);
+		} catch (IOException e) {
+			events.signal(new ExceptionSignal(new AutomoveException(FileSnapshot.detach(orig), dest, (new StringBuilder()).append("Could not move ")
+				.append(orig.getName()).append(" to ").append(dest.getAbsolutePath()).append(": ").append(e).toString()), this));
+			return false;
+		}
+		if (!removePostProcessMarker(orig, listing)) {
+			events.signal(new ExceptionSignal(new AutomoveException(FileSnapshot.detach(orig), dest, (new StringBuilder()).append("Could not remove ")
+				.append(getPostProcessMarkerFile(orig).getName()).append(" after moving file ").append(orig.getName())
+				.append(" to ").append(dest.getAbsolutePath()).toString()), this));
+		}
+		PostProcessActionRegistry registry = postProcessActions;
+		if (registry != null) {
+			// Whatever was due to happen to the file replaced no longer applies
+			registry.cancel(dest);
+		}
+		events.signal(new FileMovedEvent(this, FileSnapshot.detach(orig), dest));
+
+		// dlmay removed this for a reason, commenting out for now
+//							if (j + 1 == files.length) {
+//								dir = autoMoveDir;
+//							}
+
+		// STUD-267: jhumphrey:
+		//
+		// Deletes AppleDouble files after ingestion
+		//
+		// AppleDouble files are hidden files on OSX that are of the format "._<FILENAME>".
+		// These files get created on by OSX whenever you transfer a file into a networked drive.
+		//
+		// For example:
+		//  - file: foo.mov
+		//  - AppleDouble File: ._foo.xml
+		//
+		// These files are linked to the original and cause issues when moving the original media file from/to
+		// the ingestion workflow directories.
+		//
+		// The assumption is that it's safe to delete any file that has the prefix '._' (you lose some functionality
+		// in apple's finder but we're OK with that
+		File appleDouble = new File(orig.getParent(), "._" + orig.getName());
+		if (listing == null) {
+			fileSystemCalls.incrementAndGet();
+		}
+		if (listing == null ? appleDouble.exists() : listing.contains(appleDouble.getName())) {
+			fileSystemCalls.incrementAndGet();
+			if (!appleDouble.delete()) {
+				logger.warn("Unable to delete AppleDouble file: " + appleDouble.getAbsolutePath());
+			} else {
+				if (logger.isTraceEnabled()) {
+					logger.trace("Deleted AppleDouble file: " + appleDouble.getAbsolutePath());
+				}
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("[Automove] Moved ").append(orig.getAbsolutePath()).append(" to ")
+							 .append(dest.getParentFile().getAbsolutePath()).append(File.separator).toString());
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes a file which is in the way of an auto-move.
+	 *
+	 * @return <b>false</b> if the file could not be deleted
+	 */
+	private boolean deleteExistingDestination(File orig, File dest, SignalSink events) {
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("[Automove] Attempting to delete existing ").append(dest.getAbsolutePath())
+							 .toString());
+		}
+		fileSystemCalls.incrementAndGet();
+		if (!dest.delete()) {
+			events.signal(new ExceptionSignal(new AutomoveDeleteException(FileSnapshot.detach(orig), dest, (new StringBuilder()).append("Could not delete ")
+				.append(dest.getAbsolutePath()).toString()), this));
+			return false;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("[Automove] Deleted ").append(dest.getAbsolutePath()).toString());
+		}
+		return true;
+	}
+
+	/**
+	 * @return <b>true</b> if another process holds a lock on the given file, or it has not been probed yet
+	 * @throws IOException if the last probe of the file failed
+	 */
+	private boolean isLocked(File file) throws IOException {
+		FileSnapshot snapshot = file instanceof FileSnapshot ? (FileSnapshot) file : DirectoryListing.snapshot(file, fileSystemCalls);
+		if (snapshot == null) {
+			return true;
+		}
+		if (lockProber.isLocked(snapshot, System.currentTimeMillis())) {
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("[Automove] File ").append(file.getAbsolutePath())
+								 .append(" is locked or not probed yet, ignoring").toString());
+			}
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Tells whether a file found stable, and unlocked as far as is known, may be moved: a writer may have locked it
+	 * without changing it since it was last probed, so it is probed once more in the background first.
+	 *
+	 * @return <b>true</b> if a probe made since the file was found stable has found it unlocked
+	 * @throws IOException if the last probe of the file failed
+	 */
+	private boolean isLockConfirmed(File file) throws IOException {
+		FileSnapshot snapshot = file instanceof FileSnapshot ? (FileSnapshot) file : DirectoryListing.snapshot(file, fileSystemCalls);
+		if (snapshot == null) {
+			return false;
+		}
+		if (lockProber.isConfirmedUnlocked(snapshot, System.currentTimeMillis())) {
+			return true;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("[Automove] File ").append(file.getAbsolutePath())
+							 .append(" is stable, waiting for its lock to be probed again").toString());
+		}
+		return false;
+	}
+
+	/**
+	 * Records the arrivals seen by a lookup and, for adaptive polling, computes the next interval of the directory:
+	 * back to the minimum when something arrived or is still waiting to be processed, otherwise twice the current one.
+	 *
+	 * @param arrivals the number of candidate files created or modified since the previous lookup
+	 */
+	private void updatePollInterval(int index, File dir, int arrivals, boolean filesPending, long lookupTime) {
+		if (arrivals > 0) {
+			lastArrivalTime[index] = lookupTime;
+		}
+		if (!adaptivePollInterval) {
+			return;
+		}
+		long current = getLookupInterval(index);
+		long next;
+		if (arrivals > 0 || filesPending) {
+			next = minPollInterval;
+		} else {
+			next = current > maxPollInterval / 2 ? maxPollInterval : current * 2;
+		}
+		effectivePollInterval[index] = next;
+		if (next != current && logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Poll interval for ").append(dir).append(" is now ").append(next).append("ms (")
+							 .append(arrivals).append(" arrivals, last one ")
+							 .append(lastArrivalTime[index] == 0L ? "never" : (lookupTime - lastArrivalTime[index]) + "ms ago").append(")").toString());
+		}
+	}
+
+	/**
+	 * Walks the given directory tree, leaving out the entries which are not candidates for the stability check.
+	 *
+	 * @return the aggregates of the tree, or <b>null</b> if it no longer exists
+	 */
+	private SubtreeIndex.Subtree walkSubtree(SubtreeIndex subtreeIndex, File scanDir) {
+		FileSnapshot root = scanDir instanceof FileSnapshot ? (FileSnapshot) scanDir : DirectoryListing.snapshot(scanDir, fileSystemCalls);
+		if (root == null) {
+			return null;
+		}
+		return subtreeIndex.walk(root, new SubtreeIndex.EntryFilter() {
+			public boolean accept(FileSnapshot entry, DirectoryListing listing) {
+				return !(skip(entry) || isScanDir(entry) || postProcessDelayPending(entry, listing));
+			}
+		}, getSubtreeWalkPool());
+	}
+
+	/**
+	 * @return the file keys of the controlled directories, or <b>null</b> if the file system does not provide keys
+	 */
+	private Set<Object> readScanDirKeys() {
+		Set<Object> keys = new HashSet<>();
+		for (File scanDir : dirs) {
+			FileSnapshot snapshot = DirectoryListing.snapshot(PathNormalizer.normalize(scanDir), fileSystemCalls);
+			if (snapshot == null) {
+				continue;
+			}
+			if (snapshot.getFileKey() == null) {
+				return null;
+			}
+			keys.add(snapshot.getFileKey());
+		}
+		return keys;
+	}
+
+	/**
+	 * Number of file system calls (listings, attribute reads, moves, deletes...) issued by the last polling cycle.
+	 */
+	public long getLastCycleFileSystemCalls() {
+		return lastCycleFileSystemCalls;
+	}
+
+	/**
+	 * Number of directory entries examined by the last polling cycle.
+	 */
+	public long getLastCycleEntriesExamined() {
+		return lastCycleEntriesExamined;
+	}
+
+	/**
+	 * True if we should skip the file.. false otherwise
+	 *
+	 * @return true or false
+	 */
+	private boolean skip(File file) {
+		return !(file.isFile() || file.isDirectory())
+			|| file.isHidden()
+			|| (file.isFile() && file.length() == 0)
+			|| file.getName().startsWith(".");
+	}
+
+	private File getPostProcessMarkerFile(File file) {
+		return markerManager.getPostProcessMarkerFile(file);
+	}
+
+	/**
+	 * Checks the post-process delay of a file, looking for its marker in the listing of the file's directory. Without a
+	 * marker, the delay is pending whenever there is one.
+	 */
+	private boolean postProcessDelayPending(File file, DirectoryListing listing) {
+		long delay = getPostProcessDelayMinutes() * 60000L;
+		if (delay < 1) {
+			return false;
+		}
+		FileSnapshot marker = listing == null ? DirectoryListing.snapshot(getPostProcessMarkerFile(file), fileSystemCalls)
+			: listing.get(getPostProcessMarkerFile(file).getName());
+		return !PostProcessMarkerIndex.isExpired(marker, delay, System.currentTimeMillis());
 	}
 
 	Map<String, String> readPostProcessFile(final File processedMarkerFile) {
 		return markerManager.readPostProcessFile(processedMarkerFile);
 	}
 
-	private boolean removePostProcessMarker(File file) {
-		return markerManager.removePostProcessMarker(file);
+	private boolean removePostProcessMarker(File file, DirectoryListing listing) {
+		File marker = getPostProcessMarkerFile(file);
+		if (listing == null ? DirectoryListing.snapshot(marker, fileSystemCalls) == null : !listing.contains(marker.getName())) {
+			return true;
+		}
+		fileSystemCalls.incrementAndGet();
+		return marker.delete();
 	}
 
 	private boolean isScanDir(File file) {
 		if (file.isDirectory()) {
+			Set<Object> keys = scanDirKeys;
+			if (keys != null && file instanceof FileSnapshot && ((FileSnapshot) file).getFileKey() != null) {
+				return keys.contains(((FileSnapshot) file).getFileKey());
+			}
 			try {
 				for (File scanDir : dirs) {
 					if (Files.isSameFile(PathNormalizer.normalize(scanDir).toPath(), file.toPath())) {
@@ -940,10 +2602,75 @@ public class DirectoryPoller extends BaseSignalSourceThread implements Terminabl
 		return bypassLockedFiles;
 	}
 
+	/**
+	 * Sets whether files locked by another process are left alone. Locks are probed in the background, by {@link
+	 * #getLockProbeThreads() a few threads} of their own: a file is moved once a probe has found it unlocked and it has
+	 * not changed since, and a probe made once it is stable has found it unlocked again. A file found locked is probed
+	 * again after a delay which doubles each time, up to {@link #getMaxLockProbeInterval()}.
+	 */
 	public void setBypassLockedFiles(boolean supportSlowTransfer) {
 		bypassLockedFiles = supportSlowTransfer;
 	}
 
+	public int getLockProbeThreads() {
+		return lockProber.getThreads();
+	}
+
+	/**
+	 * @param lockProbeThreads the number of threads probing file locks, 2 by default
+	 */
+	public void setLockProbeThreads(int lockProbeThreads) {
+		lockProber.setThreads(lockProbeThreads);
+	}
+
+	public long getMaxLockProbeInterval() {
+		return lockProber.getMaxBackoff();
+	}
+
+	/**
+	 * @param maxLockProbeInterval the longest time, in milliseconds, before probing again a file found locked; 5 minutes
+	 *                             by default
+	 */
+	public void setMaxLockProbeInterval(long maxLockProbeInterval) {
+		lockProber.setMaxBackoff(maxLockProbeInterval);
+	}
+
+	/**
+	 * Number of lock probes completed since the poller was created.
+	 */
+	public long getLockProbes() {
+		return lockProber.getProbeCount();
+	}
+
+	/**
+	 * Number of lock probes which found the file locked.
+	 */
+	public long getLockedProbes() {
+		return lockProber.getLockedCount();
+	}
+
+	/**
+	 * Number of lock probes which could not open the file.
+	 */
+	public long getFailedLockProbes() {
+		return lockProber.getFailedCount();
+	}
+
+	/**
+	 * Number of lock probes not queued because too many were pending.
+	 */
+	public long getRejectedLockProbes() {
+		return lockProber.getRejectedCount();
+	}
+
+	public long getAverageLockProbeTime() {
+		return lockProber.getAverageProbeTime();
+	}
+
+	public long getMaxLockProbeTime() {
+		return lockProber.getMaxProbeTime();
+	}
+
 	public boolean isSleeping() {
 		return sleeping;
 	}
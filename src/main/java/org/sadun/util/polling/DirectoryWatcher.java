@@ -0,0 +1,196 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.sadun.util.PathNormalizer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers the directories controlled by a {@link DirectoryPoller} with a {@link WatchService} and reports which of
+ * them have pending creation or modification events.
+ * <p/>
+ * Directories living on file stores where change notification is known to be unreliable (network mounts), or which
+ * cannot be registered at all, are reported as not watched so that the poller keeps looking them up on its timed
+ * schedule.
+ */
+class DirectoryWatcher {
+
+	private final static Logger logger = LoggerFactory.getLogger(DirectoryWatcher.class);
+
+	/**
+	 * File store types for which native change notification is either not delivered or not delivered for changes made
+	 * by other hosts.
+	 */
+	static final Set<String> UNRELIABLE_FILE_STORE_TYPES = new HashSet<>(Arrays.asList(
+		"nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afpfs", "webdav", "davfs", "fuse.sshfs", "9p", "vboxsf"
+	));
+
+	private final WatchService watchService;
+	private final boolean nativeService;
+	private final Map<WatchKey, File> watchedKeys = new HashMap<>();
+	private final Map<File, WatchKey> watchedDirs = new HashMap<>();
+	private final Set<File> unwatchedDirs = new HashSet<>();
+
+	DirectoryWatcher() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+		// The JDK falls back to a service which itself polls every few seconds where no native facility exists:
+		// such a service is no better than the timed lookup, so don't rely on it.
+		nativeService = !watchService.getClass().getName().endsWith("PollingWatchService");
+		if (!nativeService && logger.isDebugEnabled()) {
+			logger.debug("No native watch service available, all directories will be looked up on a timed basis");
+		}
+	}
+
+	/**
+	 * Aligns the registrations with the given set of controlled directories.
+	 *
+	 * @param dirs the directories currently controlled by the poller
+	 */
+	synchronized void update(File[] dirs) {
+		Set<File> current = new HashSet<>();
+		for (File dir : dirs) {
+			File normalized = PathNormalizer.normalize(dir);
+			current.add(normalized);
+			if (watchedDirs.containsKey(normalized) || unwatchedDirs.contains(normalized)) {
+				continue;
+			}
+			register(normalized);
+		}
+		for (Iterator<Map.Entry<File, WatchKey>> i = watchedDirs.entrySet().iterator(); i.hasNext(); ) {
+			Map.Entry<File, WatchKey> entry = i.next();
+			if (!current.contains(entry.getKey())) {
+				entry.getValue().cancel();
+				watchedKeys.remove(entry.getValue());
+				i.remove();
+			}
+		}
+		unwatchedDirs.retainAll(current);
+	}
+
+	private void register(File dir) {
+		if (!nativeService) {
+			unwatchedDirs.add(dir);
+			return;
+		}
+		try {
+			String type = getFileStoreType(dir);
+			if (type != null && UNRELIABLE_FILE_STORE_TYPES.contains(type.toLowerCase())) {
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Directory ").append(dir).append(" is on a ").append(type)
+									 .append(" file store, it will be looked up on a timed basis").toString());
+				}
+				unwatchedDirs.add(dir);
+				return;
+			}
+			WatchKey key = dir.toPath().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+			watchedKeys.put(key, dir);
+			watchedDirs.put(dir, key);
+		} catch (IOException | UnsupportedOperationException | ClosedWatchServiceException e) {
+			logger.warn("Unable to watch directory {}, it will be looked up on a timed basis: {}", dir, e.toString());
+			unwatchedDirs.add(dir);
+		}
+	}
+
+	String getFileStoreType(File dir) throws IOException {
+		return Files.getFileStore(dir.toPath()).type();
+	}
+
+	/**
+	 * @return <b>true</b> if change notifications are received for the given (normalized) directory
+	 */
+	synchronized boolean isWatched(File dir) {
+		return watchedDirs.containsKey(dir);
+	}
+
+	/**
+	 * Waits up to the given time for change notifications, and returns the directories which have received any. A
+	 * directory whose registration has become invalid (e.g. because it has been removed and recreated) is returned as
+	 * changed and moved to the unwatched set.
+	 *
+	 * @param timeout the maximum time to wait, in milliseconds
+	 * @return the (normalized) directories with pending changes, possibly empty
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 */
+	Set<File> awaitChanges(long timeout) throws InterruptedException {
+		Set<File> changed = new HashSet<>();
+		try {
+			WatchKey key = watchService.poll(Math.max(timeout, 0L), TimeUnit.MILLISECONDS);
+			while (key != null) {
+				collect(key, changed);
+				// Drain whatever else is already queued, so that one cycle serves all of it
+				key = watchService.poll();
+			}
+		} catch (ClosedWatchServiceException e) {
+			// Closed on shutdown
+		}
+		return changed;
+	}
+
+	private synchronized void collect(WatchKey key, Set<File> changed) {
+		File dir = watchedKeys.get(key);
+		if (dir == null) {
+			key.cancel();
+			return;
+		}
+		List<WatchEvent<?>> events = key.pollEvents();
+		if (logger.isTraceEnabled()) {
+			for (WatchEvent<?> event : events) {
+				logger.trace("{}: {} {}", dir, event.kind().name(), event.context());
+				if (event.kind() == OVERFLOW) {
+					logger.trace("{}: events lost, directory will be looked up", dir);
+				}
+			}
+		}
+		changed.add(dir);
+		if (!key.reset()) {
+			logger.warn("Watch registration for {} is no longer valid, it will be looked up on a timed basis", dir);
+			watchedKeys.remove(key);
+			watchedDirs.remove(dir);
+			unwatchedDirs.add(dir);
+		}
+	}
+
+	void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Error closing watch service", e);
+		}
+	}
+}
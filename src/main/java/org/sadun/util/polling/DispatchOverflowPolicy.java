@@ -0,0 +1,43 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util.polling;
+
+/**
+ * What a {@link DirectoryPoller} dispatching events asynchronously does when the queue of a {@link PollManager} is
+ * full.
+ *
+ * @see DirectoryPoller#setAsyncDispatch(boolean)
+ */
+public enum DispatchOverflowPolicy {
+
+	/**
+	 * The poller waits for the manager to take the oldest event.
+	 */
+	BLOCK,
+	/**
+	 * The oldest event is discarded to make room, unless it announces found files: those are never discarded, and the
+	 * poller waits for the manager to take them as with {@link #BLOCK}.
+	 */
+	DROP_OLDEST,
+	/**
+	 * No new cycle is started while any manager's queue is more than half full, until it is down to a quarter;
+	 * should a queue still fill up within a cycle, the poller waits as with {@link #BLOCK}.
+	 */
+	PAUSE_SCANNING
+}
@@ -0,0 +1,399 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util.polling;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.deltax.util.listener.ExceptionSignal;
+import com.deltax.util.listener.Signal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Delivers the events of a {@link DirectoryPoller} to each {@link PollManager} on a thread of the manager's own, so
+ * that a slow manager does not hold up scanning nor the other managers.
+ * <p/>
+ * Each manager has a bounded ring buffer, filled by the poller (one producer at a time) and drained by the manager's
+ * thread, in order. What happens when a ring is full depends on the {@link DispatchOverflowPolicy}; the events
+ * announcing found files are never dropped, as the files would be left in the auto-move directory unprocessed. The age
+ * of the events when they are delivered is tracked per manager, and a warning is logged when it exceeds the slow
+ * consumer threshold. When the dispatcher is closed, the managers are given some time to take the events still queued.
+ */
+class EventDispatcher {
+
+	private final static Logger logger = LoggerFactory.getLogger(EventDispatcher.class);
+
+	private static final long WAIT_TIMEOUT = 100L;
+
+	/**
+	 * The ring buffer and delivery thread of a manager.
+	 */
+	final class Channel implements Runnable {
+
+		private final DefaultListener listener;
+		private final AtomicReferenceArray<Signal> ring;
+		private final long enqueueTimes[];
+		private final int mask;
+		/**
+		 * The sequence of the next event to deliver; advanced by the consumer, or by the producer when dropping.
+		 */
+		private final AtomicLong head = new AtomicLong();
+		/**
+		 * The sequence of the next event to enqueue; advanced by the producer only.
+		 */
+		private volatile long tail;
+		private final Object producerLock = new Object();
+		private final Object lock = new Object();
+		private volatile boolean consumerWaiting;
+		private volatile boolean producerWaiting;
+		private final AtomicLong delivered = new AtomicLong();
+		private final AtomicLong dropped = new AtomicLong();
+		private volatile long lastLag;
+		private volatile long maxLag;
+		private long lastWarning;
+		private final Thread thread;
+
+		Channel(DefaultListener listener, int capacity) {
+			this.listener = listener;
+			int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+			ring = new AtomicReferenceArray<>(size);
+			enqueueTimes = new long[size];
+			mask = size - 1;
+			thread = new Thread(this, (new StringBuilder()).append("Event dispatch to ").append(listener.getPollManager()).toString());
+			thread.setDaemon(true);
+		}
+
+		int size() {
+			return (int) (tail - head.get());
+		}
+
+		int capacity() {
+			return ring.length();
+		}
+
+		/**
+		 * @return <b>false</b> if the dispatcher has been closed while waiting for room
+		 */
+		boolean offer(Signal signal) {
+			synchronized (producerLock) {
+				long t = tail;
+				while (t - head.get() >= ring.length()) {
+					long h = head.get();
+					if (overflowPolicy == DispatchOverflowPolicy.DROP_OLDEST && !isFileEvent(ring.get((int) (h & mask)))) {
+						if (head.compareAndSet(h, h + 1)) {
+							dropped.incrementAndGet();
+						}
+					} else if (!awaitSize(ring.length() - 1)) {
+						return false;
+					}
+				}
+				int slot = (int) (t & mask);
+				ring.set(slot, signal);
+				enqueueTimes[slot] = System.currentTimeMillis();
+				tail = t + 1;
+			}
+			if (consumerWaiting) {
+				synchronized (lock) {
+					lock.notifyAll();
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Waits until no more than the given number of events are queued.
+		 *
+		 * @return <b>false</b> if the dispatcher has been closed or the thread interrupted while waiting
+		 */
+		boolean awaitSize(int max) {
+			while (size() > max) {
+				if (closed) {
+					return false;
+				}
+				synchronized (lock) {
+					producerWaiting = true;
+					try {
+						if (size() > max && !closed) {
+							lock.wait(WAIT_TIMEOUT);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					} finally {
+						producerWaiting = false;
+					}
+				}
+			}
+			return true;
+		}
+
+		public void run() {
+			while (!closed) {
+				long h = head.get();
+				if (h == tail) {
+					synchronized (lock) {
+						consumerWaiting = true;
+						try {
+							if (h == tail && !closed) {
+								lock.wait(WAIT_TIMEOUT);
+							}
+						} catch (InterruptedException e) {
+							return;
+						} finally {
+							consumerWaiting = false;
+						}
+					}
+					continue;
+				}
+				int slot = (int) (h & mask);
+				Signal signal = ring.get(slot);
+				long enqueueTime = enqueueTimes[slot];
+				if (!head.compareAndSet(h, h + 1)) {
+					// Dropped by the producer meanwhile
+					continue;
+				}
+				if (signal == null) {
+					// Discarded by close
+					continue;
+				}
+				// Unless the producer has already reused the slot
+				ring.compareAndSet(slot, signal, null);
+				if (producerWaiting) {
+					synchronized (lock) {
+						lock.notifyAll();
+					}
+				}
+				recordLag(System.currentTimeMillis() - enqueueTime);
+				try {
+					if (signal instanceof ExceptionSignal) {
+						listener.deliverException((ExceptionSignal) signal);
+					} else {
+						listener.deliverQueued(signal);
+					}
+				} catch (RuntimeException e) {
+					logger.error((new StringBuilder()).append("Poll manager ").append(listener.getPollManager()).append(" failed on ").append(signal)
+									 .toString(), e);
+				}
+				delivered.incrementAndGet();
+			}
+		}
+
+		private void recordLag(long lag) {
+			lastLag = lag;
+			if (lag > maxLag) {
+				maxLag = lag;
+			}
+			long threshold = slowConsumerThreshold;
+			if (threshold > 0 && lag > threshold) {
+				long now = System.currentTimeMillis();
+				if (now - lastWarning > threshold) {
+					lastWarning = now;
+					logger.warn("Poll manager {} is slow: events are delivered {}ms after being found, {} more queued", listener.getPollManager(), lag,
+								size());
+				}
+			}
+		}
+
+		long getDelivered() {
+			return delivered.get();
+		}
+
+		long getDropped() {
+			return dropped.get();
+		}
+
+		long getLastLag() {
+			return lastLag;
+		}
+
+		long getMaxLag() {
+			return maxLag;
+		}
+
+		/**
+		 * Waits until the queued events have been delivered, or the deadline has passed.
+		 *
+		 * @return <b>false</b> if events are still queued
+		 */
+		boolean drain(long deadline) {
+			while (size() > 0) {
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0L || !thread.isAlive()) {
+					return false;
+				}
+				synchronized (lock) {
+					producerWaiting = true;
+					try {
+						if (size() > 0) {
+							lock.wait(Math.min(wait, WAIT_TIMEOUT));
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					} finally {
+						producerWaiting = false;
+					}
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Stops the thread, and discards the events still queued.
+		 */
+		void close() {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+			try {
+				thread.join(WAIT_TIMEOUT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			int discarded = 0;
+			int discardedFiles = 0;
+			for (long h = head.get(), t = tail; h < t; h++) {
+				Signal signal = ring.getAndSet((int) (h & mask), null);
+				if (signal != null) {
+					discarded++;
+					if (isFileEvent(signal)) {
+						discardedFiles++;
+					}
+				}
+			}
+			if (discarded > 0) {
+				logger.warn("Discarded {} event(s) not delivered to poll manager {} at shutdown, {} of them announcing found files", discarded,
+							listener.getPollManager(), discardedFiles);
+			}
+		}
+	}
+
+	/**
+	 * @return <b>true</b> if the given event announces found files
+	 */
+	private static boolean isFileEvent(Signal signal) {
+		return signal instanceof FileSetFoundEvent || signal instanceof FileFoundEvent;
+	}
+
+	private final int capacity;
+	private final Map<PollManager, Channel> channels = new ConcurrentHashMap<>();
+	private volatile DispatchOverflowPolicy overflowPolicy;
+	private volatile long slowConsumerThreshold;
+	private volatile boolean accepting = true;
+	private volatile boolean closed;
+
+	/**
+	 * @param capacity the size of each manager's ring buffer, rounded up to a power of two
+	 */
+	EventDispatcher(int capacity, DispatchOverflowPolicy overflowPolicy, long slowConsumerThreshold) {
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.slowConsumerThreshold = slowConsumerThreshold;
+	}
+
+	void setOverflowPolicy(DispatchOverflowPolicy overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	void setSlowConsumerThreshold(long slowConsumerThreshold) {
+		this.slowConsumerThreshold = slowConsumerThreshold;
+	}
+
+	/**
+	 * Queues an event for the manager of the given listener, starting its thread on first use.
+	 */
+	void dispatch(DefaultListener listener, Signal signal) {
+		if (!accepting) {
+			logger.warn("Event {} not delivered to poll manager {}: the poller is shutting down", signal, listener.getPollManager());
+			return;
+		}
+		Channel channel = channels.get(listener.getPollManager());
+		if (channel == null) {
+			synchronized (channels) {
+				channel = channels.get(listener.getPollManager());
+				if (channel == null) {
+					channel = new Channel(listener, capacity);
+					channels.put(listener.getPollManager(), channel);
+					channel.thread.start();
+				}
+			}
+		}
+		channel.offer(signal);
+	}
+
+	/**
+	 * With the {@link DispatchOverflowPolicy#PAUSE_SCANNING} policy, waits while any manager's queue is more than half
+	 * full, until it is down to a quarter.
+	 *
+	 * @return <b>false</b> if interrupted or closed while waiting
+	 */
+	boolean awaitBacklog() {
+		if (overflowPolicy != DispatchOverflowPolicy.PAUSE_SCANNING) {
+			return true;
+		}
+		for (Channel channel : channels.values()) {
+			if (channel.size() > channel.capacity() / 2) {
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("Pausing scanning: ").append(channel.size()).append(" events queued for ")
+									 .append(channel.listener.getPollManager()).toString());
+				}
+				if (!channel.awaitSize(channel.capacity() / 4)) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	Channel getChannel(PollManager pollManager) {
+		return channels.get(pollManager);
+	}
+
+	Collection<Channel> getChannels() {
+		return channels.values();
+	}
+
+	/**
+	 * Stops accepting events, waits for the managers to take those still queued, then stops the delivery threads;
+	 * the events still queued at that point are discarded, and logged.
+	 *
+	 * @param timeout the time to wait for the managers, in milliseconds
+	 */
+	void close(long timeout) {
+		accepting = false;
+		List<Channel> toClose;
+		synchronized (channels) {
+			toClose = new ArrayList<>(channels.values());
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Channel channel : toClose) {
+			channel.drain(deadline);
+		}
+		closed = true;
+		for (Channel channel : toClose) {
+			channel.close();
+		}
+	}
+}
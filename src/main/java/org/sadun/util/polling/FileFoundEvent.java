@@ -35,17 +35,40 @@ import java.util.Date;
 public class FileFoundEvent extends BaseDirectoryEvent {
 
 	private File file;
+	private String checksumAlgorithm;
+	private String checksum;
 	private static DateFormat df = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
 
 	FileFoundEvent(DirectoryPoller poller, File file) {
+		this(poller, file, null, null);
+	}
+
+	FileFoundEvent(DirectoryPoller poller, File file, String checksumAlgorithm, String checksum) {
 		super(poller, file.getParentFile());
 		this.file = file;
+		this.checksumAlgorithm = checksumAlgorithm;
+		this.checksum = checksum;
 	}
 
 	public File getFile() {
 		return file;
 	}
 
+	/**
+	 * @return the algorithm of the checksum, or <b>null</b> if none has been computed
+	 */
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * @return the checksum of the file's content when found stable, in lowercase hexadecimal, or <b>null</b> if none
+	 * has been computed (see {@link DirectoryPoller#setChecksumAlgorithm(String)})
+	 */
+	public String getChecksum() {
+		return checksum;
+	}
+
 	public String toString() {
 		return "File found in: " + getDirectory().getAbsolutePath() + ": "
 			+ file.getName() + ", size: " + (int) (file.length() / 1024) + "K ,mod. "
@@ -18,9 +18,14 @@
 package org.sadun.util.polling;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Indicates that the poller has found a set of files matching the polling criteria.
+ * <p/>
+ * When the poller computes checksums (see {@link DirectoryPoller#setChecksumAlgorithm(String)}), the checksum of each
+ * auto-moved file is available from {@link #getChecksum(File)}.
  *
  * @author C. Sadun
  * @version 1.0
@@ -28,16 +33,43 @@ import java.io.File;
 public class FileSetFoundEvent extends BaseDirectoryEvent {
 
 	private File[] files;
+	private String checksumAlgorithm;
+	private Map<String, String> checksums;
 
 	FileSetFoundEvent(DirectoryPoller poller, File dir, String[] paths) {
+		this(poller, dir, paths, null, Collections.<String, String>emptyMap());
+	}
+
+	/**
+	 * @param checksums the checksums of the files, by name
+	 */
+	FileSetFoundEvent(DirectoryPoller poller, File dir, String[] paths, String checksumAlgorithm, Map<String, String> checksums) {
 		super(poller, dir);
 		this.files = new File[paths.length];
 		for (int i = 0; i < paths.length; i++)
 			files[i] = new File(dir, paths[i]);
+		this.checksumAlgorithm = checksumAlgorithm;
+		this.checksums = checksums;
 	}
 
 	public File[] getFiles() {
 		return files;
 	}
+
+	/**
+	 * @return the algorithm of the checksums, or <b>null</b> if none have been computed
+	 */
+	public String getChecksumAlgorithm() {
+		return checksumAlgorithm;
+	}
+
+	/**
+	 * @param file one of the files of the set
+	 * @return the checksum of the file's content when found stable, in lowercase hexadecimal, or <b>null</b> if none
+	 * has been computed
+	 */
+	public String getChecksum(File file) {
+		return checksums.get(file.getName());
+	}
 }
     
\ No newline at end of file
@@ -0,0 +1,100 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link File} whose type, size and modification time have been read once, when the containing directory was listed.
+ * <p/>
+ * The attribute accessors of {@link File} are overridden to return the recorded values, so that filters, comparators
+ * and checks run during a polling cycle do not go back to the file system. The values are therefore only as fresh as
+ * the listing the snapshot belongs to.
+ */
+class FileSnapshot extends File {
+
+	private static final long serialVersionUID = 1L;
+
+	private final boolean directory;
+	private final boolean regularFile;
+	private final boolean hidden;
+	private final long size;
+	private final long lastModified;
+	private final transient Object fileKey;
+
+	FileSnapshot(File dir, String name, BasicFileAttributes attributes, boolean hidden) {
+		super(dir, name);
+		this.directory = attributes.isDirectory();
+		this.regularFile = attributes.isRegularFile();
+		this.hidden = hidden;
+		this.size = attributes.size();
+		this.lastModified = attributes.lastModifiedTime().toMillis();
+		this.fileKey = attributes.fileKey();
+	}
+
+	FileSnapshot(File dir, String name, boolean directory, boolean regularFile, boolean hidden, long size, long lastModified, Object fileKey) {
+		super(dir, name);
+		this.directory = directory;
+		this.regularFile = regularFile;
+		this.hidden = hidden;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.fileKey = fileKey;
+	}
+
+	public boolean exists() {
+		return true;
+	}
+
+	public boolean isDirectory() {
+		return directory;
+	}
+
+	public boolean isFile() {
+		return regularFile;
+	}
+
+	public boolean isHidden() {
+		return hidden;
+	}
+
+	public long length() {
+		return size;
+	}
+
+	public long lastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * @return the given file as a plain {@link File}, whose accessors go to the file system, so that it can be handed
+	 * out of the polling cycle (e.g. in events)
+	 */
+	static File detach(File file) {
+		return file instanceof FileSnapshot ? new File(file.getPath()) : file;
+	}
+
+	/**
+	 * @return the file system key of the file (e.g. device and inode), or <b>null</b> if the file system does not
+	 * provide one
+	 */
+	Object getFileKey() {
+		return fileKey;
+	}
+}
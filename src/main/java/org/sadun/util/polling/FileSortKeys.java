@@ -0,0 +1,393 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.sadun.util.ChainedComparator;
+
+/**
+ * Sorts files by keys which are read once per file, rather than once per comparison.
+ * <p/>
+ * The comparators known to the poller ({@link DirectoryPoller.ModificationTimeComparator},
+ * {@link DirectoryPoller.FileSizeComparator}, their FIFO/LIFO subclasses, {@link GenericFileComparator} and
+ * {@link ChainedComparator} combinations of them) are compiled into a list of primitive sort keys. Each file is then
+ * decorated with its keys, the decorated files are sorted and the files are copied back in order. The order is the
+ * one the comparator would produce, and equal files keep their relative order. Any other comparator is applied as is.
+ * <p/>
+ * When only the first files in order are wanted, they are {@link #select(File[], Comparator, int) selected} with a
+ * bounded heap, without sorting the rest.
+ */
+class FileSortKeys {
+
+	/**
+	 * A single sort key, extracted from a file.
+	 */
+	abstract static class SortKey {
+
+		final boolean ascending;
+
+		SortKey(boolean ascending) {
+			this.ascending = ascending;
+		}
+
+		/**
+		 * @return the natural (ascending) comparison of the keys of the two files
+		 */
+		abstract int compare(File f1, File f2);
+
+		abstract void extract(File f, Entry entry, int slot);
+
+		abstract int compare(Entry e1, Entry e2, int slot);
+	}
+
+	abstract static class LongKey extends SortKey {
+
+		LongKey(boolean ascending) {
+			super(ascending);
+		}
+
+		abstract long value(File f);
+
+		int compare(File f1, File f2) {
+			return compare(value(f1), value(f2));
+		}
+
+		void extract(File f, Entry entry, int slot) {
+			entry.longs[slot] = value(f);
+		}
+
+		int compare(Entry e1, Entry e2, int slot) {
+			return compare(e1.longs[slot], e2.longs[slot]);
+		}
+
+		private static int compare(long l1, long l2) {
+			return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+		}
+	}
+
+	abstract static class DoubleKey extends SortKey {
+
+		DoubleKey(boolean ascending) {
+			super(ascending);
+		}
+
+		abstract double value(File f);
+
+		int compare(File f1, File f2) {
+			return Double.compare(value(f1), value(f2));
+		}
+
+		void extract(File f, Entry entry, int slot) {
+			entry.longs[slot] = Double.doubleToLongBits(value(f));
+		}
+
+		int compare(Entry e1, Entry e2, int slot) {
+			return Double.compare(Double.longBitsToDouble(e1.longs[slot]), Double.longBitsToDouble(e2.longs[slot]));
+		}
+	}
+
+	abstract static class StringKey extends SortKey {
+
+		StringKey(boolean ascending) {
+			super(ascending);
+		}
+
+		abstract String value(File f);
+
+		int compare(File f1, File f2) {
+			return value(f1).compareTo(value(f2));
+		}
+
+		void extract(File f, Entry entry, int slot) {
+			entry.strings[slot] = value(f);
+		}
+
+		int compare(Entry e1, Entry e2, int slot) {
+			return e1.strings[slot].compareTo(e2.strings[slot]);
+		}
+	}
+
+	static SortKey lastModified(boolean ascending) {
+		return new LongKey(ascending) {
+			long value(File f) {
+				return f.lastModified();
+			}
+
+			public String toString() {
+				return "lastModified";
+			}
+		};
+	}
+
+	static SortKey length(boolean ascending) {
+		return new LongKey(ascending) {
+			long value(File f) {
+				return f.length();
+			}
+
+			public String toString() {
+				return "length";
+			}
+		};
+	}
+
+	/**
+	 * A file decorated with its keys.
+	 */
+	static final class Entry {
+
+		File file;
+		int index;
+		final long longs[];
+		final String strings[];
+
+		Entry(int keys, boolean hasStrings) {
+			this.longs = new long[keys];
+			this.strings = hasStrings ? new String[keys] : null;
+		}
+	}
+
+	/**
+	 * Compares decorated files key by key, or with the original comparator if it could not be compiled; equal files
+	 * are ordered by their original position.
+	 */
+	private static final class EntryComparator implements Comparator<Entry> {
+
+		private final SortKey keys[];
+		private final Comparator comparator;
+		private final boolean hasStrings;
+
+		EntryComparator(Comparator comparator) {
+			List<SortKey> keyList = compile(comparator);
+			this.keys = keyList == null ? null : keyList.toArray(new SortKey[keyList.size()]);
+			this.comparator = keyList == null ? comparator : null;
+			boolean strings = false;
+			if (keys != null) {
+				for (SortKey key : keys) {
+					strings |= key instanceof StringKey;
+				}
+			}
+			this.hasStrings = strings;
+		}
+
+		boolean isCompiled() {
+			return keys != null;
+		}
+
+		Entry decorate(File file, int index, Entry reused) {
+			Entry entry = reused == null ? new Entry(keys == null ? 0 : keys.length, hasStrings) : reused;
+			entry.file = file;
+			entry.index = index;
+			if (keys != null) {
+				for (int k = 0; k < keys.length; k++) {
+					keys[k].extract(file, entry, k);
+				}
+			}
+			return entry;
+		}
+
+		public int compare(Entry e1, Entry e2) {
+			if (keys == null) {
+				int c = comparator.compare(e1.file, e2.file);
+				if (c != 0) {
+					return c;
+				}
+			} else {
+				for (int i = 0; i < keys.length; i++) {
+					int c = keys[i].compare(e1, e2, i);
+					if (c != 0) {
+						return keys[i].ascending ? c : -c;
+					}
+				}
+			}
+			return e1.index < e2.index ? -1 : e1.index == e2.index ? 0 : 1;
+		}
+	}
+
+	/**
+	 * Sorts a range with a merge sort whose halves are sorted in parallel, down to {@link #LEAF_SIZE}.
+	 */
+	private static final class ParallelSort extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Entry entries[];
+		private final Entry buffer[];
+		private final int from;
+		private final int to;
+		private final Comparator<Entry> comparator;
+
+		ParallelSort(Entry entries[], Entry buffer[], int from, int to, Comparator<Entry> comparator) {
+			this.entries = entries;
+			this.buffer = buffer;
+			this.from = from;
+			this.to = to;
+			this.comparator = comparator;
+		}
+
+		protected void compute() {
+			if (to - from <= LEAF_SIZE) {
+				Arrays.sort(entries, from, to, comparator);
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ParallelSort(entries, buffer, from, middle, comparator), new ParallelSort(entries, buffer, middle, to, comparator));
+			if (comparator.compare(entries[middle - 1], entries[middle]) <= 0) {
+				return;
+			}
+			System.arraycopy(entries, from, buffer, from, to - from);
+			int i = from, j = middle, k = from;
+			while (i < middle && j < to) {
+				// Take from the left half on ties, so that the sort is stable
+				entries[k++] = comparator.compare(buffer[j], buffer[i]) < 0 ? buffer[j++] : buffer[i++];
+			}
+			while (i < middle) {
+				entries[k++] = buffer[i++];
+			}
+			while (j < to) {
+				entries[k++] = buffer[j++];
+			}
+		}
+	}
+
+	static final int LEAF_SIZE = 4096;
+
+	private FileSortKeys() {
+	}
+
+	/**
+	 * Compiles a comparator into sort keys.
+	 *
+	 * @return the keys, most significant first, or <b>null</b> if the comparator is not one of the known ones
+	 */
+	static List<SortKey> compile(Comparator comparator) {
+		if (comparator instanceof DirectoryPoller.ModificationTimeComparator) {
+			return Arrays.asList(lastModified(((DirectoryPoller.ModificationTimeComparator) comparator).isAscending()));
+		}
+		if (comparator instanceof DirectoryPoller.FileSizeComparator) {
+			return Arrays.asList(length(((DirectoryPoller.FileSizeComparator) comparator).isAscending()));
+		}
+		if (comparator instanceof GenericFileComparator) {
+			return ((GenericFileComparator) comparator).getSortKeys();
+		}
+		if (comparator != null && comparator.getClass() == ChainedComparator.class) {
+			ChainedComparator chained = (ChainedComparator) comparator;
+			List<SortKey> first = compile(chained.getFirstComparator());
+			List<SortKey> second = compile(chained.getSecondComparator());
+			if (first == null || second == null) {
+				return null;
+			}
+			List<SortKey> keys = new ArrayList<>(first);
+			keys.addAll(second);
+			return keys;
+		}
+		return null;
+	}
+
+	/**
+	 * Sorts the given files in place.
+	 *
+	 * @param files             the files to sort
+	 * @param comparator        the ordering
+	 * @param parallelThreshold the number of files from which the sort runs on the given pool
+	 * @param pool              the pool for parallel sorts, or <b>null</b> to always sort in the calling thread
+	 */
+	static void sort(File files[], Comparator comparator, int parallelThreshold, ForkJoinPool pool) {
+		if (files.length < 2) {
+			return;
+		}
+		EntryComparator entryComparator = new EntryComparator(comparator);
+		if (!entryComparator.isCompiled()) {
+			Arrays.sort(files, comparator);
+			return;
+		}
+		Entry entries[] = new Entry[files.length];
+		for (int i = 0; i < files.length; i++) {
+			entries[i] = entryComparator.decorate(files[i], i, null);
+		}
+		if (pool != null && parallelThreshold > 0 && entries.length >= parallelThreshold && entries.length > LEAF_SIZE) {
+			pool.invoke(new ParallelSort(entries, new Entry[entries.length], 0, entries.length, entryComparator));
+		} else {
+			Arrays.sort(entries, entryComparator);
+		}
+		for (int i = 0; i < entries.length; i++) {
+			files[i] = entries[i].file;
+		}
+	}
+
+	/**
+	 * Selects the first files in the given order, reading the keys of each file once and holding no more than
+	 * <tt>count</tt> decorated files at a time.
+	 *
+	 * @param files      the files to select from
+	 * @param comparator the ordering, or <b>null</b> to keep the order of the array
+	 * @param count      the number of files to select
+	 * @return the first <tt>count</tt> files, in order; all of them, sorted, if there are no more than <tt>count</tt>
+	 */
+	static File[] select(File files[], Comparator comparator, int count) {
+		if (count >= files.length) {
+			File selected[] = files.clone();
+			if (comparator != null) {
+				sort(selected, comparator, 0, null);
+			}
+			return selected;
+		}
+		if (comparator == null) {
+			return Arrays.copyOf(files, count);
+		}
+		if (count <= 0) {
+			return new File[0];
+		}
+		final EntryComparator entryComparator = new EntryComparator(comparator);
+		// The head of the heap is the last of the files selected so far
+		PriorityQueue<Entry> heap = new PriorityQueue<>(count, new Comparator<Entry>() {
+			public int compare(Entry e1, Entry e2) {
+				return entryComparator.compare(e2, e1);
+			}
+		});
+		Entry spare = null;
+		for (int i = 0; i < files.length; i++) {
+			Entry entry = entryComparator.decorate(files[i], i, spare);
+			spare = null;
+			if (heap.size() < count) {
+				heap.add(entry);
+			} else if (entryComparator.compare(entry, heap.peek()) < 0) {
+				spare = heap.poll();
+				heap.add(entry);
+			} else {
+				spare = entry;
+			}
+		}
+		Entry selected[] = heap.toArray(new Entry[heap.size()]);
+		Arrays.sort(selected, entryComparator);
+		File result[] = new File[selected.length];
+		for (int i = 0; i < selected.length; i++) {
+			result[i] = selected[i].file;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util.polling;
+
+import java.io.File;
+
+/**
+ * Implemented by a {@link PollManager} which can fall behind in processing the files it is announced, to ask the
+ * {@link DirectoryPoller} to hold back.
+ * <p/>
+ * Before auto-moving and announcing the files found in a directory, the poller asks each of its managers implementing
+ * this interface; if any is not accepting files, the files are left in place, and the directory is looked up again
+ * at the next cycle. The manager is expected to apply some hysteresis, e.g. high and low water marks, so that the
+ * poller does not alternate between the two states at every cycle.
+ */
+public interface FlowControl {
+
+	/**
+	 * Called by the polling (or a lookup) thread, once per directory lookup with files found.
+	 *
+	 * @param directory the controlled directory being looked up
+	 * @return <b>false</b> if the files of the directory should not be auto-moved nor announced for now
+	 */
+	public boolean isAcceptingFiles(File directory);
+}
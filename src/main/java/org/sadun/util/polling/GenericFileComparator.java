@@ -39,6 +39,10 @@ import org.sadun.util.ChainedComparator;
 
 /**
  * A generic comparator that builds expressions on the file object properties.
+ * <p/>
+ * Each expression is compiled once into a {@link FileSortKeys.SortKey}, so that the property is read directly (from
+ * the listing's snapshot, for size, modification time and type) or, for other properties, with a single reflective call
+ * per file when sorting through {@link FileSortKeys}.
  *
  * @author Cristiano Sadun
  */
@@ -48,6 +52,7 @@ class GenericFileComparator implements Comparator {
 	private static Map properties = new HashMap();
 	private Comparator cc;
 	private String specification;
+	private List<FileSortKeys.SortKey> sortKeys = new ArrayList<>();
 
 	public GenericFileComparator(String specification) {
 		this.specification = specification;
@@ -55,7 +60,9 @@ class GenericFileComparator implements Comparator {
 		List comparators = new ArrayList();
 		while (st.hasMoreTokens()) {
 			String spec2 = st.nextToken();
-			comparators.add(new SingleExprComparator(spec2));
+			SingleExprComparator comparator = new SingleExprComparator(spec2);
+			comparators.add(comparator);
+			sortKeys.add(comparator.sortKey);
 		}
 		if (comparators.size() == 1) cc = (Comparator) comparators.get(0);
 		else {
@@ -73,6 +80,8 @@ class GenericFileComparator implements Comparator {
 
 		private Method methodToUse = null;
 		private Class returnType;
+		private FileSortKeys.SortKey key;
+		private FileSortKeys.SortKey sortKey;
 
 		public SingleExprComparator(String spec) {
 			super(true);
@@ -109,7 +118,12 @@ class GenericFileComparator implements Comparator {
 					checkSupportedType(methodToUse.getName(), returnType);
 				}
 			}
-
+			if (methodToUse == null)
+				throw new IllegalArgumentException(
+					"No property specified in '" + spec + "'. Available properties are: " + listProperties());
+			key = compileKey(methodToUse, returnType, ascending);
+			// Lexical values have always been compared in reverse
+			sortKey = returnType == String.class ? compileKey(methodToUse, returnType, !ascending) : key;
 		}
 
 		/**
@@ -156,34 +170,9 @@ class GenericFileComparator implements Comparator {
 		 *      java.io.File)
 		 */
 		protected long getComparisonValue(File f1, File f2) {
-			try {
-				Object value1 = methodToUse.invoke(f1, new Object[0]);
-				Object value2 = methodToUse.invoke(f2, new Object[0]);
-				if (isNumeric(returnType)) {
-					// Apply numerical comparison
-					double l1 = Double.valueOf(value1.toString()).doubleValue();
-					double l2 = Double.valueOf(value2.toString()).doubleValue();
-					return new Double(l1 - l2).longValue();
-				}
-				else if (returnType == String.class) {
-					// Apply lexical comparison
-					String s1 = (String) value1;
-					String s2 = (String) value2;
-					return s2.compareTo(s1);
-				}
-				else if (returnType == Boolean.class) {
-					int b1 = ((Boolean) value1).booleanValue() ? 1 : 0;
-					int b2 = ((Boolean) value1).booleanValue() ? 1 : 0;
-					return b1 - b2;
-				}
-				else throw new RuntimeException("Unsupported type " + returnType);
-			} catch (IllegalAccessException e) {
-				e.printStackTrace();
-				return 0L;
-			} catch (InvocationTargetException e) {
-				e.printStackTrace();
-				return 0L;
-			}
+			if (returnType == String.class)
+				return key.compare(f2, f1);
+			return key.compare(f1, f2);
 		}
 
 		public String toString() {
@@ -242,6 +231,89 @@ class GenericFileComparator implements Comparator {
 		}
 	}
 
+	private static boolean isIntegral(Class type) {
+		return type != Float.TYPE && type != Float.class && type != Double.TYPE && type != Double.class;
+	}
+
+	private static Object invoke(Method method, File f) {
+		try {
+			return method.invoke(f, new Object[0]);
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			return null;
+		} catch (InvocationTargetException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles a read method into a sort key. The attributes held by a {@link FileSnapshot} are read directly; any
+	 * other property is read reflectively.
+	 */
+	private static FileSortKeys.SortKey compileKey(final Method method, Class type, boolean ascending) {
+		final String name = method.getName();
+		if ("lastModified".equals(name))
+			return FileSortKeys.lastModified(ascending);
+		if ("length".equals(name))
+			return FileSortKeys.length(ascending);
+		if (type == String.class) {
+			return new FileSortKeys.StringKey(ascending) {
+				String value(File f) {
+					if ("getName".equals(name))
+						return f.getName();
+					Object value = invoke(method, f);
+					return value == null ? "" : (String) value;
+				}
+			};
+		}
+		if (type == Boolean.TYPE || type == Boolean.class) {
+			return new FileSortKeys.LongKey(ascending) {
+				long value(File f) {
+					boolean value;
+					if ("isDirectory".equals(name))
+						value = f.isDirectory();
+					else if ("isFile".equals(name))
+						value = f.isFile();
+					else if ("isHidden".equals(name))
+						value = f.isHidden();
+					else
+						value = Boolean.TRUE.equals(invoke(method, f));
+					return value ? 1 : 0;
+				}
+			};
+		}
+		if (type == Character.TYPE || type == Character.class) {
+			return new FileSortKeys.LongKey(ascending) {
+				long value(File f) {
+					Object value = invoke(method, f);
+					return value == null ? 0 : ((Character) value).charValue();
+				}
+			};
+		}
+		if (isIntegral(type)) {
+			return new FileSortKeys.LongKey(ascending) {
+				long value(File f) {
+					Object value = invoke(method, f);
+					return value == null ? 0 : ((Number) value).longValue();
+				}
+			};
+		}
+		return new FileSortKeys.DoubleKey(ascending) {
+			double value(File f) {
+				Object value = invoke(method, f);
+				return value == null ? 0 : ((Number) value).doubleValue();
+			}
+		};
+	}
+
+	/**
+	 * @return the sort keys of the specification, most significant first
+	 */
+	List<FileSortKeys.SortKey> getSortKeys() {
+		return sortKeys;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 *
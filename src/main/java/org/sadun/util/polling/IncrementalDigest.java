@@ -0,0 +1,109 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The digest of a file being written, updated at each observation with the bytes appended since the one before, so
+ * that the file is read once however many times it is observed.
+ * <p/>
+ * Files are expected to be written by appending: a file which has shrunk, has been replaced (its file key has changed)
+ * or has been modified without growing is digested again from the start, but a rewrite of bytes already digested
+ * which also grows the file goes unnoticed.
+ */
+class IncrementalDigest {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final char HEX_DIGITS[] = "0123456789abcdef".toCharArray();
+
+	private final MessageDigest digest;
+	private long position;
+	private long lastModified;
+	private Object fileKey;
+
+	/**
+	 * @param algorithm the name of a {@link MessageDigest} algorithm
+	 */
+	IncrementalDigest(String algorithm) throws NoSuchAlgorithmException {
+		digest = MessageDigest.getInstance(algorithm);
+	}
+
+	String getAlgorithm() {
+		return digest.getAlgorithm();
+	}
+
+	/**
+	 * Digests the bytes appended to the file since the last update.
+	 *
+	 * @param file the file, whose attributes are read here unless it is a {@link FileSnapshot}
+	 * @return the number of bytes read
+	 */
+	long update(File file) throws IOException {
+		long size = file.length();
+		long modified = file.lastModified();
+		Object key = file instanceof FileSnapshot ? ((FileSnapshot) file).getFileKey() : null;
+		long read = 0L;
+		if (size < position || (size == position && modified != lastModified) || (key != null && fileKey != null && !key.equals(fileKey))) {
+			digest.reset();
+			position = 0L;
+		}
+		if (position < size) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, size - position));
+				while (position < size) {
+					buffer.clear();
+					buffer.limit((int) Math.min(buffer.capacity(), size - position));
+					int count = channel.read(buffer, position);
+					if (count < 0) {
+						throw new IOException((new StringBuilder()).append(file.getAbsolutePath()).append(" was truncated while being read").toString());
+					}
+					digest.update(buffer.array(), 0, count);
+					position += count;
+					read += count;
+				}
+			}
+		}
+		lastModified = modified;
+		fileKey = key;
+		return read;
+	}
+
+	/**
+	 * Completes the digest of the bytes read so far; the file should just have been {@link #update(File) updated}.
+	 *
+	 * @return the digest, in lowercase hexadecimal
+	 */
+	String finish() {
+		byte bytes[] = digest.digest();
+		char hex[] = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xf];
+		}
+		position = 0L;
+		return new String(hex);
+	}
+}
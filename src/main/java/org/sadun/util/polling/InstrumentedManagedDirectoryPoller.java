@@ -535,4 +535,414 @@ public class InstrumentedManagedDirectoryPoller
 		mdp.setTimeBased(v);
 	}
 
+	public boolean isUsingWatchService() {
+		printMethod();
+		return mdp.isUsingWatchService();
+	}
+
+	public void setUsingWatchService(boolean v) {
+		printMethod();
+		mdp.setUsingWatchService(v);
+	}
+
+	public long getSafetyRescanInterval() {
+		printMethod();
+		return mdp.getSafetyRescanInterval();
+	}
+
+	public void setSafetyRescanInterval(long safetyRescanInterval) {
+		printMethod();
+		mdp.setSafetyRescanInterval(safetyRescanInterval);
+	}
+
+	public long getLastCycleFileSystemCalls() {
+		printMethod();
+		return mdp.getLastCycleFileSystemCalls();
+	}
+
+	public long getLastCycleEntriesExamined() {
+		printMethod();
+		return mdp.getLastCycleEntriesExamined();
+	}
+
+	public int getLookupThreads() {
+		printMethod();
+		return mdp.getLookupThreads();
+	}
+
+	public void setLookupThreads(int lookupThreads) {
+		printMethod();
+		mdp.setLookupThreads(lookupThreads);
+	}
+
+	public boolean isAdaptivePollInterval() {
+		printMethod();
+		return mdp.isAdaptivePollInterval();
+	}
+
+	public void setAdaptivePollInterval(boolean v) {
+		printMethod();
+		mdp.setAdaptivePollInterval(v);
+	}
+
+	public long getMinPollInterval() {
+		printMethod();
+		return mdp.getMinPollInterval();
+	}
+
+	public void setMinPollInterval(long minPollInterval) {
+		printMethod();
+		mdp.setMinPollInterval(minPollInterval);
+	}
+
+	public long getMaxPollInterval() {
+		printMethod();
+		return mdp.getMaxPollInterval();
+	}
+
+	public void setMaxPollInterval(long maxPollInterval) {
+		printMethod();
+		mdp.setMaxPollInterval(maxPollInterval);
+	}
+
+	public long getEffectivePollInterval(String directory) {
+		printMethod();
+		return mdp.getEffectivePollInterval(directory);
+	}
+
+	public boolean isIncrementalLookup() {
+		printMethod();
+		return mdp.isIncrementalLookup();
+	}
+
+	public void setIncrementalLookup(boolean v) {
+		printMethod();
+		mdp.setIncrementalLookup(v);
+	}
+
+	public String getIndexDirectoryPath() {
+		printMethod();
+		return mdp.getIndexDirectoryPath();
+	}
+
+	public void setIndexDirectoryPath(String indexDirectory) {
+		printMethod();
+		mdp.setIndexDirectoryPath(indexDirectory);
+	}
+
+	public String getStabilityPolicySpec() {
+		printMethod();
+		return mdp.getStabilityPolicySpec();
+	}
+
+	public void setStabilityPolicySpec(String spec) {
+		printMethod();
+		mdp.setStabilityPolicySpec(spec);
+	}
+
+	public String getDirectoryStabilityPolicySpec(String directory) {
+		printMethod();
+		return mdp.getDirectoryStabilityPolicySpec(directory);
+	}
+
+	public void setDirectoryStabilityPolicySpec(String directory, String spec) {
+		printMethod();
+		mdp.setDirectoryStabilityPolicySpec(directory, spec);
+	}
+
+	public long getStableFiles() {
+		printMethod();
+		return mdp.getStableFiles();
+	}
+
+	public long getAverageTimeToStable() {
+		printMethod();
+		return mdp.getAverageTimeToStable();
+	}
+
+	public long getMaxTimeToStable() {
+		printMethod();
+		return mdp.getMaxTimeToStable();
+	}
+
+	public long getLastTimeToStable() {
+		printMethod();
+		return mdp.getLastTimeToStable();
+	}
+
+	public void resetStabilityStatistics() {
+		printMethod();
+		mdp.resetStabilityStatistics();
+	}
+
+	public long getStabilityEntries() {
+		printMethod();
+		return mdp.getStabilityEntries();
+	}
+
+	public long getRejectedStabilityObservations() {
+		printMethod();
+		return mdp.getRejectedStabilityObservations();
+	}
+
+	public int getMaxStabilityEntries() {
+		printMethod();
+		return mdp.getMaxStabilityEntries();
+	}
+
+	public void setMaxStabilityEntries(int maxStabilityEntries) {
+		printMethod();
+		mdp.setMaxStabilityEntries(maxStabilityEntries);
+	}
+
+	public long getRecheckDelay() {
+		printMethod();
+		return mdp.getRecheckDelay();
+	}
+
+	public void setRecheckDelay(long recheckDelay) {
+		printMethod();
+		mdp.setRecheckDelay(recheckDelay);
+	}
+
+	public int getScheduledRechecks() {
+		printMethod();
+		return mdp.getScheduledRechecks();
+	}
+
+	public int getSubtreeWalkThreads() {
+		printMethod();
+		return mdp.getSubtreeWalkThreads();
+	}
+
+	public void setSubtreeWalkThreads(int subtreeWalkThreads) {
+		printMethod();
+		mdp.setSubtreeWalkThreads(subtreeWalkThreads);
+	}
+
+	public long getReusedListings() {
+		printMethod();
+		return mdp.getReusedListings();
+	}
+
+	public int getLockProbeThreads() {
+		printMethod();
+		return mdp.getLockProbeThreads();
+	}
+
+	public void setLockProbeThreads(int lockProbeThreads) {
+		printMethod();
+		mdp.setLockProbeThreads(lockProbeThreads);
+	}
+
+	public long getMaxLockProbeInterval() {
+		printMethod();
+		return mdp.getMaxLockProbeInterval();
+	}
+
+	public void setMaxLockProbeInterval(long maxLockProbeInterval) {
+		printMethod();
+		mdp.setMaxLockProbeInterval(maxLockProbeInterval);
+	}
+
+	public long getLockProbes() {
+		printMethod();
+		return mdp.getLockProbes();
+	}
+
+	public long getLockedProbes() {
+		printMethod();
+		return mdp.getLockedProbes();
+	}
+
+	public long getFailedLockProbes() {
+		printMethod();
+		return mdp.getFailedLockProbes();
+	}
+
+	public long getRejectedLockProbes() {
+		printMethod();
+		return mdp.getRejectedLockProbes();
+	}
+
+	public long getAverageLockProbeTime() {
+		printMethod();
+		return mdp.getAverageLockProbeTime();
+	}
+
+	public long getMaxLockProbeTime() {
+		printMethod();
+		return mdp.getMaxLockProbeTime();
+	}
+
+	public String getPostProcessJournalPath() {
+		printMethod();
+		return mdp.getPostProcessJournalPath();
+	}
+
+	public void setPostProcessJournalPath(String postProcessJournal) {
+		printMethod();
+		mdp.setPostProcessJournalPath(postProcessJournal);
+	}
+
+	public int getPendingPostProcessActions() {
+		printMethod();
+		return mdp.getPendingPostProcessActions();
+	}
+
+	public int getPostProcessThreads() {
+		printMethod();
+		return mdp.getPostProcessThreads();
+	}
+
+	public void setPostProcessThreads(int postProcessThreads) {
+		printMethod();
+		mdp.setPostProcessThreads(postProcessThreads);
+	}
+
+	public double getMaxPostProcessDeletesPerSecond() {
+		printMethod();
+		return mdp.getMaxPostProcessDeletesPerSecond();
+	}
+
+	public void setMaxPostProcessDeletesPerSecond(double maxDeletesPerSecond) {
+		printMethod();
+		mdp.setMaxPostProcessDeletesPerSecond(maxDeletesPerSecond);
+	}
+
+	public int getQueuedPostProcessActions() {
+		printMethod();
+		return mdp.getQueuedPostProcessActions();
+	}
+
+	public int getActivePostProcessActions() {
+		printMethod();
+		return mdp.getActivePostProcessActions();
+	}
+
+	public long getCompletedPostProcessActions() {
+		printMethod();
+		return mdp.getCompletedPostProcessActions();
+	}
+
+	public long getFailedPostProcessActions() {
+		printMethod();
+		return mdp.getFailedPostProcessActions();
+	}
+
+	public long getPostProcessDeletedFiles() {
+		printMethod();
+		return mdp.getPostProcessDeletedFiles();
+	}
+
+	public int getParallelSortThreshold() {
+		printMethod();
+		return mdp.getParallelSortThreshold();
+	}
+
+	public void setParallelSortThreshold(int parallelSortThreshold) {
+		printMethod();
+		mdp.setParallelSortThreshold(parallelSortThreshold);
+	}
+
+	public int getMaxFilesPerCycle() {
+		printMethod();
+		return mdp.getMaxFilesPerCycle();
+	}
+
+	public void setMaxFilesPerCycle(int maxFilesPerCycle) {
+		printMethod();
+		mdp.setMaxFilesPerCycle(maxFilesPerCycle);
+	}
+
+	public int getDirectoryMaxFilesPerCycle(String directory) {
+		printMethod();
+		return mdp.getDirectoryMaxFilesPerCycle(directory);
+	}
+
+	public void setDirectoryMaxFilesPerCycle(String directory, int maxFilesPerCycle) {
+		printMethod();
+		mdp.setDirectoryMaxFilesPerCycle(directory, maxFilesPerCycle);
+	}
+
+	public long getDeferredFiles() {
+		printMethod();
+		return mdp.getDeferredFiles();
+	}
+
+	public boolean isAsyncDispatch() {
+		printMethod();
+		return mdp.isAsyncDispatch();
+	}
+
+	public void setAsyncDispatch(boolean asyncDispatch) {
+		printMethod();
+		mdp.setAsyncDispatch(asyncDispatch);
+	}
+
+	public int getDispatchQueueSize() {
+		printMethod();
+		return mdp.getDispatchQueueSize();
+	}
+
+	public void setDispatchQueueSize(int dispatchQueueSize) {
+		printMethod();
+		mdp.setDispatchQueueSize(dispatchQueueSize);
+	}
+
+	public String getDispatchOverflowPolicySpec() {
+		printMethod();
+		return mdp.getDispatchOverflowPolicySpec();
+	}
+
+	public void setDispatchOverflowPolicySpec(String spec) {
+		printMethod();
+		mdp.setDispatchOverflowPolicySpec(spec);
+	}
+
+	public long getSlowConsumerThreshold() {
+		printMethod();
+		return mdp.getSlowConsumerThreshold();
+	}
+
+	public void setSlowConsumerThreshold(long slowConsumerThreshold) {
+		printMethod();
+		mdp.setSlowConsumerThreshold(slowConsumerThreshold);
+	}
+
+	public int getQueuedEvents() {
+		printMethod();
+		return mdp.getQueuedEvents();
+	}
+
+	public long getDroppedEvents() {
+		printMethod();
+		return mdp.getDroppedEvents();
+	}
+
+	public long getMaxDispatchLag() {
+		printMethod();
+		return mdp.getMaxDispatchLag();
+	}
+
+	public long getHeldBackLookups() {
+		printMethod();
+		return mdp.getHeldBackLookups();
+	}
+
+	public String getChecksumAlgorithm() {
+		printMethod();
+		return mdp.getChecksumAlgorithm();
+	}
+
+	public void setChecksumAlgorithm(String checksumAlgorithm) {
+		printMethod();
+		mdp.setChecksumAlgorithm(checksumAlgorithm);
+	}
+
+	public long getDigestedBytes() {
+		printMethod();
+		return mdp.getDigestedBytes();
+	}
+
 }
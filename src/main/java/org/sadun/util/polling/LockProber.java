@@ -0,0 +1,389 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks whether files are locked by another process, on a small pool of its own, so that a lookup never waits for a
+ * file to be opened and locked.
+ * <p/>
+ * A lookup asking about a file gets the outcome of the last probe: until a probe has completed, the file counts as
+ * locked. A file found unlocked stays so as long as its size and modification time don't change; since a writer may
+ * lock a file before writing to it, a file found stable is {@link #isConfirmedUnlocked(FileSnapshot, long) probed once
+ * more} before it is moved. A file found locked (or which could not be probed) is probed again after a delay which
+ * doubles with each locked outcome, up to a maximum, so that a file held by a long transfer is probed a handful of times
+ * rather than on every lookup.
+ * <p/>
+ * A file which cannot be opened for writing, e.g. on a read-only share, is probed with a shared lock instead.
+ */
+class LockProber {
+
+	private final static Logger logger = LoggerFactory.getLogger(LockProber.class);
+
+	/**
+	 * Delay before probing again a file found locked for the first time.
+	 */
+	static final long INITIAL_BACKOFF = 1000L;
+
+	private static final int QUEUE_SIZE = 1024;
+
+	private static final int NOT_PROBED = 0;
+	private static final int PENDING = 1;
+	private static final int UNLOCKED = 2;
+	private static final int LOCKED = 3;
+	private static final int FAILED = 4;
+
+	/**
+	 * What is known of one file. Guarded by its own monitor.
+	 */
+	private static class Probe {
+
+		int state = NOT_PROBED;
+		long size;
+		long lastModified;
+		int lockedProbes;
+		long nextProbeTime;
+		long lastRequestTime;
+		boolean confirming;
+		IOException failure;
+	}
+
+	private final ConcurrentHashMap<String, Probe> probes = new ConcurrentHashMap<>();
+	private final AtomicLong fileSystemCalls;
+	private final Thread owner;
+	private volatile int threads = 2;
+	private volatile long maxBackoff = 300000L;
+	private ThreadPoolExecutor executor;
+
+	private final AtomicLong probeCount = new AtomicLong();
+	private final AtomicLong lockedCount = new AtomicLong();
+	private final AtomicLong failedCount = new AtomicLong();
+	private final AtomicLong rejectedCount = new AtomicLong();
+	private final AtomicLong totalProbeTime = new AtomicLong();
+	private volatile long maxProbeTime;
+
+	/**
+	 * @param fileSystemCalls  incremented by the number of file system calls issued
+	 * @param owner           the thread the probe threads are named after
+	 */
+	LockProber(AtomicLong fileSystemCalls, Thread owner) {
+		this.fileSystemCalls = fileSystemCalls;
+		this.owner = owner;
+	}
+
+	/**
+	 * Tells whether the given file is locked, as far as is known, and probes it again if due.
+	 *
+	 * @param file the file, as just listed
+	 * @param now  the current time
+	 * @return <b>false</b> only if the file has been found unlocked, and has not changed since
+	 * @throws IOException if the last probe of the file failed; it is reported once
+	 */
+	boolean isLocked(FileSnapshot file, long now) throws IOException {
+		String path = file.getAbsolutePath();
+		Probe probe = getProbe(path);
+		synchronized (probe) {
+			probe.lastRequestTime = now;
+			if (probe.state == UNLOCKED && isUnchanged(probe, file)) {
+				return false;
+			}
+			if (!isWaiting(probe, now)) {
+				submit(path, probe, file, now, false);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Tells whether the given file, found stable, may be moved. A probe made before the file was found stable tells
+	 * nothing of a lock taken since without changing it, so the file may be moved only once a probe submitted since has
+	 * found it unlocked, and it has not changed meanwhile. Until then such a probe is submitted, unless one is pending
+	 * or the file has been found locked and its back-off delay has not elapsed.
+	 *
+	 * @param file the file, as just listed
+	 * @param now  the current time
+	 * @return <b>true</b> if a probe submitted once the file was stable has found it unlocked
+	 * @throws IOException if the last probe of the file failed; it is reported once
+	 */
+	boolean isConfirmedUnlocked(FileSnapshot file, long now) throws IOException {
+		String path = file.getAbsolutePath();
+		Probe probe = getProbe(path);
+		synchronized (probe) {
+			probe.lastRequestTime = now;
+			if (probe.state == UNLOCKED && probe.confirming && isUnchanged(probe, file)) {
+				return true;
+			}
+			if (!isWaiting(probe, now)) {
+				submit(path, probe, file, now, true);
+			}
+			return false;
+		}
+	}
+
+	private Probe getProbe(String path) {
+		Probe probe = probes.get(path);
+		if (probe == null) {
+			probe = new Probe();
+			Probe existing = probes.putIfAbsent(path, probe);
+			if (existing != null) {
+				probe = existing;
+			}
+		}
+		return probe;
+	}
+
+	/**
+	 * Must be called holding the probe's monitor.
+	 */
+	private static boolean isUnchanged(Probe probe, FileSnapshot file) {
+		return probe.size == file.length() && probe.lastModified == file.lastModified();
+	}
+
+	/**
+	 * Must be called holding the probe's monitor.
+	 *
+	 * @return <b>true</b> if a probe is pending, or the back-off delay of a locked or failed file has not elapsed
+	 * @throws IOException if the last probe of the file failed; it is reported once
+	 */
+	private static boolean isWaiting(Probe probe, long now) throws IOException {
+		switch (probe.state) {
+			case PENDING:
+				return true;
+			case FAILED:
+				if (probe.failure != null) {
+					IOException failure = probe.failure;
+					probe.failure = null;
+					throw failure;
+				}
+				return now < probe.nextProbeTime;
+			case LOCKED:
+				return now < probe.nextProbeTime;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * Must be called holding the probe's monitor.
+	 */
+	private void submit(final String path, final Probe probe, FileSnapshot file, long now, boolean confirming) {
+		probe.state = PENDING;
+		probe.confirming = confirming;
+		probe.size = file.length();
+		probe.lastModified = file.lastModified();
+		try {
+			getExecutor().execute(new Runnable() {
+				public void run() {
+					runProbe(path, probe);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Too many probes queued, or shutting down: try again on a later lookup
+			rejectedCount.incrementAndGet();
+			probe.state = NOT_PROBED;
+			probe.nextProbeTime = now + INITIAL_BACKOFF;
+		}
+	}
+
+	private void runProbe(String path, Probe probe) {
+		long start = System.nanoTime();
+		int state;
+		IOException failure = null;
+		try {
+			state = tryLock(new File(path)) ? UNLOCKED : LOCKED;
+		} catch (IOException e) {
+			state = FAILED;
+			failure = e;
+		}
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		synchronized (probe) {
+			probe.state = state;
+			probe.failure = failure;
+			if (state == UNLOCKED) {
+				probe.lockedProbes = 0;
+			} else {
+				if (state == LOCKED) {
+					lockedCount.incrementAndGet();
+				} else {
+					failedCount.incrementAndGet();
+				}
+				int shift = Math.min(probe.lockedProbes++, 30);
+				probe.nextProbeTime = System.currentTimeMillis() + Math.min(INITIAL_BACKOFF << shift, maxBackoff);
+			}
+		}
+		// Counted once the outcome is visible to lookups
+		probeCount.incrementAndGet();
+		totalProbeTime.addAndGet(elapsed);
+		if (elapsed > maxProbeTime) {
+			maxProbeTime = elapsed;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("File ").append(path).append(state == UNLOCKED ? " is not locked" : state == LOCKED ? " is locked"
+				: " could not be probed: " + failure).append(" (").append(elapsed).append("ms)").toString());
+		}
+	}
+
+	/**
+	 * @return <b>true</b> if a lock could be acquired, and released, on the file
+	 */
+	private boolean tryLock(File file) throws IOException {
+		fileSystemCalls.addAndGet(2L);
+		RandomAccessFile raf;
+		boolean shared = false;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+		} catch (FileNotFoundException e) {
+			if (!file.exists()) {
+				throw e;
+			}
+			// Not writable: a shared lock still conflicts with a writer's lock
+			fileSystemCalls.incrementAndGet();
+			raf = new RandomAccessFile(file, "r");
+			shared = true;
+		}
+		try {
+			FileChannel channel = raf.getChannel();
+			FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
+			if (lock == null) {
+				return false;
+			}
+			lock.release();
+			return true;
+		} catch (OverlappingFileLockException e) {
+			// Locked within this very process
+			return false;
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Forgets what is known of the given file, e.g. because it has been moved.
+	 */
+	void forget(File file) {
+		probes.remove(file.getAbsolutePath());
+	}
+
+	/**
+	 * Forgets the files which have not been asked about for a while.
+	 */
+	void prune(long now) {
+		long horizon = now - 2 * Math.max(maxBackoff, INITIAL_BACKOFF);
+		for (Iterator<Probe> i = probes.values().iterator(); i.hasNext(); ) {
+			Probe probe = i.next();
+			synchronized (probe) {
+				if (probe.state != PENDING && probe.lastRequestTime < horizon) {
+					i.remove();
+				}
+			}
+		}
+	}
+
+	int getThreads() {
+		return threads;
+	}
+
+	void setThreads(int threads) {
+		this.threads = Math.max(threads, 1);
+	}
+
+	long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = Math.max(maxBackoff, INITIAL_BACKOFF);
+	}
+
+	long getProbeCount() {
+		return probeCount.get();
+	}
+
+	long getLockedCount() {
+		return lockedCount.get();
+	}
+
+	long getFailedCount() {
+		return failedCount.get();
+	}
+
+	long getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	long getAverageProbeTime() {
+		long count = probeCount.get();
+		return count == 0 ? 0L : totalProbeTime.get() / count;
+	}
+
+	long getMaxProbeTime() {
+		return maxProbeTime;
+	}
+
+	private synchronized ThreadPoolExecutor getExecutor() {
+		int n = threads;
+		if (executor != null && executor.getMaximumPoolSize() != n) {
+			executor.shutdown();
+			executor = null;
+		}
+		if (executor == null) {
+			final String prefix = owner.getName() + "-lockprobe-";
+			executor = new ThreadPoolExecutor(n, n, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+				private final AtomicInteger count = new AtomicInteger();
+
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, prefix + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Stops the probe threads, and forgets every file. Probes may be requested again afterwards.
+	 */
+	synchronized void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+		probes.clear();
+	}
+}
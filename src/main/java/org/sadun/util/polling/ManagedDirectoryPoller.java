@@ -357,6 +357,10 @@ public class ManagedDirectoryPoller
 		return super.getBaseTime(dir);
 	}
 
+	public long getEffectivePollInterval(String directory) {
+		return super.getEffectivePollInterval(new File(directory));
+	}
+
 	public String listControlledDirectories() {
 		StringWriter sw = new StringWriter();
 		PrintWriter pw = new PrintWriter(sw);
@@ -609,6 +613,26 @@ public class ManagedDirectoryPoller
 		setAutoMoveDirectory(new File(directory), new File(automoveDirectory));
 	}
 
+	public String getIndexDirectoryPath() {
+		if (getIndexDirectory() == null) return "";
+		return getIndexDirectory().getAbsolutePath();
+	}
+
+	public void setIndexDirectoryPath(String indexDirectory) {
+		if (indexDirectory == null || "".equals(indexDirectory.trim())) setIndexDirectory(null);
+		else setIndexDirectory(new File(indexDirectory));
+	}
+
+	public String getPostProcessJournalPath() {
+		if (getPostProcessJournal() == null) return "";
+		return getPostProcessJournal().getAbsolutePath();
+	}
+
+	public void setPostProcessJournalPath(String postProcessJournal) {
+		if (postProcessJournal == null || "".equals(postProcessJournal.trim())) setPostProcessJournal(null);
+		else setPostProcessJournal(new File(postProcessJournal));
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sadun.util.polling.ManagedDirectoryPollerMBean#getFileComparatorClass()
 	 */
@@ -667,6 +691,77 @@ public class ManagedDirectoryPoller
 		//System.out.println("Setting event ordering to "+expr+" (GenericFileComparator "+c+")");
 	}
 
+	/**
+	 * Sets the default stability policy from its textual form: <tt>size</tt>, <tt>multi:observations=&lt;n&gt;,quiet=&lt;ms&gt;</tt>
+	 * or the name of a {@link StabilityPolicy} class with a public no-arguments constructor.
+	 */
+	public void setStabilityPolicySpec(String spec) {
+		if (spec == null || "".equals(spec.trim())) {
+			setStabilityPolicy(new SizeStabilityPolicy());
+		} else {
+			setStabilityPolicy(createStabilityPolicy(spec));
+		}
+	}
+
+	public String getStabilityPolicySpec() {
+		return getStabilityPolicySpec(getStabilityPolicy());
+	}
+
+	public void setDirectoryStabilityPolicySpec(String directory, String spec) {
+		if (spec == null || "".equals(spec.trim())) {
+			setStabilityPolicy(new File(directory), null);
+		} else {
+			setStabilityPolicy(new File(directory), createStabilityPolicy(spec));
+		}
+	}
+
+	public String getDirectoryStabilityPolicySpec(String directory) {
+		return getStabilityPolicySpec(getStabilityPolicy(new File(directory)));
+	}
+
+	public String getDispatchOverflowPolicySpec() {
+		return getDispatchOverflowPolicy().name().toLowerCase().replace('_', '-');
+	}
+
+	/**
+	 * @param spec <tt>block</tt>, <tt>drop-oldest</tt> or <tt>pause-scanning</tt>
+	 */
+	public void setDispatchOverflowPolicySpec(String spec) {
+		try {
+			setDispatchOverflowPolicy(DispatchOverflowPolicy.valueOf(spec.trim().toUpperCase().replace('-', '_')));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException((new StringBuilder()).append("Unknown dispatch overflow policy: ").append(spec).toString());
+		}
+	}
+
+	public int getDirectoryMaxFilesPerCycle(String directory) {
+		return getMaxFilesPerCycle(new File(directory));
+	}
+
+	public void setDirectoryMaxFilesPerCycle(String directory, int maxFilesPerCycle) {
+		setMaxFilesPerCycle(new File(directory), maxFilesPerCycle);
+	}
+
+	private static StabilityPolicy createStabilityPolicy(String spec) {
+		spec = spec.trim();
+		if (SizeStabilityPolicy.SPEC.equals(spec)) {
+			return new SizeStabilityPolicy();
+		}
+		if (spec.startsWith(MultiSignalStabilityPolicy.SPEC_PREFIX)) {
+			return new MultiSignalStabilityPolicy(spec);
+		}
+		try {
+			return (StabilityPolicy) Class.forName(spec).newInstance();
+		} catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+			throw new IllegalArgumentException("Invalid stability policy " + spec + ": " + e);
+		}
+	}
+
+	private static String getStabilityPolicySpec(StabilityPolicy policy) {
+		if (policy instanceof SizeStabilityPolicy || policy instanceof MultiSignalStabilityPolicy) return policy.toString();
+		return policy.getClass().getName();
+	}
+
 	/* (non-Javadoc)
 	 * @see org.sadun.util.polling.ManagedDirectoryPollerMBean#getEventsOrdering()
 	 */
@@ -146,6 +146,168 @@ public interface ManagedDirectoryPollerMBean {
 
 	public void setTimeBased(boolean v);
 
+	public boolean isUsingWatchService();
 
-}
+	public void setUsingWatchService(boolean v);
+
+	public long getSafetyRescanInterval();
+
+	public void setSafetyRescanInterval(long safetyRescanInterval);
+
+	public long getLastCycleFileSystemCalls();
+
+	public long getLastCycleEntriesExamined();
+
+	public int getLookupThreads();
+
+	public void setLookupThreads(int lookupThreads);
+
+	public boolean isAdaptivePollInterval();
+
+	public void setAdaptivePollInterval(boolean v);
+
+	public long getMinPollInterval();
+
+	public void setMinPollInterval(long minPollInterval);
+
+	public long getMaxPollInterval();
+
+	public void setMaxPollInterval(long maxPollInterval);
+
+	public long getEffectivePollInterval(String directory);
+
+	public boolean isIncrementalLookup();
+
+	public void setIncrementalLookup(boolean v);
+
+	public String getIndexDirectoryPath();
+
+	public void setIndexDirectoryPath(String indexDirectory);
+
+	public String getStabilityPolicySpec();
+
+	public void setStabilityPolicySpec(String spec);
+
+	public String getDirectoryStabilityPolicySpec(String directory);
+
+	public void setDirectoryStabilityPolicySpec(String directory, String spec);
+
+	public long getStableFiles();
+
+	public long getAverageTimeToStable();
+
+	public long getMaxTimeToStable();
+
+	public long getLastTimeToStable();
+
+	public void resetStabilityStatistics();
+
+	public long getStabilityEntries();
+
+	public long getRejectedStabilityObservations();
+
+	public int getMaxStabilityEntries();
+
+	public void setMaxStabilityEntries(int maxStabilityEntries);
+
+	public long getRecheckDelay();
+
+	public void setRecheckDelay(long recheckDelay);
+
+	public int getScheduledRechecks();
+
+	public int getSubtreeWalkThreads();
+
+	public void setSubtreeWalkThreads(int subtreeWalkThreads);
+
+	public long getReusedListings();
+
+	public int getLockProbeThreads();
+
+	public void setLockProbeThreads(int lockProbeThreads);
+
+	public long getMaxLockProbeInterval();
+
+	public void setMaxLockProbeInterval(long maxLockProbeInterval);
 
+	public long getLockProbes();
+
+	public long getLockedProbes();
+
+	public long getFailedLockProbes();
+
+	public long getRejectedLockProbes();
+
+	public long getAverageLockProbeTime();
+
+	public long getMaxLockProbeTime();
+
+	public String getPostProcessJournalPath();
+
+	public void setPostProcessJournalPath(String postProcessJournal);
+
+	public int getPendingPostProcessActions();
+
+	public int getPostProcessThreads();
+
+	public void setPostProcessThreads(int postProcessThreads);
+
+	public double getMaxPostProcessDeletesPerSecond();
+
+	public void setMaxPostProcessDeletesPerSecond(double maxDeletesPerSecond);
+
+	public int getQueuedPostProcessActions();
+
+	public int getActivePostProcessActions();
+
+	public long getCompletedPostProcessActions();
+
+	public long getFailedPostProcessActions();
+
+	public long getPostProcessDeletedFiles();
+
+	public int getParallelSortThreshold();
+
+	public void setParallelSortThreshold(int parallelSortThreshold);
+
+	public int getMaxFilesPerCycle();
+
+	public void setMaxFilesPerCycle(int maxFilesPerCycle);
+
+	public int getDirectoryMaxFilesPerCycle(String directory);
+
+	public void setDirectoryMaxFilesPerCycle(String directory, int maxFilesPerCycle);
+
+	public long getDeferredFiles();
+
+	public boolean isAsyncDispatch();
+
+	public void setAsyncDispatch(boolean asyncDispatch);
+
+	public int getDispatchQueueSize();
+
+	public void setDispatchQueueSize(int dispatchQueueSize);
+
+	public String getDispatchOverflowPolicySpec();
+
+	public void setDispatchOverflowPolicySpec(String spec);
+
+	public long getSlowConsumerThreshold();
+
+	public void setSlowConsumerThreshold(long slowConsumerThreshold);
+
+	public int getQueuedEvents();
+
+	public long getDroppedEvents();
+
+	public long getMaxDispatchLag();
+
+	public long getHeldBackLookups();
+
+	public String getChecksumAlgorithm();
+
+	public void setChecksumAlgorithm(String checksumAlgorithm);
+
+	public long getDigestedBytes();
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.util.StringTokenizer;
+
+/**
+ * A file is stable when size, modification time and file key have been unchanged for a number of consecutive
+ * observations, and nothing has changed for at least a quiet period. The quiet period is measured from the later of the
+ * last observed change and the file's own modification time, so that a file which was complete well before it was
+ * first seen can be moved on its first observation (with 0 required observations).
+ * <p/>
+ * Checking the modification time catches writers which preallocate the file, and the file key catches files which are
+ * replaced by a rename.
+ * <p/>
+ * The textual form is <tt>multi:observations=&lt;n&gt;,quiet=&lt;ms&gt;</tt>, where both parameters are optional.
+ */
+public class MultiSignalStabilityPolicy implements StabilityPolicy {
+
+	public static final String SPEC_PREFIX = "multi";
+
+	private final int requiredObservations;
+	private final long quietPeriod;
+
+	/**
+	 * @param requiredObservations the number of consecutive unchanged observations required
+	 * @param quietPeriod          the minimum time without changes, in milliseconds
+	 */
+	public MultiSignalStabilityPolicy(int requiredObservations, long quietPeriod) {
+		if (requiredObservations < 0 || quietPeriod < 0) {
+			throw new IllegalArgumentException("Observations and quiet period must not be negative");
+		}
+		this.requiredObservations = requiredObservations;
+		this.quietPeriod = quietPeriod;
+	}
+
+	/**
+	 * Creates a policy from its textual form.
+	 *
+	 * @param spec <tt>multi:observations=&lt;n&gt;,quiet=&lt;ms&gt;</tt>; the defaults are 1 observation and no quiet
+	 *             period
+	 * @throws IllegalArgumentException if the spec is malformed
+	 */
+	public MultiSignalStabilityPolicy(String spec) {
+		int observations = 1;
+		long quiet = 0L;
+		String s = spec.trim();
+		if (!s.startsWith(SPEC_PREFIX)) {
+			throw new IllegalArgumentException((new StringBuilder()).append("Not a multi-signal stability policy: ").append(spec).toString());
+		}
+		s = s.substring(SPEC_PREFIX.length()).trim();
+		if (s.length() > 0) {
+			if (s.charAt(0) != ':') {
+				throw new IllegalArgumentException((new StringBuilder()).append("Malformed stability policy: ").append(spec).toString());
+			}
+			StringTokenizer st = new StringTokenizer(s.substring(1), ",");
+			while (st.hasMoreTokens()) {
+				String param = st.nextToken().trim();
+				int i = param.indexOf('=');
+				if (i == -1) {
+					throw new IllegalArgumentException((new StringBuilder()).append("Malformed parameter '").append(param).append("' in ").append(spec).toString());
+				}
+				String name = param.substring(0, i).trim();
+				String value = param.substring(i + 1).trim();
+				try {
+					if ("observations".equals(name)) {
+						observations = Integer.parseInt(value);
+					} else if ("quiet".equals(name)) {
+						quiet = Long.parseLong(value);
+					} else {
+						throw new IllegalArgumentException((new StringBuilder()).append("Unknown parameter '").append(name).append("' in ").append(spec).toString());
+					}
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException((new StringBuilder()).append("Malformed parameter '").append(param).append("' in ").append(spec).toString());
+				}
+			}
+		}
+		if (observations < 0 || quiet < 0) {
+			throw new IllegalArgumentException("Observations and quiet period must not be negative");
+		}
+		this.requiredObservations = observations;
+		this.quietPeriod = quiet;
+	}
+
+	public boolean isStable(StabilityState state) {
+		if (state.getUnchangedObservations() < requiredObservations) {
+			return false;
+		}
+		long quietSince = Math.max(state.getLastChangeTime(), state.getLastModified());
+		return state.getObservationTime() - quietSince >= quietPeriod;
+	}
+
+	public int getRequiredObservations() {
+		return requiredObservations;
+	}
+
+	public long getQuietPeriod() {
+		return quietPeriod;
+	}
+
+	public String toString() {
+		return (new StringBuilder()).append(SPEC_PREFIX).append(":observations=").append(requiredObservations).append(",quiet=").append(quietPeriod)
+			.toString();
+	}
+}
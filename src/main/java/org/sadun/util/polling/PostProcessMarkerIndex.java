@@ -0,0 +1,273 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The post-process markers of an auto-move directory, ordered by the time their delay elapses.
+ * <p/>
+ * A marker <tt>.~name~</tt> stands for the file <tt>name</tt> next to it, and expires once it has not been modified for
+ * the post-process delay. The index is brought up to date from each listing of the directory's names: only the markers
+ * not indexed yet are read, and an indexed marker is read again once it has expired, to find out whether it has been
+ * modified meanwhile. A lookup thus reads neither the files waiting for their delay nor their markers.
+ * <p/>
+ * Not thread safe: each auto-move directory is looked up by one thread at a time.
+ */
+class PostProcessMarkerIndex {
+
+	/**
+	 * A marker, as last listed.
+	 */
+	static class Marker {
+
+		/**
+		 * The name of the marker file.
+		 */
+		final String name;
+
+		/**
+		 * The name of the file the marker stands for.
+		 */
+		final String fileName;
+
+		private boolean regularFile;
+		private long lastModified;
+		private long size;
+		private long expiry;
+		private boolean queued;
+
+		private Marker(String name, String fileName) {
+			this.name = name;
+			this.fileName = fileName;
+		}
+	}
+
+	private static final Comparator<Marker> BY_EXPIRY = new Comparator<Marker>() {
+		public int compare(Marker m1, Marker m2) {
+			return m1.expiry < m2.expiry ? -1 : m1.expiry == m2.expiry ? 0 : 1;
+		}
+	};
+
+	private final Map<String, Marker> markers = new HashMap<>();
+	private final PriorityQueue<Marker> queue = new PriorityQueue<>(16, BY_EXPIRY);
+	private long delay = -1L;
+
+	/**
+	 * @return <b>true</b> if the given name is the name of a marker
+	 */
+	static boolean isMarkerName(String name) {
+		return name.length() > 3 && name.startsWith(".~") && name.endsWith("~");
+	}
+
+	/**
+	 * Tells whether the given marker has expired, from its snapshot alone.
+	 *
+	 * @param marker the marker, or <b>null</b> if there is none
+	 * @param delay  the post-process delay, in milliseconds
+	 * @param now    the current time
+	 */
+	static boolean isExpired(FileSnapshot marker, long delay, long now) {
+		if (delay < 1) {
+			return true;
+		}
+		return marker != null && now >= expiry(marker.isFile(), marker.length(), marker.lastModified(), delay);
+	}
+
+	/**
+	 * @return the time from which a marker is expired; markers which are not regular, non-empty files never expire
+	 */
+	private static long expiry(boolean regularFile, long size, long lastModified, long delay) {
+		if (delay < 1) {
+			return Long.MIN_VALUE;
+		}
+		if (!regularFile || size <= 0) {
+			return Long.MAX_VALUE;
+		}
+		return lastModified + delay + 1;
+	}
+
+	/**
+	 * Brings the index up to date with a listing of the auto-move directory.
+	 *
+	 * @param listing         the listing, possibly of names only; the markers not indexed yet are read through it
+	 * @param delay           the post-process delay, in milliseconds
+	 * @param fileSystemCalls incremented by the number of file system calls issued
+	 * @return the names of the markers whose file is not in the listing; they are no longer indexed
+	 */
+	List<String> update(DirectoryListing listing, long delay, AtomicLong fileSystemCalls) {
+		if (delay != this.delay) {
+			this.delay = delay;
+			queue.clear();
+			for (Marker marker : markers.values()) {
+				marker.expiry = expiry(marker.regularFile, marker.size, marker.lastModified, delay);
+				queue.add(marker);
+				marker.queued = true;
+			}
+		}
+
+		List<String> orphans = Collections.emptyList();
+		for (Iterator<Marker> i = markers.values().iterator(); i.hasNext(); ) {
+			Marker marker = i.next();
+			if (!listing.contains(marker.name)) {
+				dequeue(marker);
+				i.remove();
+			} else if (!listing.contains(marker.fileName)) {
+				if (orphans.isEmpty()) {
+					orphans = new ArrayList<>();
+				}
+				orphans.add(marker.name);
+				dequeue(marker);
+				i.remove();
+			}
+		}
+
+		List<String> names = null;
+		for (String name : listing.names()) {
+			if (!isMarkerName(name) || markers.containsKey(name)) {
+				continue;
+			}
+			if (!listing.contains(name.substring(2, name.length() - 1))) {
+				if (orphans.isEmpty()) {
+					orphans = new ArrayList<>();
+				}
+				orphans.add(name);
+				continue;
+			}
+			if (names == null) {
+				names = new ArrayList<>();
+			}
+			names.add(name);
+		}
+		if (names != null) {
+			// Read once the names have been gone through, as reading them may update the listing
+			for (String name : names) {
+				FileSnapshot entry = listing.read(name, fileSystemCalls);
+				if (entry != null) {
+					Marker marker = new Marker(name, name.substring(2, name.length() - 1));
+					markers.put(name, marker);
+					index(marker, entry);
+				}
+			}
+		}
+		return orphans;
+	}
+
+	/**
+	 * Checks an expired marker against its attributes as just read: a marker modified since it was indexed is queued
+	 * again, with the expiry following from its new attributes, unless that has elapsed too.
+	 *
+	 * @param marker the marker, as returned by {@link #expire(long)}
+	 * @param entry  the marker file as just read, or <b>null</b> if it does not exist anymore
+	 * @param now    the current time
+	 * @return <b>true</b> if the marker has indeed expired
+	 */
+	boolean refresh(Marker marker, FileSnapshot entry, long now) {
+		if (entry == null) {
+			remove(marker.name);
+			return false;
+		}
+		if (marker.regularFile == entry.isFile() && marker.lastModified == entry.lastModified() && marker.size == entry.length()) {
+			return true;
+		}
+		dequeue(marker);
+		index(marker, entry);
+		if (marker.expiry <= now) {
+			dequeue(marker);
+			return true;
+		}
+		return false;
+	}
+
+	private void index(Marker marker, FileSnapshot entry) {
+		marker.regularFile = entry.isFile();
+		marker.lastModified = entry.lastModified();
+		marker.size = entry.length();
+		marker.expiry = expiry(entry.isFile(), entry.length(), entry.lastModified(), delay);
+		queue.add(marker);
+		marker.queued = true;
+	}
+
+	/**
+	 * Removes from the queue the markers which have expired. They stay indexed until {@link #remove(String)
+	 * removed}, or {@link #retry(Marker) queued} again.
+	 *
+	 * @param now the current time
+	 * @return the expired markers, in order of expiry
+	 */
+	List<Marker> expire(long now) {
+		List<Marker> expired = Collections.emptyList();
+		while (!queue.isEmpty() && queue.peek().expiry <= now) {
+			if (expired.isEmpty()) {
+				expired = new ArrayList<>();
+			}
+			Marker marker = queue.poll();
+			marker.queued = false;
+			expired.add(marker);
+		}
+		return expired;
+	}
+
+	/**
+	 * Queues again an expired marker which could not be processed, to be returned by the next {@link #expire(long)}.
+	 */
+	void retry(Marker marker) {
+		if (!marker.queued && markers.get(marker.name) == marker) {
+			queue.add(marker);
+			marker.queued = true;
+		}
+	}
+
+	/**
+	 * Forgets the given marker, e.g. because it has been processed.
+	 */
+	void remove(String name) {
+		Marker marker = markers.remove(name);
+		if (marker != null) {
+			dequeue(marker);
+		}
+	}
+
+	private void dequeue(Marker marker) {
+		if (marker.queued) {
+			queue.remove(marker);
+			marker.queued = false;
+		}
+	}
+
+	void clear() {
+		markers.clear();
+		queue.clear();
+		delay = -1L;
+	}
+
+	/**
+	 * @return the number of markers indexed
+	 */
+	int size() {
+		return markers.size();
+	}
+}
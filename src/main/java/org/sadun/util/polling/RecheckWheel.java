@@ -0,0 +1,169 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A hashed timer wheel holding the files which a {@link DirectoryPoller} will observe again, on their own, before the
+ * next lookup of their directory.
+ * <p/>
+ * Time is divided in ticks; each file is placed in the bucket of the tick it is due at, along with the number of full
+ * turns of the wheel to wait, so that scheduling and expiring cost O(1) per file regardless of how many are scheduled.
+ * Expiry is accurate to one tick. A file is scheduled at most once.
+ */
+class RecheckWheel {
+
+	/**
+	 * A file waiting to be observed again.
+	 */
+	static class Recheck {
+
+		final File file;
+		final File directory;
+		final long delay;
+		private final long tick;
+		private int rounds;
+
+		Recheck(File file, File directory, long delay, long tick) {
+			this.file = file;
+			this.directory = directory;
+			this.delay = delay;
+			this.tick = tick;
+		}
+	}
+
+	private final long tickDuration;
+	private final List<Recheck> buckets[];
+	private final Map<File, Recheck> scheduled = new HashMap<>();
+	private long lastTick;
+
+	/**
+	 * @param tickDuration the duration of a tick, in milliseconds
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	RecheckWheel(long tickDuration, int ticksPerWheel) {
+		this.tickDuration = tickDuration;
+		int size = Integer.highestOneBit(Math.max(ticksPerWheel, 2) - 1) << 1;
+		buckets = new List[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList<>();
+		}
+		lastTick = System.currentTimeMillis() / tickDuration;
+	}
+
+	/**
+	 * Schedules the given file, unless it already is.
+	 *
+	 * @param file      the file to observe again
+	 * @param directory the controlled directory the file is in
+	 * @param delay     the time to wait, in milliseconds
+	 * @param now       the current time
+	 * @return <b>false</b> if the file was already scheduled
+	 */
+	synchronized boolean schedule(File file, File directory, long delay, long now) {
+		if (scheduled.containsKey(file)) {
+			return false;
+		}
+		if (scheduled.isEmpty()) {
+			// Nothing to expire in between
+			lastTick = Math.max(lastTick, now / tickDuration - 1);
+		}
+		long tick = Math.max((now + delay + tickDuration - 1) / tickDuration, lastTick + 1);
+		Recheck recheck = new Recheck(file, directory, delay, tick);
+		recheck.rounds = (int) ((tick - lastTick - 1) / buckets.length);
+		buckets[(int) (tick & (buckets.length - 1))].add(recheck);
+		scheduled.put(file, recheck);
+		return true;
+	}
+
+	/**
+	 * @return the time at which the next file is due, or {@link Long#MAX_VALUE} if none is scheduled; when no file is
+	 * due within a turn of the wheel, the end of the turn
+	 */
+	synchronized long nextDeadline() {
+		if (scheduled.isEmpty()) {
+			return Long.MAX_VALUE;
+		}
+		for (long tick = lastTick + 1; tick <= lastTick + buckets.length; tick++) {
+			for (Recheck recheck : buckets[(int) (tick & (buckets.length - 1))]) {
+				if (recheck.rounds == 0) {
+					return tick * tickDuration;
+				}
+			}
+		}
+		return (lastTick + buckets.length) * tickDuration;
+	}
+
+	/**
+	 * Advances the wheel to the given time.
+	 *
+	 * @return the files which have become due, in order
+	 */
+	synchronized List<Recheck> expire(long now) {
+		long currentTick = now / tickDuration;
+		if (scheduled.isEmpty()) {
+			lastTick = Math.max(lastTick, currentTick);
+			return Collections.emptyList();
+		}
+		List<Recheck> expired = new ArrayList<>();
+		for (long tick = lastTick + 1; tick <= currentTick && !scheduled.isEmpty(); tick++) {
+			for (Iterator<Recheck> i = buckets[(int) (tick & (buckets.length - 1))].iterator(); i.hasNext(); ) {
+				Recheck recheck = i.next();
+				if (recheck.rounds > 0) {
+					recheck.rounds--;
+				} else {
+					i.remove();
+					scheduled.remove(recheck.file);
+					expired.add(recheck);
+				}
+			}
+			lastTick = tick;
+		}
+		lastTick = Math.max(lastTick, currentTick);
+		return expired;
+	}
+
+	/**
+	 * Removes the given file from the schedule, if it is there.
+	 */
+	synchronized void cancel(File file) {
+		Recheck recheck = scheduled.remove(file);
+		if (recheck != null) {
+			buckets[(int) (recheck.tick & (buckets.length - 1))].remove(recheck);
+		}
+	}
+
+	synchronized void clear() {
+		for (List<Recheck> bucket : buckets) {
+			bucket.clear();
+		}
+		scheduled.clear();
+	}
+
+	synchronized int size() {
+		return scheduled.size();
+	}
+}
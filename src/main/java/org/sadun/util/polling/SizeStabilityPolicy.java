@@ -0,0 +1,34 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+/**
+ * The historical policy, and the default: a file is stable when its size is the same in two consecutive observations.
+ */
+public class SizeStabilityPolicy implements StabilityPolicy {
+
+	public static final String SPEC = "size";
+
+	public boolean isStable(StabilityState state) {
+		return state.getObservations() > 1 && state.getSize() == state.getPreviousSize();
+	}
+
+	public String toString() {
+		return SPEC;
+	}
+}
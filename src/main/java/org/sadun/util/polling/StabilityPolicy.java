@@ -0,0 +1,38 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+/**
+ * Decides whether a file found by a {@link DirectoryPoller} in auto-move mode has been completely written, and can
+ * therefore be moved. The poller observes each candidate file once per lookup of its directory, and asks the policy
+ * of that directory about it after every observation.
+ * <p/>
+ * Implementations must be stateless (all the history of a file is in the {@link StabilityState}), and thread safe
+ * since directories may be looked up concurrently.
+ *
+ * @see DirectoryPoller#setStabilityPolicy(StabilityPolicy)
+ * @see DirectoryPoller#setStabilityPolicy(java.io.File, StabilityPolicy)
+ */
+public interface StabilityPolicy {
+
+	/**
+	 * @param state what has been observed of the file so far, including the current observation
+	 * @return <b>true</b> if the file can be considered stable
+	 */
+	public boolean isStable(StabilityState state);
+}
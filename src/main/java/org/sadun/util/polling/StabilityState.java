@@ -0,0 +1,79 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+
+/**
+ * What a {@link DirectoryPoller} has observed of a file, as presented to a {@link StabilityPolicy}. Times are in
+ * milliseconds since the epoch.
+ */
+public interface StabilityState {
+
+	/**
+	 * @return the observed file
+	 */
+	public File getFile();
+
+	/**
+	 * @return the size at the current observation
+	 */
+	public long getSize();
+
+	/**
+	 * @return the size at the previous observation, or -1 if this is the first one
+	 */
+	public long getPreviousSize();
+
+	/**
+	 * @return the modification time at the current observation
+	 */
+	public long getLastModified();
+
+	/**
+	 * @return the file system key (e.g. device and inode) at the current observation, or <b>null</b> if not available
+	 */
+	public Object getFileKey();
+
+	/**
+	 * @return the number of observations so far, including the current one
+	 */
+	public int getObservations();
+
+	/**
+	 * @return the number of consecutive observations, up to the current one, in which neither size, modification time
+	 * nor file key had changed since the observation before; 0 on the first observation
+	 */
+	public int getUnchangedObservations();
+
+	/**
+	 * @return the time of the first observation
+	 */
+	public long getFirstObservationTime();
+
+	/**
+	 * @return the time of the last observation in which size, modification time or file key had changed since the
+	 * observation before, or 0 if no change has been observed since the first observation
+	 */
+	public long getLastChangeTime();
+
+	/**
+	 * @return the time of the current observation
+	 */
+	public long getObservationTime();
+}
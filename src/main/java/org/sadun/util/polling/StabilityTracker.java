@@ -0,0 +1,547 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the observations of the candidate files of one controlled directory across lookups, and applies a {@link
+ * StabilityPolicy} to them.
+ * <p/>
+ * Observations are kept in an open-addressing table (linear probing) keyed by a 64-bit hash of the file path, with one
+ * primitive array per attribute, so that tracking a file costs a few dozen bytes and no objects. Two paths with the
+ * same hash would share their history; at 64 bits this is not a practical concern.
+ * <p/>
+ * The history of a file is kept until the file is moved, or until a lookup of the directory no longer observes it:
+ * each entry is stamped with the generation of the lookup which last observed it, and entries of older generations are
+ * swept when the lookup ends. The digests of the files, when computed, are kept alongside and forgotten with them.
+ * Instances are confined to the lookup of their directory, and need no synchronization; the
+ * statistics they update are shared.
+ */
+class StabilityTracker {
+
+	private final static Logger logger = LoggerFactory.getLogger(StabilityTracker.class);
+
+	private static final int INITIAL_CAPACITY = 16;
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	/**
+	 * Time-to-stable figures, from the first observation of a file to the one where it is found stable, and the number
+	 * of tracked files, across all the directories of a poller.
+	 */
+	static class Statistics {
+
+		private final AtomicLong stableFiles = new AtomicLong();
+		private final AtomicLong totalTimeToStable = new AtomicLong();
+		private final AtomicLong liveEntries = new AtomicLong();
+		private final AtomicLong rejectedObservations = new AtomicLong();
+		private final AtomicLong digestedBytes = new AtomicLong();
+		private volatile long maxTimeToStable;
+		private volatile long lastTimeToStable;
+		private volatile int maxEntries;
+
+		void record(long timeToStable) {
+			stableFiles.incrementAndGet();
+			totalTimeToStable.addAndGet(timeToStable);
+			lastTimeToStable = timeToStable;
+			if (timeToStable > maxTimeToStable) {
+				synchronized (this) {
+					maxTimeToStable = Math.max(maxTimeToStable, timeToStable);
+				}
+			}
+		}
+
+		long getStableFiles() {
+			return stableFiles.get();
+		}
+
+		long getAverageTimeToStable() {
+			long count = stableFiles.get();
+			return count == 0 ? 0L : totalTimeToStable.get() / count;
+		}
+
+		long getMaxTimeToStable() {
+			return maxTimeToStable;
+		}
+
+		long getLastTimeToStable() {
+			return lastTimeToStable;
+		}
+
+		/**
+		 * @return the number of files currently tracked
+		 */
+		long getLiveEntries() {
+			return liveEntries.get();
+		}
+
+		/**
+		 * @return the number of observations which could not be recorded since the tracked files were at the maximum
+		 */
+		long getRejectedObservations() {
+			return rejectedObservations.get();
+		}
+
+		/**
+		 * @return the number of bytes read to compute the checksums of the files
+		 */
+		long getDigestedBytes() {
+			return digestedBytes.get();
+		}
+
+		void recordDigestedBytes(long bytes) {
+			digestedBytes.addAndGet(bytes);
+		}
+
+		int getMaxEntries() {
+			return maxEntries;
+		}
+
+		/**
+		 * @param maxEntries the maximum number of files tracked at any time, or 0 for no limit
+		 */
+		void setMaxEntries(int maxEntries) {
+			this.maxEntries = Math.max(maxEntries, 0);
+		}
+
+		/**
+		 * Reserves room for one more entry.
+		 *
+		 * @return <b>false</b> if the maximum has been reached
+		 */
+		boolean acquireEntry() {
+			int max = maxEntries;
+			if (max == 0) {
+				liveEntries.incrementAndGet();
+				return true;
+			}
+			long live;
+			do {
+				live = liveEntries.get();
+				if (live >= max) {
+					rejectedObservations.incrementAndGet();
+					return false;
+				}
+			} while (!liveEntries.compareAndSet(live, live + 1));
+			return true;
+		}
+
+		void releaseEntries(int count) {
+			liveEntries.addAndGet(-count);
+		}
+
+		synchronized void reset() {
+			stableFiles.set(0L);
+			totalTimeToStable.set(0L);
+			rejectedObservations.set(0L);
+			digestedBytes.set(0L);
+			maxTimeToStable = 0L;
+			lastTimeToStable = 0L;
+		}
+	}
+
+	/**
+	 * The view of a table slot given to the policies, valid for the duration of one {@link #observe} call.
+	 */
+	private class State implements StabilityState {
+
+		int slot;
+		File file;
+		Object fileKey;
+		long observationTime;
+
+		public File getFile() {
+			return file;
+		}
+
+		public long getSize() {
+			return sizes[slot];
+		}
+
+		public long getPreviousSize() {
+			return previousSizes[slot];
+		}
+
+		public long getLastModified() {
+			return lastModified[slot];
+		}
+
+		public Object getFileKey() {
+			return fileKey;
+		}
+
+		public int getObservations() {
+			return observations[slot];
+		}
+
+		public int getUnchangedObservations() {
+			return unchangedObservations[slot];
+		}
+
+		public long getFirstObservationTime() {
+			return firstObservationTimes[slot];
+		}
+
+		public long getLastChangeTime() {
+			return lastChangeTimes[slot];
+		}
+
+		public long getObservationTime() {
+			return observationTime;
+		}
+	}
+
+	private final Statistics statistics;
+	private final State state = new State();
+	private int generation = 1;
+	private int count;
+
+	// Columns; a slot is free when its key is 0
+	private long keys[];
+	private long sizes[];
+	private long previousSizes[];
+	private long lastModified[];
+	private long fileKeyHashes[];
+	private long firstObservationTimes[];
+	private long lastChangeTimes[];
+	private int observations[];
+	private int unchangedObservations[];
+	private int generations[];
+	private boolean stable[];
+	private final Map<Long, IncrementalDigest> digests = new HashMap<>();
+
+	StabilityTracker(Statistics statistics) {
+		this.statistics = statistics;
+		allocate(INITIAL_CAPACITY);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		sizes = new long[capacity];
+		previousSizes = new long[capacity];
+		lastModified = new long[capacity];
+		fileKeyHashes = new long[capacity];
+		firstObservationTimes = new long[capacity];
+		lastChangeTimes = new long[capacity];
+		observations = new int[capacity];
+		unchangedObservations = new int[capacity];
+		generations = new int[capacity];
+		stable = new boolean[capacity];
+	}
+
+	/**
+	 * Starts a lookup of the directory: files not observed from now to {@link #endLookup()} are forgotten.
+	 */
+	void beginLookup() {
+		generation++;
+	}
+
+	/**
+	 * Records an observation of the given file, and applies the policy to it.
+	 *
+	 * @param file   the file, whose attributes are read (once) here unless it is a {@link FileSnapshot}
+	 * @param policy the policy to apply
+	 * @param now    the time of the observation
+	 * @return <b>true</b> if the file is stable
+	 */
+	boolean observe(File file, StabilityPolicy policy, long now) {
+		String path = file.getAbsolutePath();
+		long size = file.length();
+		long modified = file.lastModified();
+		Object fileKey = file instanceof FileSnapshot ? ((FileSnapshot) file).getFileKey() : null;
+		long fileKeyHash = fileKey == null ? 0L : fileKey.hashCode();
+
+		long key = hash(path);
+		int slot = find(key);
+		if (slot < 0) {
+			if (!statistics.acquireEntry()) {
+				if (logger.isDebugEnabled()) {
+					logger.debug((new StringBuilder()).append("File ").append(path).append(" not tracked, ").append(statistics.getMaxEntries())
+									 .append(" files already tracked").toString());
+				}
+				return false;
+			}
+			if ((count + 1) * 2 > keys.length) {
+				rehash(keys.length * 2, false);
+			}
+			slot = -(find(key) + 1);
+			keys[slot] = key;
+			previousSizes[slot] = -1L;
+			observations[slot] = 0;
+			unchangedObservations[slot] = 0;
+			firstObservationTimes[slot] = now;
+			lastChangeTimes[slot] = 0L;
+			stable[slot] = false;
+			count++;
+		} else {
+			boolean unchanged = sizes[slot] == size && lastModified[slot] == modified && fileKeyHashes[slot] == fileKeyHash;
+			if (unchanged) {
+				unchangedObservations[slot]++;
+			} else {
+				unchangedObservations[slot] = 0;
+				lastChangeTimes[slot] = now;
+				stable[slot] = false;
+			}
+			previousSizes[slot] = sizes[slot];
+		}
+		sizes[slot] = size;
+		lastModified[slot] = modified;
+		fileKeyHashes[slot] = fileKeyHash;
+		observations[slot]++;
+		generations[slot] = generation;
+
+		state.slot = slot;
+		state.file = file;
+		state.fileKey = fileKey;
+		state.observationTime = now;
+		boolean isStable;
+		try {
+			isStable = policy.isStable(state);
+		} finally {
+			state.file = null;
+			state.fileKey = null;
+		}
+		if (isStable && !stable[slot]) {
+			stable[slot] = true;
+			long timeToStable = now - firstObservationTimes[slot];
+			statistics.record(timeToStable);
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("File ").append(path).append(" stable after ").append(timeToStable).append("ms, ")
+								 .append(observations[slot]).append(" observation(s), policy ").append(policy).toString());
+			}
+		} else if (!isStable && logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("File ").append(path).append(" not stable (size ").append(previousSizes[slot]).append(" -> ")
+							 .append(size).append(", ").append(unchangedObservations[slot]).append(" unchanged observation(s)), policy ").append(policy)
+							 .toString());
+		}
+		return isStable;
+	}
+
+	/**
+	 * Digests the bytes appended to the given file since its last observation. Files not tracked are ignored; a file
+	 * which cannot be read is digested from the start at its next observation.
+	 *
+	 * @param file      the file, just observed
+	 * @param algorithm the name of the digest algorithm
+	 */
+	void updateDigest(File file, String algorithm) {
+		long key = hash(file.getAbsolutePath());
+		if (find(key) < 0) {
+			return;
+		}
+		IncrementalDigest digest = digests.get(key);
+		try {
+			if (digest == null || !digest.getAlgorithm().equals(algorithm)) {
+				digest = new IncrementalDigest(algorithm);
+				digests.put(key, digest);
+			}
+			statistics.recordDigestedBytes(digest.update(file));
+		} catch (IOException | NoSuchAlgorithmException e) {
+			digests.remove(key);
+			if (logger.isDebugEnabled()) {
+				logger.debug((new StringBuilder()).append("Could not digest ").append(file.getAbsolutePath()).append(": ").append(e).toString());
+			}
+		}
+	}
+
+	/**
+	 * Completes the digest of the given file, e.g. because it is about to be moved.
+	 *
+	 * @param file      the file, found stable
+	 * @param algorithm the name of the digest algorithm
+	 * @return the digest, in lowercase hexadecimal, or <b>null</b> if the file could not be read
+	 */
+	String finishDigest(File file, String algorithm) {
+		IncrementalDigest digest = digests.remove(hash(file.getAbsolutePath()));
+		try {
+			if (digest == null || !digest.getAlgorithm().equals(algorithm)) {
+				digest = new IncrementalDigest(algorithm);
+			}
+			statistics.recordDigestedBytes(digest.update(file));
+			return digest.finish();
+		} catch (IOException | NoSuchAlgorithmException e) {
+			logger.warn((new StringBuilder()).append("Could not digest ").append(file.getAbsolutePath()).append(": ").append(e).toString());
+			return null;
+		}
+	}
+
+	/**
+	 * Forgets the history of the given file, e.g. because it has been moved.
+	 */
+	void forget(File file) {
+		long key = hash(file.getAbsolutePath());
+		digests.remove(key);
+		int slot = find(key);
+		if (slot < 0) {
+			return;
+		}
+		// Backward shift deletion: move up the entries of the probe sequence which would not be found past the hole
+		int mask = keys.length - 1;
+		int hole = slot;
+		for (int i = (slot + 1) & mask; keys[i] != 0L; i = (i + 1) & mask) {
+			int home = home(keys[i]);
+			if (((i - home) & mask) >= ((i - hole) & mask)) {
+				copy(i, hole);
+				hole = i;
+			}
+		}
+		keys[hole] = 0L;
+		count--;
+		statistics.releaseEntries(1);
+	}
+
+	/**
+	 * Ends a lookup of the directory, forgetting the files which have not been observed during it.
+	 */
+	void endLookup() {
+		int live = 0;
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != 0L && generations[i] == generation) {
+				live++;
+			}
+		}
+		int swept = count - live;
+		if (swept == 0) {
+			return;
+		}
+		int capacity = INITIAL_CAPACITY;
+		while (live * 2 > capacity) {
+			capacity *= 2;
+		}
+		rehash(capacity, true);
+		statistics.releaseEntries(swept);
+		for (Iterator<Long> i = digests.keySet().iterator(); i.hasNext(); ) {
+			if (find(i.next()) < 0) {
+				i.remove();
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug((new StringBuilder()).append("Forgot ").append(swept).append(" file(s) no longer observed, ").append(count)
+							 .append(" still tracked").toString());
+		}
+	}
+
+	int size() {
+		return count;
+	}
+
+	/**
+	 * Forgets all the files, e.g. because the directory is no longer controlled.
+	 */
+	void clear() {
+		statistics.releaseEntries(count);
+		digests.clear();
+		allocate(INITIAL_CAPACITY);
+		count = 0;
+	}
+
+	/**
+	 * Moves the entries to a table of the given capacity.
+	 *
+	 * @param sweep if <b>true</b>, only the entries observed by the current lookup are kept
+	 */
+	private void rehash(int capacity, boolean sweep) {
+		long oldKeys[] = keys;
+		long oldSizes[] = sizes;
+		long oldPreviousSizes[] = previousSizes;
+		long oldLastModified[] = lastModified;
+		long oldFileKeyHashes[] = fileKeyHashes;
+		long oldFirstObservationTimes[] = firstObservationTimes;
+		long oldLastChangeTimes[] = lastChangeTimes;
+		int oldObservations[] = observations;
+		int oldUnchangedObservations[] = unchangedObservations;
+		int oldGenerations[] = generations;
+		boolean oldStable[] = stable;
+
+		allocate(capacity);
+		count = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] == 0L || (sweep && oldGenerations[i] != generation)) {
+				continue;
+			}
+			int slot = -(find(oldKeys[i]) + 1);
+			keys[slot] = oldKeys[i];
+			sizes[slot] = oldSizes[i];
+			previousSizes[slot] = oldPreviousSizes[i];
+			lastModified[slot] = oldLastModified[i];
+			fileKeyHashes[slot] = oldFileKeyHashes[i];
+			firstObservationTimes[slot] = oldFirstObservationTimes[i];
+			lastChangeTimes[slot] = oldLastChangeTimes[i];
+			observations[slot] = oldObservations[i];
+			unchangedObservations[slot] = oldUnchangedObservations[i];
+			generations[slot] = oldGenerations[i];
+			stable[slot] = oldStable[i];
+			count++;
+		}
+	}
+
+	private void copy(int from, int to) {
+		keys[to] = keys[from];
+		sizes[to] = sizes[from];
+		previousSizes[to] = previousSizes[from];
+		lastModified[to] = lastModified[from];
+		fileKeyHashes[to] = fileKeyHashes[from];
+		firstObservationTimes[to] = firstObservationTimes[from];
+		lastChangeTimes[to] = lastChangeTimes[from];
+		observations[to] = observations[from];
+		unchangedObservations[to] = unchangedObservations[from];
+		generations[to] = generations[from];
+		stable[to] = stable[from];
+	}
+
+	/**
+	 * @return the slot of the given key or, if absent, -(free slot + 1) where it would be inserted
+	 */
+	private int find(long key) {
+		int mask = keys.length - 1;
+		for (int i = home(key); ; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return i;
+			}
+			if (keys[i] == 0L) {
+				return -(i + 1);
+			}
+		}
+	}
+
+	private int home(long key) {
+		long h = key * 0x9e3779b97f4a7c15L;
+		return (int) (h >>> 32) & (keys.length - 1);
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the path; never 0, which marks a free slot.
+	 */
+	static long hash(String path) {
+		long h = FNV_OFFSET_BASIS;
+		for (int i = 0; i < path.length(); i++) {
+			h ^= path.charAt(i);
+			h *= FNV_PRIME;
+		}
+		return h == 0L ? 1L : h;
+	}
+}
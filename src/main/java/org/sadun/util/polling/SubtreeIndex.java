@@ -0,0 +1,294 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+package org.sadun.util.polling;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * What a {@link DirectoryPoller} knows of the directory trees dropped in one controlled directory: for every
+ * subdirectory, the names it contained when last listed and the aggregates of its subtree (number of files, total
+ * size, latest modification time).
+ * <p/>
+ * A tree is walked once per lookup, in parallel when a {@link ForkJoinPool} is given. A subdirectory whose own
+ * modification time and file key are unchanged since it was listed is not listed again: its known entries are only
+ * read again, since writing to a file does not change the modification time of its directory. To allow for file
+ * systems with a coarse time resolution, a listing is only reused if it was taken well after the directory was last
+ * modified.
+ * <p/>
+ * Lookups of the same controlled directory must not overlap; the subtrees of a lookup are walked concurrently.
+ */
+class SubtreeIndex {
+
+	/**
+	 * How long after the last modification of a directory its listing must have been taken to be reused.
+	 */
+	private static final long RACY_INTERVAL = 2000L;
+
+	/**
+	 * Decides which entries of a walked directory count towards its subtree.
+	 */
+	interface EntryFilter {
+
+		/**
+		 * @param entry   the entry
+		 * @param listing the listing the entry belongs to
+		 */
+		boolean accept(FileSnapshot entry, DirectoryListing listing);
+	}
+
+	/**
+	 * A walked directory and the aggregates of its subtree.
+	 */
+	static class Subtree {
+
+		private final File directory;
+		private final long modified;
+		private final Object fileKey;
+		private final long listedAt;
+		private final String names[];
+		private final long generation;
+		private boolean complete = true;
+		private int fileCount;
+		private long totalBytes;
+		private long lastModified;
+		private long fingerprint;
+
+		private Subtree(FileSnapshot directory, long listedAt, String names[], long generation) {
+			this.directory = directory;
+			this.modified = directory.lastModified();
+			this.fileKey = directory.getFileKey();
+			this.listedAt = listedAt;
+			this.names = names;
+			this.generation = generation;
+			this.lastModified = modified;
+		}
+
+		private static Subtree unreadable(FileSnapshot directory, long generation) {
+			Subtree subtree = new Subtree(directory, 0L, null, generation);
+			subtree.complete = false;
+			return subtree;
+		}
+
+		private boolean isReusable(FileSnapshot snapshot) {
+			return names != null && snapshot.lastModified() == modified && listedAt - modified > RACY_INTERVAL
+				&& (fileKey == null ? snapshot.getFileKey() == null : fileKey.equals(snapshot.getFileKey()));
+		}
+
+		private void addFile(FileSnapshot file) {
+			fileCount++;
+			totalBytes += file.length();
+			lastModified = Math.max(lastModified, file.lastModified());
+			Object key = file.getFileKey();
+			fingerprint += mix(file.getName().hashCode() ^ mix(file.length()) ^ mix(~file.lastModified()) ^ (key == null ? 0 : key.hashCode()));
+		}
+
+		private void addSubtree(Subtree subtree) {
+			complete &= subtree.complete;
+			fileCount += subtree.fileCount;
+			totalBytes += subtree.totalBytes;
+			lastModified = Math.max(lastModified, subtree.lastModified);
+			fingerprint += mix(subtree.directory.getName().hashCode() ^ subtree.fingerprint);
+		}
+
+		/**
+		 * @return <b>false</b> if part of the subtree could not be read
+		 */
+		boolean isComplete() {
+			return complete;
+		}
+
+		int getFileCount() {
+			return fileCount;
+		}
+
+		long getTotalBytes() {
+			return totalBytes;
+		}
+
+		/**
+		 * @return the latest modification time of the files and directories in the subtree
+		 */
+		long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return a snapshot of the directory standing for the whole subtree, for a stability check: its size is the
+		 * total size of the files, its modification time the latest one, and its file key changes whenever a file is
+		 * added, removed or changed
+		 */
+		FileSnapshot toSnapshot() {
+			return new FileSnapshot(directory.getParentFile(), directory.getName(), true, false, false, totalBytes, lastModified,
+									Long.valueOf(fingerprint ^ fileCount));
+		}
+	}
+
+	private final Map<File, Subtree> subtrees = new ConcurrentHashMap<>();
+	private final AtomicLong fileSystemCalls;
+	private final AtomicLong entriesExamined;
+	private final AtomicLong listingsReused;
+	private long generation;
+
+	/**
+	 * @param fileSystemCalls incremented by the number of file system calls issued
+	 * @param entriesExamined incremented by the number of directory entries examined
+	 * @param listingsReused  incremented each time a directory is not listed again, since it has not changed
+	 */
+	SubtreeIndex(AtomicLong fileSystemCalls, AtomicLong entriesExamined, AtomicLong listingsReused) {
+		this.fileSystemCalls = fileSystemCalls;
+		this.entriesExamined = entriesExamined;
+		this.listingsReused = listingsReused;
+	}
+
+	/**
+	 * Starts a lookup of the controlled directory. Subtrees not walked by the end of the lookup are forgotten.
+	 */
+	void beginLookup() {
+		generation++;
+	}
+
+	/**
+	 * Walks the given directory tree.
+	 *
+	 * @param directory the root of the tree
+	 * @param filter    the entries to consider
+	 * @param pool      the pool to walk the subtrees with, or <b>null</b> to walk them in the calling thread
+	 * @return the aggregates of the tree
+	 */
+	Subtree walk(FileSnapshot directory, EntryFilter filter, ForkJoinPool pool) {
+		Walk walk = new Walk(directory, filter, generation);
+		return pool == null ? walk.compute() : pool.invoke(walk);
+	}
+
+	/**
+	 * Forgets the given tree, e.g. because it has been moved.
+	 */
+	void forget(File directory) {
+		String prefix = directory.getPath() + File.separator;
+		for (Iterator<File> i = subtrees.keySet().iterator(); i.hasNext(); ) {
+			File dir = i.next();
+			if (dir.equals(directory) || dir.getPath().startsWith(prefix)) {
+				i.remove();
+			}
+		}
+	}
+
+	/**
+	 * Forgets the subtrees which have not been walked since {@link #beginLookup()}.
+	 */
+	void endLookup() {
+		for (Iterator<Subtree> i = subtrees.values().iterator(); i.hasNext(); ) {
+			if (i.next().generation != generation) {
+				i.remove();
+			}
+		}
+	}
+
+	void clear() {
+		subtrees.clear();
+	}
+
+	/**
+	 * @return the number of directories known
+	 */
+	int size() {
+		return subtrees.size();
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Walks one directory, forking the walks of its subdirectories when run in a pool.
+	 */
+	private class Walk extends RecursiveTask<Subtree> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final FileSnapshot directory;
+		private final EntryFilter filter;
+		private final long generation;
+
+		Walk(FileSnapshot directory, EntryFilter filter, long generation) {
+			this.directory = directory;
+			this.filter = filter;
+			this.generation = generation;
+		}
+
+		protected Subtree compute() {
+			Subtree previous = subtrees.get(directory);
+			DirectoryListing listing;
+			long listedAt;
+			if (previous != null && previous.isReusable(directory)) {
+				listing = DirectoryListing.read(directory, previous.names, fileSystemCalls);
+				listedAt = previous.listedAt;
+				listingsReused.incrementAndGet();
+			} else {
+				listedAt = System.currentTimeMillis();
+				listing = DirectoryListing.read(directory, fileSystemCalls);
+			}
+			if (!listing.isReadable()) {
+				subtrees.remove(directory);
+				return Subtree.unreadable(directory, generation);
+			}
+			entriesExamined.addAndGet(listing.size());
+
+			List<String> names = new ArrayList<>(listing.size());
+			List<FileSnapshot> files = new ArrayList<>();
+			List<Walk> walks = new ArrayList<>();
+			for (FileSnapshot entry : listing.entries()) {
+				names.add(entry.getName());
+				if (!filter.accept(entry, listing)) {
+					continue;
+				}
+				if (entry.isFile()) {
+					files.add(entry);
+				} else if (entry.isDirectory()) {
+					walks.add(new Walk(entry, filter, generation));
+				}
+			}
+			if (inForkJoinPool()) {
+				invokeAll(walks);
+			}
+
+			Subtree subtree = new Subtree(directory, listedAt, names.toArray(new String[names.size()]), generation);
+			for (FileSnapshot file : files) {
+				subtree.addFile(file);
+			}
+			for (Walk walk : walks) {
+				subtree.addSubtree(inForkJoinPool() ? walk.join() : walk.compute());
+			}
+			subtrees.put(directory, subtree);
+			return subtree;
+		}
+	}
+}
@@ -567,4 +567,332 @@ public class ManagedDirectoryPollerService
 		mPoller.setTimeBased(v);
 	}
 
+	public boolean isUsingWatchService() {
+		return mPoller.isUsingWatchService();
+	}
+
+	public void setUsingWatchService(boolean v) {
+		mPoller.setUsingWatchService(v);
+	}
+
+	public long getSafetyRescanInterval() {
+		return mPoller.getSafetyRescanInterval();
+	}
+
+	public void setSafetyRescanInterval(long safetyRescanInterval) {
+		mPoller.setSafetyRescanInterval(safetyRescanInterval);
+	}
+
+	public long getLastCycleFileSystemCalls() {
+		return mPoller.getLastCycleFileSystemCalls();
+	}
+
+	public long getLastCycleEntriesExamined() {
+		return mPoller.getLastCycleEntriesExamined();
+	}
+
+	public int getLookupThreads() {
+		return mPoller.getLookupThreads();
+	}
+
+	public void setLookupThreads(int lookupThreads) {
+		mPoller.setLookupThreads(lookupThreads);
+	}
+
+	public boolean isAdaptivePollInterval() {
+		return mPoller.isAdaptivePollInterval();
+	}
+
+	public void setAdaptivePollInterval(boolean v) {
+		mPoller.setAdaptivePollInterval(v);
+	}
+
+	public long getMinPollInterval() {
+		return mPoller.getMinPollInterval();
+	}
+
+	public void setMinPollInterval(long minPollInterval) {
+		mPoller.setMinPollInterval(minPollInterval);
+	}
+
+	public long getMaxPollInterval() {
+		return mPoller.getMaxPollInterval();
+	}
+
+	public void setMaxPollInterval(long maxPollInterval) {
+		mPoller.setMaxPollInterval(maxPollInterval);
+	}
+
+	public long getEffectivePollInterval(String directory) {
+		return mPoller.getEffectivePollInterval(directory);
+	}
+
+	public boolean isIncrementalLookup() {
+		return mPoller.isIncrementalLookup();
+	}
+
+	public void setIncrementalLookup(boolean v) {
+		mPoller.setIncrementalLookup(v);
+	}
+
+	public String getIndexDirectoryPath() {
+		return mPoller.getIndexDirectoryPath();
+	}
+
+	public void setIndexDirectoryPath(String indexDirectory) {
+		mPoller.setIndexDirectoryPath(indexDirectory);
+	}
+
+	public String getStabilityPolicySpec() {
+		return mPoller.getStabilityPolicySpec();
+	}
+
+	public void setStabilityPolicySpec(String spec) {
+		mPoller.setStabilityPolicySpec(spec);
+	}
+
+	public String getDirectoryStabilityPolicySpec(String directory) {
+		return mPoller.getDirectoryStabilityPolicySpec(directory);
+	}
+
+	public void setDirectoryStabilityPolicySpec(String directory, String spec) {
+		mPoller.setDirectoryStabilityPolicySpec(directory, spec);
+	}
+
+	public long getStableFiles() {
+		return mPoller.getStableFiles();
+	}
+
+	public long getAverageTimeToStable() {
+		return mPoller.getAverageTimeToStable();
+	}
+
+	public long getMaxTimeToStable() {
+		return mPoller.getMaxTimeToStable();
+	}
+
+	public long getLastTimeToStable() {
+		return mPoller.getLastTimeToStable();
+	}
+
+	public void resetStabilityStatistics() {
+		mPoller.resetStabilityStatistics();
+	}
+
+	public long getStabilityEntries() {
+		return mPoller.getStabilityEntries();
+	}
+
+	public long getRejectedStabilityObservations() {
+		return mPoller.getRejectedStabilityObservations();
+	}
+
+	public int getMaxStabilityEntries() {
+		return mPoller.getMaxStabilityEntries();
+	}
+
+	public void setMaxStabilityEntries(int maxStabilityEntries) {
+		mPoller.setMaxStabilityEntries(maxStabilityEntries);
+	}
+
+	public long getRecheckDelay() {
+		return mPoller.getRecheckDelay();
+	}
+
+	public void setRecheckDelay(long recheckDelay) {
+		mPoller.setRecheckDelay(recheckDelay);
+	}
+
+	public int getScheduledRechecks() {
+		return mPoller.getScheduledRechecks();
+	}
+
+	public int getSubtreeWalkThreads() {
+		return mPoller.getSubtreeWalkThreads();
+	}
+
+	public void setSubtreeWalkThreads(int subtreeWalkThreads) {
+		mPoller.setSubtreeWalkThreads(subtreeWalkThreads);
+	}
+
+	public long getReusedListings() {
+		return mPoller.getReusedListings();
+	}
+
+	public int getLockProbeThreads() {
+		return mPoller.getLockProbeThreads();
+	}
+
+	public void setLockProbeThreads(int lockProbeThreads) {
+		mPoller.setLockProbeThreads(lockProbeThreads);
+	}
+
+	public long getMaxLockProbeInterval() {
+		return mPoller.getMaxLockProbeInterval();
+	}
+
+	public void setMaxLockProbeInterval(long maxLockProbeInterval) {
+		mPoller.setMaxLockProbeInterval(maxLockProbeInterval);
+	}
+
+	public long getLockProbes() {
+		return mPoller.getLockProbes();
+	}
+
+	public long getLockedProbes() {
+		return mPoller.getLockedProbes();
+	}
+
+	public long getFailedLockProbes() {
+		return mPoller.getFailedLockProbes();
+	}
+
+	public long getRejectedLockProbes() {
+		return mPoller.getRejectedLockProbes();
+	}
+
+	public long getAverageLockProbeTime() {
+		return mPoller.getAverageLockProbeTime();
+	}
+
+	public long getMaxLockProbeTime() {
+		return mPoller.getMaxLockProbeTime();
+	}
+
+	public String getPostProcessJournalPath() {
+		return mPoller.getPostProcessJournalPath();
+	}
+
+	public void setPostProcessJournalPath(String postProcessJournal) {
+		mPoller.setPostProcessJournalPath(postProcessJournal);
+	}
+
+	public int getPendingPostProcessActions() {
+		return mPoller.getPendingPostProcessActions();
+	}
+
+	public int getPostProcessThreads() {
+		return mPoller.getPostProcessThreads();
+	}
+
+	public void setPostProcessThreads(int postProcessThreads) {
+		mPoller.setPostProcessThreads(postProcessThreads);
+	}
+
+	public double getMaxPostProcessDeletesPerSecond() {
+		return mPoller.getMaxPostProcessDeletesPerSecond();
+	}
+
+	public void setMaxPostProcessDeletesPerSecond(double maxDeletesPerSecond) {
+		mPoller.setMaxPostProcessDeletesPerSecond(maxDeletesPerSecond);
+	}
+
+	public int getQueuedPostProcessActions() {
+		return mPoller.getQueuedPostProcessActions();
+	}
+
+	public int getActivePostProcessActions() {
+		return mPoller.getActivePostProcessActions();
+	}
+
+	public long getCompletedPostProcessActions() {
+		return mPoller.getCompletedPostProcessActions();
+	}
+
+	public long getFailedPostProcessActions() {
+		return mPoller.getFailedPostProcessActions();
+	}
+
+	public long getPostProcessDeletedFiles() {
+		return mPoller.getPostProcessDeletedFiles();
+	}
+
+	public int getParallelSortThreshold() {
+		return mPoller.getParallelSortThreshold();
+	}
+
+	public void setParallelSortThreshold(int parallelSortThreshold) {
+		mPoller.setParallelSortThreshold(parallelSortThreshold);
+	}
+
+	public int getMaxFilesPerCycle() {
+		return mPoller.getMaxFilesPerCycle();
+	}
+
+	public void setMaxFilesPerCycle(int maxFilesPerCycle) {
+		mPoller.setMaxFilesPerCycle(maxFilesPerCycle);
+	}
+
+	public int getDirectoryMaxFilesPerCycle(String directory) {
+		return mPoller.getDirectoryMaxFilesPerCycle(directory);
+	}
+
+	public void setDirectoryMaxFilesPerCycle(String directory, int maxFilesPerCycle) {
+		mPoller.setDirectoryMaxFilesPerCycle(directory, maxFilesPerCycle);
+	}
+
+	public long getDeferredFiles() {
+		return mPoller.getDeferredFiles();
+	}
+
+	public boolean isAsyncDispatch() {
+		return mPoller.isAsyncDispatch();
+	}
+
+	public void setAsyncDispatch(boolean asyncDispatch) {
+		mPoller.setAsyncDispatch(asyncDispatch);
+	}
+
+	public int getDispatchQueueSize() {
+		return mPoller.getDispatchQueueSize();
+	}
+
+	public void setDispatchQueueSize(int dispatchQueueSize) {
+		mPoller.setDispatchQueueSize(dispatchQueueSize);
+	}
+
+	public String getDispatchOverflowPolicySpec() {
+		return mPoller.getDispatchOverflowPolicySpec();
+	}
+
+	public void setDispatchOverflowPolicySpec(String spec) {
+		mPoller.setDispatchOverflowPolicySpec(spec);
+	}
+
+	public long getSlowConsumerThreshold() {
+		return mPoller.getSlowConsumerThreshold();
+	}
+
+	public void setSlowConsumerThreshold(long slowConsumerThreshold) {
+		mPoller.setSlowConsumerThreshold(slowConsumerThreshold);
+	}
+
+	public int getQueuedEvents() {
+		return mPoller.getQueuedEvents();
+	}
+
+	public long getDroppedEvents() {
+		return mPoller.getDroppedEvents();
+	}
+
+	public long getMaxDispatchLag() {
+		return mPoller.getMaxDispatchLag();
+	}
+
+	public long getHeldBackLookups() {
+		return mPoller.getHeldBackLookups();
+	}
+
+	public String getChecksumAlgorithm() {
+		return mPoller.getChecksumAlgorithm();
+	}
+
+	public void setChecksumAlgorithm(String checksumAlgorithm) {
+		mPoller.setChecksumAlgorithm(checksumAlgorithm);
+	}
+
+	public long getDigestedBytes() {
+		return mPoller.getDigestedBytes();
+	}
+
 }
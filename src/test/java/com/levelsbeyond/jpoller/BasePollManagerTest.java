@@ -0,0 +1,479 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package com.levelsbeyond.jpoller;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.rules.TemporaryFolder;
+import org.sadun.util.PathNormalizer;
+import org.sadun.util.polling.DirectoryPoller;
+import org.sadun.util.polling.FileFoundEvent;
+import org.testng.annotations.Test;
+
+public class BasePollManagerTest {
+
+	@Test
+	public void testProcess_virtualThreads() throws Exception {
+		TestPollManager manager = new TestPollManager();
+		TestHarness testHarness = new TestHarness(manager);
+		testHarness.manager.setMaxConcurrent(2);
+		testHarness.manager.setUseVirtualThreads(true);
+		testHarness.manager.validateAndStart();
+		boolean virtualThreads;
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			virtualThreads = true;
+		} catch (NoSuchMethodException e) {
+			virtualThreads = false;
+		}
+		assertThat(testHarness.manager.isUsingVirtualThreads()).isEqualTo(virtualThreads);
+
+		for (int i = 0; i < 6; i++) {
+			testHarness.found("file" + i + ".txt");
+		}
+		testHarness.awaitCompleted(6);
+		assertThat(manager.maxActive.get()).isLessThanOrEqualTo(2);
+		assertThat(testHarness.manager.getActiveCount()).isZero();
+		assertThat(testHarness.manager.getQueuedCount()).isZero();
+	}
+
+	@Test
+	public void testProcessAsync_timeout() throws Exception {
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(final File file) {
+				final AsyncResult result = new AsyncResult();
+				if (!file.getName().startsWith("never")) {
+					new Thread() {
+						@Override
+						public void run() {
+							result.complete(Result.success(file));
+						}
+					}.start();
+				}
+				return result;
+			}
+
+		});
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.setProcessTimeoutSeconds(1);
+		testHarness.manager.validateAndStart();
+
+		// The file never processed holds the only permit, but no thread, until it times out
+		testHarness.found("never.txt");
+		testHarness.found("file.txt");
+		assertThat(testHarness.manager.getActiveCount()).isEqualTo(1);
+		assertThat(testHarness.manager.getQueuedCount()).isEqualTo(1);
+		testHarness.awaitCompleted(1);
+		assertThat(testHarness.manager.getFailedFolder().list()).contains("never.txt", "never.txt.log");
+	}
+
+	@Test
+	public void testProcessAsync_timeoutNotRetried() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				calls.incrementAndGet();
+				return new AsyncResult();
+			}
+
+		});
+		testHarness.manager.setProcessTimeoutSeconds(1);
+		testHarness.manager.setRetryPolicy(new RetryPolicy(3, 10L));
+		testHarness.manager.validateAndStart();
+
+		// Still being processed as far as is known, so not processed again
+		testHarness.found("never.txt");
+		for (int i = 0; i < 300 && testHarness.manager.getFailedFolder().list().length < 2; i++) {
+			Thread.sleep(10L);
+		}
+		assertThat(testHarness.manager.getFailedFolder().list()).containsOnly("never.txt", "never.txt.log");
+		Thread.sleep(100L);
+		assertThat(calls.get()).isEqualTo(1);
+		assertThat(testHarness.manager.getRetries()).isZero();
+	}
+
+	@Test
+	public void testProcess_timeout() throws Exception {
+		TestHarness testHarness = new TestHarness(new BasePollManager() {
+			@Override
+			protected Future<Result> doProcess(final File file) {
+				FutureTask<Result> task = new FutureTask<>(new Callable<Result>() {
+					@Override
+					public Result call() throws Exception {
+						return Result.success(file);
+					}
+				});
+				// Otherwise never run, so that waiting for it blocks until interrupted
+				if (!file.getName().startsWith("never")) {
+					task.run();
+				}
+				return task;
+			}
+
+			@Override
+			protected void doValidate() {
+			}
+		});
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.setProcessTimeoutSeconds(1);
+		testHarness.manager.validateAndStart();
+
+		// The worker blocked on the file never processed is interrupted once it times out, and free for the next one
+		testHarness.found("never.txt");
+		testHarness.found("file.txt");
+		testHarness.awaitCompleted(1);
+		assertThat(testHarness.manager.getFailedFolder().list()).contains("never.txt", "never.txt.log");
+	}
+
+	@Test
+	public void testProcess_duplicates() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return AsyncResult.completed(Result.fail(file, e));
+				}
+				return AsyncResult.completed(Result.success(file));
+			}
+
+		});
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.validateAndStart();
+
+		// Found again while queued, or once moved to the working folder: ignored
+		File first = testHarness.found("first.txt");
+		for (int i = 0; i < 100 && first.exists(); i++) {
+			Thread.sleep(10L);
+		}
+		testHarness.found(first);
+		File second = testHarness.found("second.txt");
+		testHarness.found(second);
+		assertThat(testHarness.manager.getInFlightCount()).isEqualTo(2);
+		assertThat(testHarness.manager.getInFlightFiles()).containsOnly(first, second);
+		assertThat(testHarness.manager.getDuplicateSubmissions()).isEqualTo(1L);
+
+		release.countDown();
+		testHarness.awaitCompleted(2);
+		assertThat(testHarness.manager.getInFlightCount()).isZero();
+		assertThat(testHarness.manager.getFailedFolder().list()).isEmpty();
+	}
+
+	@Test
+	public void testProcess_shortestFirst() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> processed = Collections.synchronizedList(new ArrayList<String>());
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					return AsyncResult.completed(Result.fail(file, e));
+				}
+				processed.add(file.getName());
+				return AsyncResult.completed(Result.success(file));
+			}
+
+		});
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.setSchedulingPolicy(new SchedulingPolicy.ShortestFirst(1000L));
+		testHarness.manager.validateAndStart();
+
+		testHarness.found("blocking.txt");
+		testHarness.found("large.txt", 100000);
+		testHarness.found("medium.txt", 1000);
+		testHarness.found("small.txt", 10);
+		release.countDown();
+		testHarness.awaitCompleted(4);
+		assertThat(processed).isEqualTo(Arrays.asList("blocking.txt", "small.txt", "medium.txt", "large.txt"));
+		long dispatched = 0;
+		for (long count : testHarness.manager.getQueueWaitHistogram()) {
+			dispatched += count;
+		}
+		assertThat(dispatched).isEqualTo(4L);
+	}
+
+	@Test
+	public void testProcess_lanes() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				if (file.getName().startsWith("blocking")) {
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						return AsyncResult.completed(Result.fail(file, e));
+					}
+				}
+				return AsyncResult.completed(Result.success(file));
+			}
+
+		});
+		Lane large = new Lane("large", 1);
+		large.setMinSize(1000L);
+		testHarness.manager.setLanes(Arrays.asList(large));
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.validateAndStart();
+
+		// A large file holding up its lane doesn't hold up the small files
+		testHarness.found("blocking.dat", 10000);
+		testHarness.found("small.txt");
+		testHarness.awaitCompleted(1);
+		assertThat(testHarness.manager.getLaneActiveCount("large")).isEqualTo(1);
+
+		// ... and the idle default lane takes the next large file
+		testHarness.found("large.dat", 10000);
+		testHarness.awaitCompleted(2);
+		assertThat(testHarness.manager.getStolenTasks()).isEqualTo(1L);
+		assertThat(testHarness.manager.getLaneActiveCount("large")).isEqualTo(1);
+
+		release.countDown();
+		testHarness.awaitCompleted(3);
+		assertThat(testHarness.manager.getLaneQueuedCount("large")).isZero();
+	}
+
+	@Test
+	public void testProcess_retry() throws Exception {
+		final AtomicInteger calls = new AtomicInteger();
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				if (file.getName().startsWith("invalid")) {
+					return AsyncResult.completed(Result.fail(file, new IllegalArgumentException("invalid")));
+				}
+				if (calls.incrementAndGet() < 3) {
+					return AsyncResult.completed(Result.fail(file, new IOException("unavailable")));
+				}
+				return AsyncResult.completed(Result.success(file));
+			}
+
+		});
+		RetryPolicy retryPolicy = new RetryPolicy(3, 10L);
+		retryPolicy.setRetryableExceptions(Arrays.<Class<? extends Throwable>>asList(IOException.class));
+		testHarness.manager.setRetryPolicy(retryPolicy);
+		testHarness.manager.validateAndStart();
+
+		testHarness.found("invalid.txt");
+		testHarness.found("file.txt");
+		testHarness.awaitCompleted(1);
+		assertThat(calls.get()).isEqualTo(3);
+		assertThat(testHarness.manager.getRetries()).isEqualTo(2L);
+		assertThat(testHarness.manager.getInFlightCount()).isZero();
+		assertThat(testHarness.manager.getFailedFolder().list()).containsOnly("invalid.txt", "invalid.txt.log");
+		List<String> log = Files.readAllLines(new File(testHarness.manager.getFailedFolder(), "invalid.txt.log").toPath(), StandardCharsets.UTF_8);
+		assertThat(log).contains("Attempts: 1");
+	}
+
+	@Test
+	public void testIsAcceptingFiles_waterMarks() throws Exception {
+		final Semaphore release = new Semaphore(0);
+		TestHarness testHarness = new TestHarness(new AsyncPollManager() {
+			@Override
+			protected AsyncResult doProcessAsync(File file) {
+				try {
+					release.acquire();
+				} catch (InterruptedException e) {
+					return AsyncResult.completed(Result.fail(file, e));
+				}
+				return AsyncResult.completed(Result.success(file));
+			}
+
+		});
+		testHarness.manager.setMaxConcurrent(1);
+		testHarness.manager.setHighWaterMark(3);
+		testHarness.manager.setLowWaterMark(1);
+		testHarness.manager.validateAndStart();
+		File watchFolder = PathNormalizer.normalize(testHarness.watchFolder);
+		File otherFolder = PathNormalizer.normalize(testHarness.temporaryFolder.newFolder("other"));
+
+		testHarness.found("blocking.txt");
+		awaitQueued(testHarness.manager, 0);
+		testHarness.found("first.txt");
+		testHarness.found("second.txt");
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isTrue();
+
+		// Up to the high water mark: held back, but only for the watch folder
+		testHarness.found("third.txt");
+		assertThat(testHarness.manager.getQueuedCount()).isEqualTo(3);
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isFalse();
+		assertThat(testHarness.manager.isHoldingBack()).isTrue();
+		assertThat(testHarness.manager.isAcceptingFiles(otherFolder)).isTrue();
+
+		// Below the high water mark, but above the low one: still held back
+		release.release();
+		awaitQueued(testHarness.manager, 2);
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isFalse();
+
+		// Down to the low water mark: accepted again, until the high water mark is reached again
+		release.release();
+		awaitQueued(testHarness.manager, 1);
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isTrue();
+		testHarness.found("fourth.txt");
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isTrue();
+		testHarness.found("fifth.txt");
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isFalse();
+
+		release.release(6);
+		testHarness.awaitCompleted(6);
+		assertThat(testHarness.manager.isAcceptingFiles(watchFolder)).isTrue();
+	}
+
+	private static void awaitQueued(BasePollManager manager, int queued) throws InterruptedException {
+		for (int i = 0; i < 500 && manager.getQueuedCount() != queued; i++) {
+			Thread.sleep(10L);
+		}
+		assertThat(manager.getQueuedCount()).isEqualTo(queued);
+	}
+
+	@Test
+	public void testSchedulePostProcessDelete() throws Exception {
+		TestHarness testHarness = new TestHarness(new TestPollManager());
+		File file = new File(testHarness.watchFolder, "file.txt");
+		try {
+			testHarness.manager.schedulePostProcessDelete(file);
+			throw new AssertionError("Scheduled without a poller");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+
+		// The configured poller is used, whichever poller announced the last file
+		DirectoryPoller other = new DirectoryPoller(testHarness.temporaryFolder.newFolder("other"));
+		// Keeps the delete pending until asserted
+		testHarness.poller.setPostProcessDelayMinutes(1);
+		testHarness.manager.setPoller(testHarness.poller);
+		FileFoundEvent event = mock(FileFoundEvent.class);
+		when(event.getFile()).thenReturn(new File(testHarness.watchFolder, "missing.txt"));
+		when(event.getPoller()).thenReturn(other);
+		testHarness.manager.fileFound(event);
+		testHarness.manager.schedulePostProcessDelete(file);
+		assertThat(testHarness.poller.getPendingPostProcessActions()).isEqualTo(1);
+		assertThat(other.getPendingPostProcessActions()).isZero();
+		testHarness.poller.shutdown();
+	}
+
+	/**
+	 * A manager processing files asynchronously only.
+	 */
+	abstract static class AsyncPollManager extends BasePollManager {
+
+		@Override
+		protected Future<Result> doProcess(File file) {
+			throw new AssertionError("Processed asynchronously");
+		}
+
+		@Override
+		protected void doValidate() {
+		}
+	}
+
+	static class TestPollManager extends BasePollManager {
+
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+
+		@Override
+		protected Future<Result> doProcess(final File file) {
+			FutureTask<Result> task = new FutureTask<>(new Callable<Result>() {
+				@Override
+				public Result call() throws Exception {
+					int now = active.incrementAndGet();
+					synchronized (maxActive) {
+						maxActive.set(Math.max(maxActive.get(), now));
+					}
+					Thread.sleep(20L);
+					active.decrementAndGet();
+					return Result.success(file);
+				}
+			});
+			task.run();
+			return task;
+		}
+
+		@Override
+		protected void doValidate() {
+		}
+	}
+
+	class TestHarness {
+
+		final TemporaryFolder temporaryFolder;
+		final File watchFolder;
+		final DirectoryPoller poller;
+		final BasePollManager manager;
+
+		TestHarness(BasePollManager manager) throws IOException {
+			this.manager = manager;
+			temporaryFolder = new TemporaryFolder();
+			temporaryFolder.create();
+			watchFolder = temporaryFolder.newFolder("watch");
+			poller = new DirectoryPoller(watchFolder);
+			manager.setWatchFolder(watchFolder);
+		}
+
+		File found(String name) throws IOException {
+			return found(Files.write(watchFolder.toPath().resolve(name), "this is a test\n".getBytes("UTF-8")).toFile());
+		}
+
+		File found(String name, int size) throws IOException {
+			return found(Files.write(watchFolder.toPath().resolve(name), new byte[size]).toFile());
+		}
+
+		File found(File file) {
+			FileFoundEvent event = mock(FileFoundEvent.class);
+			when(event.getFile()).thenReturn(file);
+			when(event.getPoller()).thenReturn(poller);
+			manager.fileFound(event);
+			return file;
+		}
+
+		void awaitCompleted(int count) throws InterruptedException {
+			for (int i = 0; i < 500 && manager.getCompletedFolder().list().length < count; i++) {
+				Thread.sleep(10L);
+			}
+			assertThat(manager.getCompletedFolder().list()).hasSize(count);
+			for (int i = 0; i < 100 && manager.getActiveCount() > 0; i++) {
+				Thread.sleep(10L);
+			}
+		}
+	}
+}
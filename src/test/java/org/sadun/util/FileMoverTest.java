@@ -0,0 +1,104 @@
+/*
+ * Levels Beyond CONFIDENTIAL
+ *
+ * Copyright 2003 - 2018 Levels Beyond Incorporated
+ * All Rights Reserved.
+ *
+ * NOTICE:  All information contained herein is, and remains
+ * the property of Levels Beyond Incorporated and its suppliers,
+ * if any.  The intellectual and technical concepts contained
+ * herein are proprietary to Levels Beyond Incorporated
+ * and its suppliers and may be covered by U.S. and Foreign Patents,
+ * patents in process, and are protected by trade secret or copyright law.
+ * Dissemination of this information or reproduction of this material
+ * is unlawful and strictly forbidden unless prior written permission is obtained
+ * from Levels Beyond Incorporated.
+ */
+
+
+package org.sadun.util;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.rules.TemporaryFolder;
+import org.testng.annotations.Test;
+
+public class FileMoverTest {
+
+	@Test
+	public void testMove_rename() throws IOException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		try {
+			FileMover mover = new FileMover();
+			File source = write(temporaryFolder.newFile("source.txt"), "source");
+			File destination = write(temporaryFolder.newFile("destination.txt"), "destination");
+			try {
+				mover.move(source, destination, false);
+				assertThat(false).as("moved over an existing file").isTrue();
+			} catch (FileAlreadyExistsException e) {
+				assertThat(source).exists();
+			}
+			mover.move(source, destination, true);
+			assertThat(source).doesNotExist();
+			assertThat(read(destination)).isEqualTo("source");
+			assertThat(mover.getRenames()).isEqualTo(1L);
+			assertThat(mover.getCopiedFiles()).isZero();
+			assertThat(mover.getFailures()).isEqualTo(1L);
+		} finally {
+			temporaryFolder.delete();
+		}
+	}
+
+	@Test
+	public void testMove_copy() throws IOException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		try {
+			// Every file system is another one
+			FileMover mover = new FileMover(1, true) {
+				@Override
+				void rename(Path source, Path destination) throws IOException {
+					throw new AtomicMoveNotSupportedException(source.toString(), destination.toString(), "Cross-device link");
+				}
+			};
+			File source = temporaryFolder.newFolder("source");
+			write(new File(source, "file.txt"), "file");
+			File subdirectory = new File(source, "subdirectory");
+			subdirectory.mkdir();
+			File nested = write(new File(subdirectory, "nested.txt"), "nested");
+			Files.setLastModifiedTime(nested.toPath(), FileTime.fromMillis(1000000000000L));
+			File destination = new File(temporaryFolder.getRoot(), "destination");
+
+			mover.move(source, destination, false);
+			assertThat(source).doesNotExist();
+			assertThat(read(new File(destination, "file.txt"))).isEqualTo("file");
+			File moved = new File(destination, "subdirectory/nested.txt");
+			assertThat(read(moved)).isEqualTo("nested");
+			assertThat(moved.lastModified()).isEqualTo(1000000000000L);
+			assertThat(new File(destination, "subdirectory").list()).containsOnly("nested.txt");
+			assertThat(mover.getCopiedFiles()).isEqualTo(2L);
+			assertThat(mover.getCopiedBytes()).isEqualTo(10L);
+			assertThat(mover.getRenames()).isZero();
+		} finally {
+			temporaryFolder.delete();
+		}
+	}
+
+	private static File write(File file, String content) throws IOException {
+		return Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8)).toFile();
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
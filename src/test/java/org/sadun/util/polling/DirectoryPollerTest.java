@@ -20,6 +20,7 @@ package org.sadun.util.polling;
 
 import static java.nio.file.StandardOpenOption.APPEND;
 import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
 import static org.fest.assertions.api.Assertions.assertThat;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.doAnswer;
@@ -27,6 +28,8 @@ import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
 
 import com.deltax.util.listener.ExceptionSignal;
 import com.deltax.util.listener.Signal;
@@ -37,14 +40,32 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.rules.TemporaryFolder;
 import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
+import org.sadun.util.FileMover;
 import org.sadun.util.PathNormalizer;
 import org.testng.annotations.Test;
 
@@ -160,6 +181,10 @@ public class DirectoryPollerTest {
 		ArgumentCaptor<FileMovedEvent> fileMovedCaptor = ArgumentCaptor.forClass(FileMovedEvent.class);
 		verify(testHarness.pollManager, times(1)).fileMoved(fileMovedCaptor.capture());
 		assertThat(fileMovedCaptor.getValue().getPath().getName()).isEqualTo("testfile.txt");
+		// The original path is a plain file, which reports the file gone
+		assertThat(fileMovedCaptor.getValue().getOriginalPath().getClass() == File.class).isTrue();
+		assertThat(fileMovedCaptor.getValue().getOriginalPath().exists()).isFalse();
+		assertThat(fileMovedCaptor.getValue().getPath().exists()).isTrue();
 
 		ArgumentCaptor<FileSetFoundEvent> fileSetFoundCaptor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
 		verify(testHarness.pollManager, times(1)).fileSetFound(fileSetFoundCaptor.capture());
@@ -261,6 +286,8 @@ public class DirectoryPollerTest {
 		ArgumentCaptor<FileMovedEvent> fileMovedCaptor = ArgumentCaptor.forClass(FileMovedEvent.class);
 		verify(testHarness.pollManager, times(1)).fileMoved(fileMovedCaptor.capture());
 		assertThat(fileMovedCaptor.getValue().getPath().getName()).isEqualTo("testdir1");
+		assertThat(fileMovedCaptor.getValue().getOriginalPath().exists()).isFalse();
+		assertThat(fileMovedCaptor.getValue().getOriginalPath().isDirectory()).isFalse();
 
 		ArgumentCaptor<FileSetFoundEvent> fileSetFoundCaptor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
 		verify(testHarness.pollManager, times(1)).fileSetFound(fileSetFoundCaptor.capture());
@@ -274,6 +301,895 @@ public class DirectoryPollerTest {
 		verify(testHarness.pollManager, times(5)).cycleEnded(any(CycleEndEvent.class));
 	}
 
+	@Test
+	void testRunCycle_fileSystemCalls() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		final int fileCount = 50;
+		for (int i = 0; i < fileCount; i++) {
+			Files.write(testHarness.testdir.resolve("testfile" + i + ".txt"), "this is a test\n".getBytes("UTF-8"));
+		}
+
+		// First observation: every entry is read once, nothing is stable yet
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileSetFound(any(FileSetFoundEvent.class));
+		assertThat(testHarness.poller.getLastCycleEntriesExamined()).isEqualTo(fileCount + 1);
+		// one listing and one attribute read per entry of the watched directory, one listing of the 'received'
+		// directory, plus the controlled directory key
+		assertThat(testHarness.poller.getLastCycleFileSystemCalls()).isLessThanOrEqualTo(fileCount + 5);
+
+		// Second observation: the files are stable and moved, one rename each
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(fileCount)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getLastCycleFileSystemCalls()).isLessThanOrEqualTo(2 * fileCount + 5);
+
+		// Once moved, the files cost nothing more than their name in the listing of the 'received' directory
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getLastCycleFileSystemCalls()).isLessThanOrEqualTo(5);
+	}
+
+	@Test
+	void testRunCycle_lookupThreads() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File otherDir = testHarness.temporaryFolder.newFolder("otherdir");
+		testHarness.poller.addDirectory(otherDir);
+		assertThat(PathNormalizer.normalize(testHarness.poller.getAutoMoveDirectory(otherDir)).mkdirs()).isTrue();
+		testHarness.poller.setLookupThreads(4);
+		final Set<Thread> lookupThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+		testHarness.poller.setFilter(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				lookupThreads.add(Thread.currentThread());
+				return true;
+			}
+		});
+		final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+		final Set<Thread> deliveryThreads = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+		Answer record = new Answer() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				BaseDirectoryEvent evt = (BaseDirectoryEvent) invocation.getArguments()[0];
+				events.add(evt.getClass().getSimpleName() + " " + PathNormalizer.normalize(evt.getDirectory()));
+				deliveryThreads.add(Thread.currentThread());
+				return null;
+			}
+		};
+		doAnswer(record).when(testHarness.pollManager).directoryLookupStarted(any(DirectoryLookupStartEvent.class));
+		doAnswer(record).when(testHarness.pollManager).fileSetFound(any(FileSetFoundEvent.class));
+		doAnswer(record).when(testHarness.pollManager).directoryLookupEnded(any(DirectoryLookupEndEvent.class));
+		Files.write(testHarness.testdir.resolve("testfile1.txt"), "this is a test\n".getBytes("UTF-8"));
+		Files.write(otherDir.toPath().resolve("testfile2.txt"), "this is a test\n".getBytes("UTF-8"));
+
+		testHarness.runCycle();
+		testHarness.runCycle();
+
+		// Looked up on the pool, but the events of each directory are delivered together, in order, on the polling thread
+		assertThat(lookupThreads).isNotEmpty().doesNotContain(Thread.currentThread());
+		assertThat(deliveryThreads).containsOnly(Thread.currentThread());
+		assertThat(events).hasSize(10);
+		Set<String> lookedUp = new HashSet<>();
+		for (int i = 0; i < events.size(); ) {
+			String start = events.get(i++);
+			assertThat(start).startsWith(DirectoryLookupStartEvent.class.getSimpleName() + " ");
+			String dir = start.substring(start.indexOf(' ') + 1);
+			if (events.get(i).startsWith(FileSetFoundEvent.class.getSimpleName() + " ")) {
+				// Announced from where they have been moved
+				assertThat(events.get(i++)).isEqualTo(FileSetFoundEvent.class.getSimpleName() + " "
+					+ PathNormalizer.normalize(testHarness.poller.getAutoMoveDirectory(new File(dir))));
+			}
+			assertThat(events.get(i++)).isEqualTo(DirectoryLookupEndEvent.class.getSimpleName() + " " + dir);
+			lookedUp.add(dir);
+		}
+		assertThat(lookedUp).containsOnly(PathNormalizer.normalize(testHarness.testdir.toFile()).toString(),
+			PathNormalizer.normalize(otherDir).toString());
+		verify(testHarness.pollManager, times(2)).cycleStarted(any(CycleStartEvent.class));
+		verify(testHarness.pollManager, times(4)).directoryLookupStarted(any(DirectoryLookupStartEvent.class));
+		verify(testHarness.pollManager, times(2)).fileMoved(any(FileMovedEvent.class));
+		verify(testHarness.pollManager, times(2)).fileSetFound(any(FileSetFoundEvent.class));
+		verify(testHarness.pollManager, times(4)).directoryLookupEnded(any(DirectoryLookupEndEvent.class));
+		verify(testHarness.pollManager, times(2)).cycleEnded(any(CycleEndEvent.class));
+		testHarness.poller.shutdown();
+	}
+
+	@Test
+	void testRunCycle_incrementalLookup() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File indexDir = testHarness.temporaryFolder.newFolder("index");
+		testHarness.poller.setAutoMove(false);
+		testHarness.poller.setSendSingleFileEvent(false);
+		testHarness.poller.setIncrementalLookup(true);
+		testHarness.poller.setIndexDirectory(indexDir);
+		for (int i = 0; i < 3; i++) {
+			Files.write(testHarness.testdir.resolve("testfile" + i + ".txt"), "this is a test\n".getBytes("UTF-8"));
+		}
+
+		ArgumentCaptor<FileSetFoundEvent> captor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileSetFound(captor.capture());
+		assertThat(captor.getValue().getFiles()).hasSize(3);
+
+		// Nothing changed: nothing to process
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileSetFound(any(FileSetFoundEvent.class));
+		assertThat(testHarness.poller.getLastCycleEntriesExamined()).isEqualTo(0);
+
+		// Only the new file is processed, also by a poller restarting from the saved index
+		Files.write(testHarness.testdir.resolve("testfile3.txt"), "this is a test\n".getBytes("UTF-8"));
+		TestHarness restarted = new TestHarness(testHarness.temporaryFolder, testHarness.testdir);
+		restarted.poller.setAutoMove(false);
+		restarted.poller.setSendSingleFileEvent(false);
+		restarted.poller.setIncrementalLookup(true);
+		restarted.poller.setIndexDirectory(indexDir);
+		restarted.runCycle();
+		captor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
+		verify(restarted.pollManager, times(1)).fileSetFound(captor.capture());
+		assertThat(captor.getValue().getFiles()).hasSize(1);
+		assertThat(captor.getValue().getFiles()[0].getName()).isEqualTo("testfile3.txt");
+	}
+
+	@Test
+	void testRunCycle_multiSignalStabilityPolicy() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setStabilityPolicy(testHarness.testdir.toFile(), new MultiSignalStabilityPolicy("multi:observations=0,quiet=10000"));
+		long now = System.currentTimeMillis();
+		File quiet = testHarness.testdir.resolve("quiet.txt").toFile();
+		File preallocated = testHarness.testdir.resolve("preallocated.txt").toFile();
+		Files.write(quiet.toPath(), "this is a test\n".getBytes("UTF-8"));
+		Files.write(preallocated.toPath(), "this is a test\n".getBytes("UTF-8"));
+		assertThat(quiet.setLastModified(now - 60000L)).isTrue();
+
+		// A file untouched for longer than the quiet period is moved on its first observation
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getStableFiles()).isEqualTo(1);
+
+		// Same size, but still being written to
+		assertThat(preallocated.setLastModified(now + 1000L)).isTrue();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+
+		// Any change observed restarts the quiet period, whatever the modification time says
+		assertThat(preallocated.setLastModified(now - 60000L)).isTrue();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+
+		testHarness.poller.setStabilityPolicy(testHarness.testdir.toFile(), new MultiSignalStabilityPolicy(1, 0L));
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(2)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getStableFiles()).isEqualTo(2);
+	}
+
+	@Test
+	void testRunCycle_stabilityEntries() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setMaxStabilityEntries(2);
+		for (int i = 0; i < 3; i++) {
+			Files.write(testHarness.testdir.resolve("testfile" + i + ".txt"), "this is a test\n".getBytes("UTF-8"));
+		}
+
+		// Only two files can be tracked
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getStabilityEntries()).isEqualTo(2);
+		assertThat(testHarness.poller.getRejectedStabilityObservations()).isEqualTo(1);
+
+		// Files vanishing before they are stable are forgotten
+		for (int i = 0; i < 3; i++) {
+			Files.delete(testHarness.testdir.resolve("testfile" + i + ".txt"));
+		}
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getStabilityEntries()).isEqualTo(0);
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+	}
+
+	@Test
+	void testRunCycle_recheck() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setRecheckDelay(100L);
+		Files.write(testHarness.testdir.resolve("testfile.txt"), "this is a test\n".getBytes("UTF-8"));
+
+		// Not stable yet, so observed again on its own
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getScheduledRechecks()).isEqualTo(1);
+
+		// Not due yet
+		testHarness.poller.runRechecks();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+
+		Thread.sleep(250L);
+		testHarness.poller.runRechecks();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		verify(testHarness.pollManager, times(1)).fileSetFound(any(FileSetFoundEvent.class));
+		assertThat(testHarness.poller.getScheduledRechecks()).isEqualTo(0);
+		assertThat(testHarness.poller.getStabilityEntries()).isEqualTo(0);
+
+		// Nothing left for the next lookup
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+	}
+
+	@Test
+	void testRunCycle_subtreeWalk() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setSubtreeWalkThreads(2);
+		testHarness.poller.setFilter(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return !name.equalsIgnoreCase("received");
+			}
+		});
+		Path tree = Files.createDirectory(testHarness.testdir.resolve("tree"));
+		Path subdir1 = Files.createDirectory(tree.resolve("subdir1"));
+		Path subdir2 = Files.createDirectory(subdir1.resolve("subdir2"));
+		Files.write(tree.resolve("testfile0.txt"), "this is a test\n".getBytes("UTF-8"));
+		Files.write(subdir1.resolve("testfile1.txt"), "this is a test\n".getBytes("UTF-8"));
+		Files.write(subdir2.resolve("testfile2.txt"), "this is a test\n".getBytes("UTF-8"));
+		long modified = System.currentTimeMillis() - 60000L;
+		for (Path dir : new Path[] { tree, subdir1, subdir2 }) {
+			assertThat(dir.toFile().setLastModified(modified)).isTrue();
+		}
+
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getReusedListings()).isEqualTo(0);
+
+		// Unchanged directories are not listed again, but a file written to deep down is still noticed
+		Files.write(subdir2.resolve("testfile2.txt"), "this is another test\n".getBytes("UTF-8"), APPEND);
+		assertThat(subdir2.toFile().setLastModified(modified)).isTrue();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getReusedListings()).isEqualTo(3);
+
+		testHarness.runCycle();
+		ArgumentCaptor<FileMovedEvent> fileMovedCaptor = ArgumentCaptor.forClass(FileMovedEvent.class);
+		verify(testHarness.pollManager, times(1)).fileMoved(fileMovedCaptor.capture());
+		assertThat(fileMovedCaptor.getValue().getPath().getName()).isEqualTo("tree");
+		assertThat(testHarness.poller.getReusedListings()).isEqualTo(6);
+	}
+
+	@Test
+	void testRunCycle_lockProbes() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setBypassLockedFiles(true);
+		Path file = testHarness.testdir.resolve("testfile.txt");
+		Files.write(file, "this is a test\n".getBytes("UTF-8"));
+
+		try (FileChannel channel = FileChannel.open(file, WRITE)) {
+			FileLock lock = channel.lock();
+			// Probed in the background: the file counts as locked until the probe completes
+			testHarness.runCycle();
+			awaitLockProbes(testHarness.poller, 1);
+			testHarness.runCycle();
+			verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+			assertThat(testHarness.poller.getLockedProbes()).isEqualTo(1);
+
+			// Not probed again before the back-off delay
+			testHarness.runCycle();
+			verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+			assertThat(testHarness.poller.getLockProbes()).isEqualTo(1);
+			lock.release();
+		}
+
+		Thread.sleep(LockProber.INITIAL_BACKOFF + 100L);
+		testHarness.runCycle();
+		awaitLockProbes(testHarness.poller, 2);
+
+		// Stable and unlocked: probed once more in the background, then moved
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+		awaitLockProbes(testHarness.poller, 3);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getLockedProbes()).isEqualTo(1);
+	}
+
+	@Test
+	void testRunCycle_lockProbes_lockedSinceProbed() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setBypassLockedFiles(true);
+		Path file = testHarness.testdir.resolve("testfile.txt");
+		Files.write(file, "this is a test\n".getBytes("UTF-8"));
+		testHarness.runCycle();
+		awaitLockProbes(testHarness.poller, 1);
+		assertThat(testHarness.poller.getLockedProbes()).isZero();
+
+		// Locked by a writer which has not written anything yet: the file is unchanged, but found locked by the probe
+		// made once it is stable, and not moved
+		try (FileChannel channel = FileChannel.open(file, WRITE)) {
+			FileLock lock = channel.lock();
+			testHarness.runCycle();
+			awaitLockProbes(testHarness.poller, 2);
+			assertThat(testHarness.poller.getLockedProbes()).isEqualTo(1);
+			testHarness.runCycle();
+			verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+			assertThat(file.toFile()).exists();
+			lock.release();
+		}
+
+		Thread.sleep(LockProber.INITIAL_BACKOFF + 100L);
+		testHarness.runCycle();
+		awaitLockProbes(testHarness.poller, 3);
+		testHarness.runCycle();
+		awaitLockProbes(testHarness.poller, 4);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+	}
+
+	private static void awaitLockProbes(DirectoryPoller poller, long probes) throws InterruptedException {
+		for (int i = 0; i < 100 && poller.getLockProbes() < probes; i++) {
+			Thread.sleep(50L);
+		}
+		assertThat(poller.getLockProbes()).isEqualTo(probes);
+	}
+
+	@Test
+	void testRunCycle_postProcessMarkers() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setPostProcessDelayMinutes(1);
+		testHarness.poller.setMaxPostProcessDeletesPerSecond(100);
+		Path received = PathNormalizer.normalize(testHarness.poller.getAutoMoveDirectory(testHarness.testdir.toFile())).toPath();
+		Path expired = Files.createDirectory(received.resolve("expired.txt"));
+		for (int i = 0; i < 3; i++) {
+			Files.write(expired.resolve("testfile" + i + ".txt"), "this is a test\n".getBytes("UTF-8"));
+		}
+		Path pending = Files.write(received.resolve("pending.txt"), "this is a test\n".getBytes("UTF-8"));
+		Path expiredMarker = Files.write(received.resolve(".~expired.txt~"), "action=delete\n".getBytes("UTF-8"));
+		Path pendingMarker = Files.write(received.resolve(".~pending.txt~"), "action=delete\n".getBytes("UTF-8"));
+		Path orphanedMarker = Files.write(received.resolve(".~orphaned.txt~"), "action=delete\n".getBytes("UTF-8"));
+		assertThat(expiredMarker.toFile().setLastModified(System.currentTimeMillis() - 120000L)).isTrue();
+
+		// Executed in the background
+		testHarness.runCycle();
+		awaitPostProcessActions(testHarness.poller, 1);
+		assertThat(testHarness.poller.getPostProcessDeletedFiles()).isEqualTo(4);
+		assertThat(expired.toFile()).doesNotExist();
+		assertThat(expiredMarker.toFile()).doesNotExist();
+		assertThat(orphanedMarker.toFile()).doesNotExist();
+		assertThat(pending.toFile()).exists();
+		assertThat(pendingMarker.toFile()).exists();
+
+		// A marker already indexed is not read again before the delay it was indexed with has elapsed
+		assertThat(pendingMarker.toFile().setLastModified(System.currentTimeMillis() - 120000L)).isTrue();
+		testHarness.runCycle();
+		Thread.sleep(100L);
+		assertThat(testHarness.poller.getCompletedPostProcessActions()).isEqualTo(1);
+		assertThat(pending.toFile()).exists();
+		assertThat(pendingMarker.toFile()).exists();
+
+		// A file gone while its marker is indexed leaves an orphan, found from the names alone
+		Files.delete(pending);
+		testHarness.runCycle();
+		assertThat(pendingMarker.toFile()).doesNotExist();
+	}
+
+	private static void awaitPostProcessActions(DirectoryPoller poller, long actions) throws InterruptedException {
+		for (int i = 0; i < 100 && poller.getCompletedPostProcessActions() < actions; i++) {
+			Thread.sleep(50L);
+		}
+		assertThat(poller.getCompletedPostProcessActions()).isEqualTo(actions);
+	}
+
+	@Test
+	void testPostProcessActions() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		File journal = testHarness.temporaryFolder.newFile("post-process.journal");
+		File deleted = Files.write(testHarness.testdir.resolve("deleted.txt"), "this is a test\n".getBytes("UTF-8")).toFile();
+		File moved = Files.write(testHarness.testdir.resolve("moved.txt"), "this is a test\n".getBytes("UTF-8")).toFile();
+		File destination = testHarness.temporaryFolder.newFolder("completed").toPath().resolve("moved.txt").toFile();
+		testHarness.poller.setPostProcessJournal(journal);
+		FileMover fileMover = new FileMover();
+		testHarness.poller.setFileMover(fileMover);
+
+		// Pending actions survive a restart
+		testHarness.poller.getPostProcessActionRegistry().scheduleDelete(deleted, 60000L);
+		testHarness.poller.schedulePostProcessMove(moved, destination);
+		for (int i = 0; i < 100 && testHarness.poller.getPendingPostProcessActions() > 1; i++) {
+			Thread.sleep(10L);
+		}
+		assertThat(destination).exists();
+		assertThat(moved).doesNotExist();
+		assertThat(fileMover.getRenames()).isEqualTo(1);
+		assertThat(testHarness.poller.getPendingPostProcessActions()).isEqualTo(1);
+		testHarness.poller.shutdown();
+		assertThat(deleted).exists();
+
+		DirectoryPoller restarted = new DirectoryPoller(testHarness.testdir.toFile());
+		restarted.setPostProcessJournal(journal);
+		assertThat(restarted.getPendingPostProcessActions()).isEqualTo(0);
+		assertThat(restarted.getPostProcessActionRegistry().getPendingActions()).isEqualTo(1);
+		assertThat(restarted.getPostProcessActionRegistry().isPending(deleted)).isTrue();
+		assertThat(restarted.getPostProcessActionRegistry().isPending(moved)).isFalse();
+		assertThat(deleted).exists();
+
+		// The restored action is scheduled again, and can be cancelled as any other
+		assertThat(restarted.getPostProcessActionRegistry().cancel(deleted)).isTrue();
+		assertThat(restarted.getPendingPostProcessActions()).isEqualTo(0);
+		restarted.shutdown();
+		assertThat(deleted).exists();
+	}
+
+	@Test
+	void testFileSortKeys() {
+		Random random = new Random(42L);
+		File dir = new File("sorted");
+		File files[] = new File[20000];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = new FileSnapshot(dir, "file" + random.nextInt(1000), false, true, false, random.nextInt(100), random.nextInt(100000), null);
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			for (Comparator comparator : new Comparator[]{
+				new FIFOFileComparator(),
+				new DirectoryPoller.FileSizeComparator(false),
+				new GenericFileComparator("size descending;name;lastmodified ascending")}) {
+				File expected[] = files.clone();
+				Arrays.sort(expected, comparator);
+				File sorted[] = files.clone();
+				FileSortKeys.sort(sorted, comparator, 0, null);
+				assertThat(sorted).isEqualTo(expected);
+				sorted = files.clone();
+				FileSortKeys.sort(sorted, comparator, 1, pool);
+				assertThat(sorted).isEqualTo(expected);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	void testRunCycle_maxFilesPerCycle() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File dir = testHarness.testdir.toFile();
+		testHarness.poller.setFilesSortComparator(new DirectoryPoller.FileSizeComparator(true));
+		testHarness.poller.setMaxFilesPerCycle(2);
+		for (int i = 1; i <= 5; i++) {
+			Files.write(testHarness.testdir.resolve("file" + (6 - i) + ".txt"), new byte[i]);
+		}
+		File received = testHarness.poller.getAutoMoveDirectory(dir);
+
+		// All the files are observed, but only the two smallest are moved
+		testHarness.runCycle();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(2)).fileMoved(any(FileMovedEvent.class));
+		assertThat(received.list()).containsOnly("file5.txt", "file4.txt");
+		assertThat(testHarness.poller.getDeferredFiles()).isEqualTo(3L);
+
+		// The directory's own maximum takes precedence
+		testHarness.poller.setMaxFilesPerCycle(dir, 0);
+		testHarness.runCycle();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(5)).fileMoved(any(FileMovedEvent.class));
+		assertThat(dir.list()).containsOnly(received.getName());
+	}
+
+	@Test
+	void testRunCycle_maxFilesPerCycle_unstableFirst() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File dir = testHarness.testdir.toFile();
+		testHarness.poller.setFilesSortComparator(new DirectoryPoller.FileSizeComparator(true));
+		testHarness.poller.setMaxFilesPerCycle(2);
+		Path growing1 = Files.write(testHarness.testdir.resolve("growing1.txt"), new byte[1]);
+		Path growing2 = Files.write(testHarness.testdir.resolve("growing2.txt"), new byte[2]);
+		for (int i = 1; i <= 3; i++) {
+			Files.write(testHarness.testdir.resolve("stable" + i + ".txt"), new byte[10 + i]);
+		}
+		File received = testHarness.poller.getAutoMoveDirectory(dir);
+		testHarness.runCycle();
+
+		// The first files in order are still being written: the next ones take their place
+		Files.write(growing1, new byte[1], APPEND);
+		Files.write(growing2, new byte[1], APPEND);
+		testHarness.runCycle();
+		assertThat(received.list()).containsOnly("stable1.txt", "stable2.txt");
+		assertThat(testHarness.poller.getDeferredFiles()).isEqualTo(1L);
+
+		// ... and they are moved first once stable, having been observed meanwhile
+		testHarness.runCycle();
+		assertThat(received.list()).containsOnly("stable1.txt", "stable2.txt", "growing1.txt", "growing2.txt");
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(5)).fileMoved(any(FileMovedEvent.class));
+	}
+
+	@Test
+	void testRunCycle_maxFilesPerCycle_recheck() throws IOException, InterruptedException {
+		TestHarness testHarness = new TestHarness();
+		File dir = testHarness.testdir.toFile();
+		testHarness.poller.setRecheckDelay(100L);
+		testHarness.poller.setFilesSortComparator(new DirectoryPoller.FileSizeComparator(true));
+		testHarness.poller.setMaxFilesPerCycle(2);
+		for (int i = 4; i >= 1; i--) {
+			Files.write(testHarness.testdir.resolve("file" + i + ".txt"), new byte[i]);
+		}
+		File received = testHarness.poller.getAutoMoveDirectory(dir);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getScheduledRechecks()).isEqualTo(4);
+
+		// Found stable together by the rechecks, but moved and announced within the maximum, in order
+		Thread.sleep(250L);
+		testHarness.poller.runRechecks();
+		assertThat(received.list()).containsOnly("file1.txt", "file2.txt");
+		assertThat(testHarness.poller.getDeferredFiles()).isEqualTo(2L);
+		ArgumentCaptor<FileSetFoundEvent> fileSetFoundCaptor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
+		verify(testHarness.pollManager, times(1)).fileSetFound(fileSetFoundCaptor.capture());
+		assertThat(fileSetFoundCaptor.getValue().getFiles()).hasSize(2);
+
+		// The others are left to the next lookup, stable already
+		testHarness.runCycle();
+		assertThat(received.list()).containsOnly("file1.txt", "file2.txt", "file3.txt", "file4.txt");
+	}
+
+	@Test
+	void testAsyncDispatch() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		DirectoryPoller poller = new DirectoryPoller(temporaryFolder.getRoot());
+		poller.setAsyncDispatch(true);
+		poller.setDispatchQueueSize(4);
+		poller.setDispatchOverflowPolicy(DispatchOverflowPolicy.DROP_OLDEST);
+		final CountDownLatch release = new CountDownLatch(1);
+		PollManager slow = mock(PollManager.class);
+		doAnswer(new Answer() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(slow).cycleStarted(any(CycleStartEvent.class));
+		poller.addPollManager(slow);
+
+		// The slow manager does not hold up the poller, and the oldest events are dropped
+		for (int i = 0; i < 10; i++) {
+			poller.notifyEvent(new CycleStartEvent(poller));
+		}
+		assertThat(poller.getQueuedEvents()).isLessThanOrEqualTo(4);
+		assertThat(poller.getDroppedEvents()).isGreaterThanOrEqualTo(5L);
+		release.countDown();
+		for (int i = 0; i < 100 && poller.getQueuedEvents() > 0; i++) {
+			Thread.sleep(10L);
+		}
+		Thread.sleep(50L);
+		verify(slow, times(10 - (int) poller.getDroppedEvents())).cycleStarted(any(CycleStartEvent.class));
+		assertThat(poller.getMaxDispatchLag()).isGreaterThanOrEqualTo(0L);
+		poller.shutdown();
+	}
+
+	@Test
+	void testAsyncDispatch_dropOldest_fileEvents() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		DirectoryPoller poller = new DirectoryPoller(temporaryFolder.getRoot());
+		poller.setAsyncDispatch(true);
+		poller.setDispatchQueueSize(4);
+		poller.setDispatchOverflowPolicy(DispatchOverflowPolicy.DROP_OLDEST);
+		final CountDownLatch release = new CountDownLatch(1);
+		PollManager slow = mock(PollManager.class);
+		doAnswer(new Answer() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				release.await();
+				return null;
+			}
+		}).when(slow).cycleStarted(any(CycleStartEvent.class));
+		poller.addPollManager(slow);
+
+		// The other events are dropped around the file set
+		for (int i = 0; i < 4; i++) {
+			poller.notifyEvent(new CycleStartEvent(poller));
+		}
+		poller.notifyEvent(new FileSetFoundEvent(poller, temporaryFolder.getRoot(), new String[]{"file.txt"}));
+		for (int i = 0; i < 3; i++) {
+			poller.notifyEvent(new CycleStartEvent(poller));
+		}
+		assertThat(poller.getDroppedEvents()).isGreaterThanOrEqualTo(3L);
+
+		// Once the file set is the oldest event, the poller waits for the manager to take it
+		new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100L);
+				} catch (InterruptedException e) {
+					// released at once
+				}
+				release.countDown();
+			}
+		}.start();
+		poller.notifyEvent(new CycleStartEvent(poller));
+		poller.shutdown();
+		verify(slow, times(1)).fileSetFound(any(FileSetFoundEvent.class));
+		verify(slow, times(8 - (int) poller.getDroppedEvents())).cycleStarted(any(CycleStartEvent.class));
+	}
+
+	@Test
+	void testAsyncDispatch_shutdown() throws IOException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		DirectoryPoller poller = new DirectoryPoller(temporaryFolder.getRoot());
+		poller.setAsyncDispatch(true);
+		PollManager slow = mock(PollManager.class);
+		doAnswer(new Answer() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				Thread.sleep(20L);
+				return null;
+			}
+		}).when(slow).fileSetFound(any(FileSetFoundEvent.class));
+		poller.addPollManager(slow);
+
+		// The files announced before the shutdown are delivered all the same
+		for (int i = 0; i < 5; i++) {
+			poller.notifyEvent(new FileSetFoundEvent(poller, temporaryFolder.getRoot(), new String[]{"file" + i + ".txt"}));
+		}
+		poller.shutdown();
+		verify(slow, times(5)).fileSetFound(any(FileSetFoundEvent.class));
+		assertThat(poller.getQueuedEvents()).isZero();
+	}
+
+	@Test
+	void testRunCycle_flowControl() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File dir = testHarness.testdir.toFile();
+		PollManager throttling = mock(PollManager.class, withSettings().extraInterfaces(FlowControl.class));
+		when(((FlowControl) throttling).isAcceptingFiles(dir)).thenReturn(false);
+		testHarness.poller.addPollManager(throttling);
+		Path file = testHarness.testdir.resolve("testfile.txt");
+		Files.write(file, "this is a test\n".getBytes("UTF-8"));
+
+		// The file stays in place while the manager is not accepting files
+		testHarness.runCycle();
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(0)).fileMoved(any(FileMovedEvent.class));
+		assertThat(file.toFile()).exists();
+		assertThat(testHarness.poller.getHeldBackLookups()).isEqualTo(2L);
+
+		verify(testHarness.pollManager, times(0)).fileSetFound(any(FileSetFoundEvent.class));
+
+		// Observed meanwhile, it is moved as soon as the manager accepts files again
+		when(((FlowControl) throttling).isAcceptingFiles(dir)).thenReturn(true);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		assertThat(file.toFile()).doesNotExist();
+	}
+
+	@Test
+	void testRunCycle_adaptivePollInterval() throws IOException {
+		TestHarness testHarness = new TestHarness();
+		File dir = testHarness.testdir.toFile();
+		testHarness.poller.setAdaptivePollInterval(true);
+		testHarness.poller.setMinPollInterval(1000L);
+		testHarness.poller.setMaxPollInterval(5000L);
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(1000L);
+
+		// Idle: back off exponentially, up to the maximum
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(2000L);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(4000L);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(5000L);
+
+		// A file arrives: back to the minimum until it has been processed
+		Path file = testHarness.testdir.resolve("testfile.txt");
+		Files.write(file, "this is a test\n".getBytes("UTF-8"));
+		file.toFile().setLastModified(System.currentTimeMillis() + 1000L);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(1000L);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getEffectivePollInterval(dir)).isEqualTo(2000L);
+	}
+
+	@Test
+	void testRunCycle_checksum() throws IOException, NoSuchAlgorithmException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setChecksumAlgorithm("MD5");
+		Path file = testHarness.testdir.resolve("testfile.txt");
+
+		// Digested as it grows, each byte read once, completed once stable
+		Files.write(file, "this is ".getBytes("UTF-8"));
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getDigestedBytes()).isEqualTo(8L);
+		Files.write(file, "a test\n".getBytes("UTF-8"), APPEND);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getDigestedBytes()).isEqualTo(15L);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+		assertThat(testHarness.poller.getDigestedBytes()).isEqualTo(15L);
+
+		StringBuilder expected = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest("this is a test\n".getBytes("UTF-8"))) {
+			expected.append(String.format("%02x", b));
+		}
+		ArgumentCaptor<FileSetFoundEvent> fileSetFoundCaptor = ArgumentCaptor.forClass(FileSetFoundEvent.class);
+		verify(testHarness.pollManager, times(1)).fileSetFound(fileSetFoundCaptor.capture());
+		FileSetFoundEvent fileSetFound = fileSetFoundCaptor.getValue();
+		assertThat(fileSetFound.getChecksumAlgorithm()).isEqualTo("MD5");
+		assertThat(fileSetFound.getChecksum(fileSetFound.getFiles()[0])).isEqualTo(expected.toString());
+		ArgumentCaptor<FileFoundEvent> fileFoundCaptor = ArgumentCaptor.forClass(FileFoundEvent.class);
+		verify(testHarness.pollManager, times(1)).fileFound(fileFoundCaptor.capture());
+		assertThat(fileFoundCaptor.getValue().getChecksum()).isEqualTo(expected.toString());
+	}
+
+	@Test
+	void testRunCycle_checksum_rewritten() throws IOException, NoSuchAlgorithmException {
+		TestHarness testHarness = new TestHarness();
+		testHarness.poller.setChecksumAlgorithm("MD5");
+		Path file = testHarness.testdir.resolve("testfile.txt");
+		Files.write(file, "this is a test\n".getBytes("UTF-8"));
+		file.toFile().setLastModified(System.currentTimeMillis() - 60000L);
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getDigestedBytes()).isEqualTo(15L);
+
+		// Rewritten without growing: digested again from the start
+		Files.write(file, "that is a test\n".getBytes("UTF-8"));
+		testHarness.runCycle();
+		assertThat(testHarness.poller.getDigestedBytes()).isEqualTo(30L);
+		testHarness.runCycle();
+		verify(testHarness.pollManager, times(1)).fileMoved(any(FileMovedEvent.class));
+
+		StringBuilder expected = new StringBuilder();
+		for (byte b : MessageDigest.getInstance("MD5").digest("that is a test\n".getBytes("UTF-8"))) {
+			expected.append(String.format("%02x", b));
+		}
+		ArgumentCaptor<FileFoundEvent> fileFoundCaptor = ArgumentCaptor.forClass(FileFoundEvent.class);
+		verify(testHarness.pollManager, times(1)).fileFound(fileFoundCaptor.capture());
+		assertThat(fileFoundCaptor.getValue().getChecksum()).isEqualTo(expected.toString());
+	}
+
+	@Test
+	void testWatchService_changeSelectsDirectory() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		File changing = temporaryFolder.newFolder("changing");
+		File idle = temporaryFolder.newFolder("idle");
+		DirectoryPoller poller = new DirectoryPoller(new File[]{changing, idle});
+		poller.setAutoMove(true);
+		poller.setUsingWatchService(true);
+		poller.setSafetyRescanInterval(0L);
+		poller.setPollInterval(60000L);
+		LookupCounter counter = new LookupCounter();
+		poller.addPollManager(counter);
+		poller.start();
+		try {
+			assertThat(counter.await(changing, 1)).isTrue();
+			assertThat(counter.await(idle, 1)).isTrue();
+			// Let the poller register the directories once done with the first cycle
+			Thread.sleep(500L);
+
+			// Only the directory which has changed is looked up, well before the poll interval
+			Files.write(new File(changing, "testfile.txt").toPath(), "this is a test\n".getBytes("UTF-8"));
+			assertThat(counter.await(changing, 2)).isTrue();
+			Thread.sleep(200L);
+			assertThat(counter.getLookups(idle)).isEqualTo(1);
+		} finally {
+			poller.shutdown();
+			poller.join(5000L);
+		}
+	}
+
+	@Test
+	void testWatchService_pendingFilesUsePollInterval() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		File pending = temporaryFolder.newFolder("pending");
+		File idle = temporaryFolder.newFolder("idle");
+		Files.write(new File(pending, "testfile.txt").toPath(), "this is a test\n".getBytes("UTF-8"));
+		DirectoryPoller poller = new DirectoryPoller(new File[]{pending, idle});
+		poller.setAutoMove(true);
+		poller.setUsingWatchService(true);
+		poller.setSafetyRescanInterval(0L);
+		poller.setPollInterval(300L);
+		LookupCounter counter = new LookupCounter();
+		poller.addPollManager(counter);
+		poller.start();
+		try {
+			// The file seen by the first cycle is judged again after a poll interval, with no change notified
+			assertThat(counter.await(pending, 2)).isTrue();
+			for (int i = 0; i < 500 && counter.moved.get() == 0; i++) {
+				Thread.sleep(10L);
+			}
+			assertThat(counter.moved.get()).isEqualTo(1);
+			assertThat(counter.getLookups(idle)).isEqualTo(1);
+		} finally {
+			poller.shutdown();
+			poller.join(5000L);
+		}
+	}
+
+	@Test
+	void testWatchService_safetyRescan() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		File idle = temporaryFolder.newFolder("idle");
+		DirectoryPoller poller = new DirectoryPoller(idle);
+		poller.setAutoMove(true);
+		poller.setUsingWatchService(true);
+		poller.setSafetyRescanInterval(300L);
+		poller.setPollInterval(60000L);
+		LookupCounter counter = new LookupCounter();
+		poller.addPollManager(counter);
+		poller.start();
+		try {
+			// Looked up again without any change notified, well before the poll interval
+			assertThat(counter.await(idle, 3)).isTrue();
+		} finally {
+			poller.shutdown();
+			poller.join(5000L);
+		}
+	}
+
+	@Test
+	void testWatchService_unreliableFileStore() throws IOException, InterruptedException {
+		TemporaryFolder temporaryFolder = new TemporaryFolder();
+		temporaryFolder.create();
+		File remote = temporaryFolder.newFolder("remote");
+		DirectoryWatcher nfsWatcher = new NfsDirectoryWatcher();
+		nfsWatcher.update(new File[]{remote});
+		assertThat(nfsWatcher.isWatched(PathNormalizer.normalize(remote))).isFalse();
+		nfsWatcher.close();
+
+		DirectoryPoller poller = new DirectoryPoller(remote) {
+			@Override
+			DirectoryWatcher createDirectoryWatcher() throws IOException {
+				return new NfsDirectoryWatcher();
+			}
+		};
+		poller.setAutoMove(true);
+		poller.setUsingWatchService(true);
+		poller.setSafetyRescanInterval(0L);
+		poller.setPollInterval(200L);
+		LookupCounter counter = new LookupCounter();
+		poller.addPollManager(counter);
+		poller.start();
+		try {
+			// Not watched, so looked up every poll interval
+			assertThat(counter.await(remote, 3)).isTrue();
+		} finally {
+			poller.shutdown();
+			poller.join(5000L);
+		}
+	}
+
+	static class NfsDirectoryWatcher extends DirectoryWatcher {
+
+		NfsDirectoryWatcher() throws IOException {
+		}
+
+		@Override
+		String getFileStoreType(File dir) {
+			return "nfs";
+		}
+	}
+
+	static class LookupCounter extends BasePollManager {
+
+		final ConcurrentMap<File, AtomicInteger> lookups = new ConcurrentHashMap<>();
+		final AtomicInteger moved = new AtomicInteger();
+
+		@Override
+		public void directoryLookupStarted(DirectoryLookupStartEvent evt) {
+			File dir = PathNormalizer.normalize(evt.getDirectory());
+			lookups.putIfAbsent(dir, new AtomicInteger());
+			lookups.get(dir).incrementAndGet();
+		}
+
+		@Override
+		public void fileMoved(FileMovedEvent evt) {
+			moved.incrementAndGet();
+		}
+
+		int getLookups(File dir) {
+			AtomicInteger count = lookups.get(PathNormalizer.normalize(dir));
+			return count == null ? 0 : count.get();
+		}
+
+		boolean await(File dir, int count) throws InterruptedException {
+			for (int i = 0; i < 500 && getLookups(dir) < count; i++) {
+				Thread.sleep(10L);
+			}
+			return getLookups(dir) >= count;
+		}
+	}
 
 	class TestHarness {
 
@@ -309,6 +1225,16 @@ public class DirectoryPollerTest {
 			}
 		}
 
+		TestHarness(TemporaryFolder temporaryFolder, Path testdir) {
+			// Poll an existing directory, as a restarted poller would
+			fs = null;
+			this.temporaryFolder = temporaryFolder;
+			this.testdir = testdir;
+			pollManager = mock(PollManager.class);
+			poller = spy(new DirectoryPoller());
+			initPoller();
+		}
+
 		TestHarness(Configuration configuration) throws IOException {
 			// Use Jimfs virtual filesystem
 			temporaryFolder = null;